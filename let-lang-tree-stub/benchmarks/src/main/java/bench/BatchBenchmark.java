@@ -0,0 +1,121 @@
+package bench;
+
+import ast.Column;
+import ast.SyntaxTree;
+import environment.Environment;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import lexer.Token;
+import lexer.TokenType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.Parser;
+import vm.CompiledExpression;
+import vm.JitCompiler;
+import vm.Program;
+import vm.ProgramCompiler;
+
+/**
+ * Measures evaluating one expression for every row of a batch of real
+ * inputs, row by row with the tree and the compiled class, against
+ * evaluating it once over the columns of the batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark
+{
+  private static final String EXPRESSION =
+      "let d := x - y in (d * d + z) / (x + 1.5) - 3 * y + (let s := x * y in s * s)";
+
+  @Param({"1000", "1000000"})
+  public int rows;
+
+  private SyntaxTree tree;
+  private CompiledExpression compiled;
+  private Token[] names;
+  private double[][] rowInputs;
+  private Map<String, Column> columns;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    tree = new Parser(EXPRESSION).parse();
+    Program program = ProgramCompiler.compile(tree);
+    compiled = JitCompiler.compile(program);
+
+    String[] inputs = program.getInputNames();
+    Random random = new Random(42);
+    double[][] values = new double[inputs.length][rows];
+    names = new Token[inputs.length];
+    columns = new HashMap<>();
+    for (int i = 0; i < inputs.length; i++)
+    {
+      for (int row = 0; row < rows; row++)
+        values[i][row] = random.nextDouble() * 100;
+      names[i] = new Token(TokenType.ID, inputs[i]);
+      columns.put(inputs[i], Column.ofDoubles(values[i]));
+    }
+    rowInputs = new double[rows][inputs.length];
+    for (int row = 0; row < rows; row++)
+      for (int i = 0; i < inputs.length; i++)
+        rowInputs[row][i] = values[i][row];
+  }
+
+  /**
+   * Evaluates the tree once for each row, binding the inputs of the row
+   * in an environment.
+   * @return the sum of the values.
+   */
+  @Benchmark
+  public double evaluateRows()
+  {
+    Environment env = new Environment();
+    double sum = 0;
+    for (double[] row : rowInputs)
+    {
+      for (int i = 0; i < names.length; i++)
+        env.updateEnvironment(names[i], row[i]);
+      sum += ((Number) tree.evaluate(env)).doubleValue();
+    }
+    return sum;
+  }
+
+  /**
+   * Runs the compiled class once for each row.
+   * @return the sum of the values.
+   */
+  @Benchmark
+  public double jitRows()
+  {
+    double sum = 0;
+    for (double[] row : rowInputs)
+      sum += compiled.eval(row);
+    return sum;
+  }
+
+  /**
+   * Evaluates the tree once over the columns of the batch.
+   * @return the values.
+   */
+  @Benchmark
+  public Column evaluateBatch()
+  {
+    return tree.evaluateBatch(columns, rows);
+  }
+}
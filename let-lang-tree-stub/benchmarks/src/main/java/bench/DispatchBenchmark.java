@@ -0,0 +1,265 @@
+package bench;
+
+import ast.Optimizer;
+import ast.SyntaxTree;
+import ast.TreeFile;
+import ast.TreePrinter;
+import ast.nodes.BinOpNode;
+import ast.nodes.FlatNode;
+import ast.nodes.LetNode;
+import ast.nodes.NodeVisitor;
+import ast.nodes.Result;
+import ast.nodes.SyntaxNode;
+import ast.nodes.TokenNode;
+import ast.nodes.TreeWalker;
+import environment.Environment;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import lexer.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.Parser;
+import vm.ProgramCompiler;
+
+/**
+ * Measures the cost of the ways a pass can dispatch on the kinds of node,
+ * with the same work done for each node: the virtual {@code evaluate} of
+ * the nodes, a {@link NodeVisitor}, {@code instanceof} tests against the
+ * sealed classes of node, and a {@link TreeWalker} pass. Before measuring,
+ * the other passes built on the walker are run over the tree, so the
+ * walker's calls into its pass see as many kinds of pass as they would in
+ * a program that prints, optimizes, compiles and saves trees.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark
+{
+  @Param({"balanced", "deep"})
+  public String shape;
+
+  @Param({"10000"})
+  public int size;
+
+  private SyntaxTree tree;
+  private Environment env;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    tree = new Parser(Inputs.generate(shape, size, 16)).parse();
+    env = tree.getEnvironment().extend(tree.getSlotCount());
+    for (int i = 0; i < 200; i++)
+    {
+      TreePrinter.print(tree.getRootNode());
+      Optimizer.optimize(tree);
+      ProgramCompiler.compile(tree);
+      TreeFile.encode(tree);
+    }
+  }
+
+  /**
+   * Evaluates the tree with the {@code evaluate} method of its nodes.
+   * @return the value.
+   */
+  @Benchmark
+  public Object evaluate()
+  {
+    return tree.evaluate();
+  }
+
+  /**
+   * Evaluates the tree with a visitor.
+   * @return the value.
+   */
+  @Benchmark
+  public Object visitor()
+  {
+    Evaluator visitor = new Evaluator(env);
+    tree.getRootNode().accept(visitor);
+    return visitor.res.toNumber();
+  }
+
+  /**
+   * Evaluates the tree testing for each kind of node.
+   * @return the value.
+   */
+  @Benchmark
+  public Object patternMatch()
+  {
+    Result res = new Result();
+    match(tree.getRootNode(), env, res);
+    return res.toNumber();
+  }
+
+  /**
+   * Evaluates the tree with a walker pass.
+   * @return the value.
+   */
+  @Benchmark
+  public Object walker()
+  {
+    Operands pass = new Operands(env);
+    TreeWalker.walk(tree.getRootNode(), pass);
+    return pass.res.toNumber();
+  }
+
+  /**
+   * Evaluates a node by testing its class.
+   * @param node the node.
+   * @param env the executional environment.
+   * @param res where to store the value.
+   */
+  private static void match(SyntaxNode node, Environment env, Result res)
+  {
+    if (node instanceof BinOpNode binOp)
+    {
+      match(binOp.getLeft(), env, res);
+      boolean leftReal = res.isReal();
+      long leftLong = res.getLong();
+      double leftDouble = res.getDouble();
+      match(binOp.getRight(), env, res);
+      res.apply(binOp.getOpType(), leftReal, leftLong, leftDouble);
+    }
+    else if (node instanceof LetNode let)
+    {
+      match(let.getLeft(), env, res);
+      if (res.isReal())
+        env.setDouble(let.getSlot(), res.getDouble());
+      else
+        env.setLong(let.getSlot(), res.getLong());
+      match(let.getRight(), env, res);
+    }
+    else
+      node.evaluate(env, res);
+  }
+
+  /**
+   * Evaluates a tree as a visitor.
+   */
+  private static final class Evaluator implements NodeVisitor<Void>
+  {
+    private final Environment env;
+    private final Result res = new Result();
+
+    Evaluator(Environment env)
+    {
+      this.env = env;
+    }
+
+    @Override
+    public Void visitBinOp(BinOpNode node)
+    {
+      node.getLeft().accept(this);
+      boolean leftReal = res.isReal();
+      long leftLong = res.getLong();
+      double leftDouble = res.getDouble();
+      node.getRight().accept(this);
+      res.apply(node.getOpType(), leftReal, leftLong, leftDouble);
+      return null;
+    }
+
+    @Override
+    public Void visitLet(LetNode node)
+    {
+      node.getLeft().accept(this);
+      if (res.isReal())
+        env.setDouble(node.getSlot(), res.getDouble());
+      else
+        env.setLong(node.getSlot(), res.getLong());
+      node.getRight().accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitToken(TokenNode node)
+    {
+      node.evaluate(env, res);
+      return null;
+    }
+
+    @Override
+    public Void visitFlat(FlatNode node)
+    {
+      node.evaluate(env, res);
+      return null;
+    }
+  }
+
+  /**
+   * Evaluates a tree as a walker pass, keeping the values of the left
+   * operands waiting on their right ones on a stack of its own.
+   */
+  private static final class Operands implements TreeWalker.Pass<Void>
+  {
+    private final Environment env;
+    private final Result res = new Result();
+    private boolean[] reals = new boolean[64];
+    private long[] longs = new long[64];
+    private double[] doubles = new double[64];
+    private int top;
+
+    Operands(Environment env)
+    {
+      this.env = env;
+    }
+
+    @Override
+    public Void leaf(SyntaxNode node, Token tok, int slot)
+    {
+      node.evaluate(env, res);
+      return null;
+    }
+
+    @Override
+    public void betweenOperands(Token op, Void left)
+    {
+      if (top == reals.length)
+      {
+        reals = Arrays.copyOf(reals, top * 2);
+        longs = Arrays.copyOf(longs, top * 2);
+        doubles = Arrays.copyOf(doubles, top * 2);
+      }
+      reals[top] = res.isReal();
+      longs[top] = res.getLong();
+      doubles[top] = res.getDouble();
+      top++;
+    }
+
+    @Override
+    public Void operation(Token op, Void left, Void right)
+    {
+      top--;
+      res.apply(op.getType(), reals[top], longs[top], doubles[top]);
+      return null;
+    }
+
+    @Override
+    public void bind(Token variable, int slot, Void bound)
+    {
+      if (res.isReal())
+        env.setDouble(slot, res.getDouble());
+      else
+        env.setLong(slot, res.getLong());
+    }
+
+    @Override
+    public Void let(Token variable, int slot, Void bound, Void body)
+    {
+      return null;
+    }
+  }
+}
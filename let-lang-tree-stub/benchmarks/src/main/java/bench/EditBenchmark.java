@@ -0,0 +1,96 @@
+package bench;
+
+import ast.SyntaxTree;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.IncrementalParser;
+import parser.Parser;
+
+/**
+ * Measures {@link IncrementalParser#edit(int, int, String)} on a chain of
+ * nested lets and on a sum of parenthesized lets, as an editor changing a
+ * digit of the bound expression of one binding in the middle or at the
+ * end, against parsing the whole source again. The time of an edit should
+ * stay about the same however many bindings there are.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditBenchmark
+{
+  @Param({"nested", "sibling"})
+  public String shape;
+
+  @Param({"1000", "8000", "64000"})
+  public int bindings;
+
+  @Param({"middle", "end"})
+  public String place;
+
+  private String input;
+  private IncrementalParser incremental;
+  private int offset;
+  private boolean edited;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    // let a0 := 1 + 0 in let a1 := 1 + 1 in ... a999 or
+    // (let a0 := 1 + 0 in a0) + (let a1 := 1 + 1 in a1) + ...
+    int target = place.equals("end") ? bindings - 1 : bindings / 2;
+    StringBuilder src = new StringBuilder();
+    for (int i = 0; i < bindings; i++)
+    {
+      if (shape.equals("nested"))
+        src.append("let a").append(i).append(" := ");
+      else
+        src.append(i > 0 ? " + " : "").append("(let a").append(i).append(" := ");
+      if (i == target)
+        offset = src.length();
+      src.append("1 + ").append(i).append(" in ");
+      if (!shape.equals("nested"))
+        src.append('a').append(i).append(')');
+    }
+    if (shape.equals("nested"))
+      src.append('a').append(bindings - 1);
+    input = src.toString();
+    incremental = new IncrementalParser(input);
+  }
+
+  /**
+   * Changes the first digit of the bound expression of the binding,
+   * from 1 to 2 and back.
+   * @return the tree of the edited source.
+   */
+  @Benchmark
+  public SyntaxTree edit()
+  {
+    edited = !edited;
+    return incremental.edit(offset, 1, edited ? "2" : "1");
+  }
+
+  /**
+   * Parses the whole source, as an edit without an incremental parser
+   * would.
+   * @return the tree.
+   */
+  @Benchmark
+  public SyntaxTree reparse()
+  {
+    return new Parser(input).parse();
+  }
+}
@@ -0,0 +1,115 @@
+package bench;
+
+import ast.Optimizer;
+import ast.SyntaxTree;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.Parser;
+import vm.CompiledExpression;
+import vm.JitCompiler;
+import vm.Program;
+import vm.ProgramCompiler;
+
+/**
+ * Measures evaluating a parsed program by walking its tree, and compares
+ * it with running the same program on the stack machine and as a compiled
+ * class.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark
+{
+  private static final double[] NO_INPUTS = new double[0];
+
+  @Param({"wide", "deep", "let"})
+  public String shape;
+
+  @Param({"1000", "10000"})
+  public int size;
+
+  @Param({"16"})
+  public int depth;
+
+  private SyntaxTree tree;
+  private SyntaxTree flatTree;
+  private SyntaxTree optimizedTree;
+  private CompiledExpression interpreted;
+  private CompiledExpression compiled;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    String input = Inputs.generate(shape, size, depth);
+    tree = new Parser(input).parse();
+    flatTree = new Parser(input).parseFlat();
+    optimizedTree = Optimizer.optimize(tree);
+    Program program = ProgramCompiler.compile(tree);
+    interpreted = JitCompiler.interpret(program);
+    compiled = JitCompiler.compile(program);
+  }
+
+  /**
+   * Evaluates the tree with {@link SyntaxTree#evaluate()}.
+   * @return the value.
+   */
+  @Benchmark
+  public Object evaluate()
+  {
+    return tree.evaluate();
+  }
+
+  /**
+   * Evaluates the same tree held in a flat arena.
+   * @return the value.
+   */
+  @Benchmark
+  public Object evaluateFlat()
+  {
+    return flatTree.evaluate();
+  }
+
+  /**
+   * Evaluates the tree after {@link Optimizer} has folded and shared it.
+   * @return the value.
+   */
+  @Benchmark
+  public Object evaluateOptimized()
+  {
+    return optimizedTree.evaluate();
+  }
+
+  /**
+   * Runs the program of the tree on the stack machine.
+   * @return the value.
+   */
+  @Benchmark
+  public double interpret()
+  {
+    return interpreted.eval(NO_INPUTS);
+  }
+
+  /**
+   * Runs the program of the tree compiled to a class.
+   * @return the value.
+   */
+  @Benchmark
+  public double jit()
+  {
+    return compiled.eval(NO_INPUTS);
+  }
+}
@@ -0,0 +1,134 @@
+package bench;
+
+/**
+ * Generates synthetic programs of a given size and nesting depth.
+ */
+public final class Inputs
+{
+  private Inputs()
+  {
+  }
+
+  /**
+   * Generates an expression.
+   * @param shape the shape of the expression: {@code wide} for a flat sum
+   * of products, {@code deep} for nested parentheses, {@code let} for
+   * chains of nested lets, or {@code balanced} for operations whose
+   * operands are the same size.
+   * @param size the number of operands, or lets for {@code let}.
+   * @param depth how deep parentheses or lets nest before a new group is
+   * started; ignored for {@code wide} and {@code balanced}.
+   * @return the source of the expression.
+   */
+  public static String generate(String shape, int size, int depth)
+  {
+    switch (shape)
+    {
+      case "wide":
+        return wide(size);
+      case "deep":
+        return deep(size, depth);
+      case "let":
+        return lets(size, depth);
+      case "balanced":
+        return balanced(new StringBuilder(), 0, size).toString();
+      default:
+        throw new IllegalArgumentException("Unknown shape " + shape);
+    }
+  }
+
+  /**
+   * Generates {@code 1 + 2 * 3 + 4 * 5 ...} with {@code size} operands.
+   * @param size the number of operands.
+   * @return the expression.
+   */
+  private static String wide(int size)
+  {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < size; i++)
+    {
+      if (i > 0)
+        sb.append(i % 2 == 0 ? " + " : " * ");
+      sb.append(i % 10 == 9 ? (i % 97) + ".5" : String.valueOf(i % 97));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Generates {@code ((0 + 1) * (2 - 3)) + ...} with {@code size}
+   * operands, splitting them in half at each operation.
+   * @param sb where to append the expression.
+   * @param first the number of operands before these.
+   * @param size the number of operands.
+   * @return {@code sb}.
+   */
+  private static StringBuilder balanced(StringBuilder sb, int first, int size)
+  {
+    if (size == 1)
+      return sb.append(first % 10 == 9 ? (first % 97) + ".5" : String.valueOf(first % 97));
+    int half = size / 2;
+    sb.append('(');
+    balanced(sb, first, half);
+    sb.append(' ').append("+*-".charAt(first % 3)).append(' ');
+    balanced(sb, first + half, size - half);
+    return sb.append(')');
+  }
+
+  /**
+   * Generates a sum of groups {@code (((1 + 1) * 2) - 3 ...)} nested
+   * {@code depth} parentheses deep, with {@code size} operands in all.
+   * @param size the number of operands.
+   * @param depth the nesting depth of each group.
+   * @return the expression.
+   */
+  private static String deep(int size, int depth)
+  {
+    StringBuilder sb = new StringBuilder();
+    String ops = "+*-";
+    for (int operands = 0; operands < size; )
+    {
+      if (operands > 0)
+        sb.append(" + ");
+      int n = Math.max(1, Math.min(depth, size - operands - 1));
+      for (int i = 0; i < n; i++)
+        sb.append('(');
+      sb.append(1);
+      for (int i = 0; i < n; i++)
+        sb.append(' ').append(ops.charAt(i % 3)).append(' ').append(i % 7 + 1).append(')');
+      operands += n + 1;
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Generates a sum of let chains
+   * {@code (let x0 := 1 in let x1 := x0 + 1 in ... x0 * xn)}, each
+   * {@code depth} lets deep, with {@code size} lets in all.
+   * @param size the number of lets.
+   * @param depth the number of lets in each chain.
+   * @return the expression.
+   */
+  private static String lets(int size, int depth)
+  {
+    StringBuilder sb = new StringBuilder();
+    for (int lets = 0; lets < size; )
+    {
+      if (lets > 0)
+        sb.append(" + ");
+      int n = Math.max(1, Math.min(depth, size - lets));
+      sb.append('(');
+      for (int i = 0; i < n; i++)
+      {
+        sb.append("let x").append(i).append(" := ");
+        if (i == 0)
+          sb.append(lets % 13);
+        else
+          sb.append('x').append(i - 1).append(" + ").append(i % 5);
+        sb.append(" in\n  ");
+      }
+      sb.append("x0 * x").append(n - 1).append(')');
+      lets += n;
+    }
+    return sb.toString();
+  }
+}
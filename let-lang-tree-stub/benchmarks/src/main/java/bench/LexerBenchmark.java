@@ -0,0 +1,66 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import lexer.Lexer;
+import lexer.Token;
+import lexer.TokenType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of {@link Lexer#nextToken()} over a whole
+ * input. The lexer is reset for each pass, so only the scanning itself
+ * and the tokens it makes are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark
+{
+  @Param({"wide", "deep", "let"})
+  public String shape;
+
+  @Param({"1000", "100000"})
+  public int size;
+
+  @Param({"16"})
+  public int depth;
+
+  private String input;
+  private Lexer lexer;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    input = Inputs.generate(shape, size, depth);
+    lexer = new Lexer("");
+  }
+
+  /**
+   * Lexes the whole input.
+   * @return the number of tokens read, including the end of the input.
+   */
+  @Benchmark
+  public int nextToken()
+  {
+    lexer.reset(input);
+    int count = 1;
+    for (Token tok = lexer.nextToken(); tok.getType() != TokenType.EOF;
+        tok = lexer.nextToken())
+      count++;
+    return count;
+  }
+}
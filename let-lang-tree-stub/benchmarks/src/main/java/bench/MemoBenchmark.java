@@ -0,0 +1,111 @@
+package bench;
+
+import ast.MemoizedEvaluator;
+import ast.SyntaxTree;
+import environment.Environment;
+import java.util.concurrent.TimeUnit;
+import lexer.Token;
+import lexer.TokenType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.Parser;
+
+/**
+ * Measures evaluating a tree over many inputs again after one input
+ * changes, walking the whole tree against working out only what the
+ * change touches with {@link MemoizedEvaluator}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoBenchmark
+{
+  @Param({"100", "10000"})
+  public int inputs;
+
+  private SyntaxTree tree;
+  private MemoizedEvaluator memo;
+  private Token[] names;
+  private long step;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    tree = new Parser(terms(new StringBuilder(), 0, inputs).toString()).parse();
+    Environment env = tree.getEnvironment();
+    names = new Token[inputs];
+    for (int i = 0; i < inputs; i++)
+    {
+      names[i] = new Token(TokenType.ID, "v" + i);
+      env.updateEnvironment(names[i], (long) i);
+    }
+    memo = new MemoizedEvaluator(tree);
+    memo.evaluate();
+  }
+
+  /**
+   * Changes one input and evaluates the whole tree.
+   * @return the value.
+   */
+  @Benchmark
+  public Object evaluate()
+  {
+    change();
+    return tree.evaluate();
+  }
+
+  /**
+   * Changes one input and evaluates the tree, taking the kept values of
+   * the subtrees the input does not reach.
+   * @return the value.
+   */
+  @Benchmark
+  public Object evaluateMemoized()
+  {
+    change();
+    return memo.evaluate();
+  }
+
+  /**
+   * Gives the next input a new value.
+   */
+  private void change()
+  {
+    step++;
+    tree.getEnvironment().updateEnvironment(names[(int) (step % inputs)], step);
+  }
+
+  /**
+   * Generates a sum of {@code (v0 * 3 + v0 / 2 - 0) + ...}, one term for
+   * each input, splitting the terms in half at each addition.
+   * @param sb where to append the expression.
+   * @param first the number of terms before these.
+   * @param count the number of terms.
+   * @return {@code sb}.
+   */
+  private static StringBuilder terms(StringBuilder sb, int first, int count)
+  {
+    if (count == 1)
+      return sb.append("(v").append(first).append(" * 3 + v").append(first)
+          .append(" / 2 - ").append(first % 7).append(')');
+    int half = count / 2;
+    sb.append('(');
+    terms(sb, first, half);
+    sb.append(" + ");
+    terms(sb, first + half, count - half);
+    return sb.append(')');
+  }
+}
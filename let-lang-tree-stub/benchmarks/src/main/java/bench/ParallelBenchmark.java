@@ -0,0 +1,78 @@
+package bench;
+
+import ast.ParallelEvaluator;
+import ast.SyntaxTree;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.Parser;
+
+/**
+ * Measures evaluating a large tree on one thread against evaluating it
+ * with {@link ParallelEvaluator} on every core.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelBenchmark
+{
+  @Param({"balanced"})
+  public String shape;
+
+  @Param({"100000", "1000000"})
+  public int size;
+
+  @Param({"1024", "4096", "16384"})
+  public int threshold;
+
+  private SyntaxTree tree;
+  private ForkJoinPool pool;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    tree = new Parser(Inputs.generate(shape, size, 16)).parse();
+    pool = new ForkJoinPool();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    pool.shutdown();
+  }
+
+  /**
+   * Evaluates the tree on the calling thread.
+   * @return the value.
+   */
+  @Benchmark
+  public Object evaluate()
+  {
+    return tree.evaluate();
+  }
+
+  /**
+   * Evaluates the tree on the threads of the pool.
+   * @return the value.
+   */
+  @Benchmark
+  public Object evaluateParallel()
+  {
+    return ParallelEvaluator.evaluate(tree, pool, threshold);
+  }
+}
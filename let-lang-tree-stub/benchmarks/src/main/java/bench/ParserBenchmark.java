@@ -0,0 +1,99 @@
+package bench;
+
+import ast.SyntaxTree;
+import ast.TreeFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.Parser;
+
+/**
+ * Measures {@link Parser#parse()} on wide, deeply nested and let heavy
+ * inputs, lexing included, against loading the same tree from its
+ * {@link TreeFile} form.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark
+{
+  @Param({"wide", "deep", "let"})
+  public String shape;
+
+  @Param({"1000", "100000"})
+  public int size;
+
+  @Param({"16", "1000"})
+  public int depth;
+
+  private String input;
+  private Parser parser;
+  private ByteBuffer encoded;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    input = Inputs.generate(shape, size, depth);
+    parser = new Parser("");
+    encoded = TreeFile.encode(new Parser(input).parseFlat());
+  }
+
+  /**
+   * Parses the input with a parser that is reset for each parse.
+   * @return the tree.
+   */
+  @Benchmark
+  public SyntaxTree parse()
+  {
+    parser.reset(input);
+    return parser.parse();
+  }
+
+  /**
+   * Parses the input into a flat arena with a parser that is reset for
+   * each parse.
+   * @return the tree.
+   */
+  @Benchmark
+  public SyntaxTree parseFlat()
+  {
+    parser.reset(input);
+    return parser.parseFlat();
+  }
+
+  /**
+   * Parses the input with a new parser, as a one-off caller would.
+   * @return the tree.
+   */
+  @Benchmark
+  public SyntaxTree parseFresh()
+  {
+    return new Parser(input).parse();
+  }
+
+  /**
+   * Loads the tree from its encoded form instead of parsing the input.
+   * @return the tree.
+   * @throws IOException if the encoded tree is not valid.
+   */
+  @Benchmark
+  public SyntaxTree decode() throws IOException
+  {
+    return TreeFile.decode(encoded);
+  }
+}
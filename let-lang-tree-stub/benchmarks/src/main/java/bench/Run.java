@@ -0,0 +1,31 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, always adding the
+ * gc profiler so that a change in bytes/op shows up next to the time.
+ */
+public class Run
+{
+  /**
+   * The entry point.
+   * @param args JMH options, such as a benchmark pattern or {@code -p}
+   * parameter values.
+   * @throws CommandLineOptionException if the options are not valid.
+   * @throws RunnerException if a benchmark fails.
+   */
+  public static void main(String[] args)
+      throws CommandLineOptionException, RunnerException
+  {
+    new Runner(new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+}
@@ -1,13 +1,47 @@
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileReader;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.management.JMException;
+import lexer.Lexer;
+import parser.ParseMetrics;
 import parser.Parser;
+import ast.EvaluationException;
+import ast.Optimizer;
 import ast.SyntaxTree;
+import ast.TreeFile;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 /**
  * This provides a simple front end to a recursie descent parser for
  * a toy language.
+ *
+ * Without arguments the driver asks for one file and parses it with
+ * tracing on. Given files, directories or {@code @list} files naming one
+ * file per line, it checks every {@code .let} file they name in parallel
+ * and reports on each in the order given, followed by the throughput of
+ * the whole batch and the parse metrics, which can also be watched over
+ * JMX while the batch runs. With {@code -O} each tree is optimized before
+ * it is evaluated. With {@code --round-trip} each tree is also written to a
+ * tree file and loaded back, and the loaded tree must print and evaluate
+ * the same; a failed round trip exits with status 2. With {@code --stream}
+ * it reads expressions separated by semicolons or line breaks from a file
+ * or standard input and prints the value of each as soon as it has been
+ * read.
  */
 public class Driver {
 	 /**
@@ -19,12 +53,17 @@ public class Driver {
 		 Parser parse;
 		 SyntaxTree ast;
 
-		 // Determine if we are looking at file or command line.
-		//  if (args.length != 1)
-		//  {
-		//    System.err.println("Usage: let-lang <filename>");
-		//    System.exit(1);
-		//  }
+		 if (args.length > 0 && args[0].equals("--stream"))
+		 {
+			 stream(args);
+			 return;
+		 }
+		 if (args.length > 0)
+		 {
+			 batch(args);
+			 return;
+		 }
+
 		try
 		{
 			Scanner sc = new Scanner(System.in);
@@ -35,19 +74,318 @@ public class Driver {
 			parse.toggleTracing();      // Uncomment to turn on debug tracing.
 
 			ast = parse.parse();
-			if (!parse.hasError())
+			report(parse, ast, System.out);
+		}
+		catch (FileNotFoundException ex)
+		{
+			System.err.println(ex);
+			System.exit(1);
+		}
+
+	}
+
+	/**
+	 * Prints the outcome of a parse, evaluating the tree if the parse
+	 * succeeded.
+	 * @param parse the parser that produced {@code ast}.
+	 * @param ast the tree produced.
+	 * @param out where to print the outcome.
+	 * @return true if the input parsed and evaluated; otherwise, false.
+	 */
+	private static boolean report(Parser parse, SyntaxTree ast, PrintStream out)
+	{
+		if (parse.hasError())
+		{
+			out.println("Parse failed.");
+			return false;
+		}
+
+		out.println("Parse successful!");
+		out.print("Result: ");
+		try
+		{
+			ast.print(out);
+		}
+		catch (IOException ex)
+		{
+			throw new UncheckedIOException(ex);  // A PrintStream does not fail.
+		}
+		out.println();
+		try
+		{
+			out.println("Value: " + ast.evaluate());
+			return true;
+		}
+		catch (EvaluationException ex)
+		{
+			out.println("Evaluation failed: " + ex.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Parses and evaluates a stream of expressions one at a time, printing
+	 * the value of each before reading the next.
+	 * @param args the command line arguments; the second, if any, names
+	 * the file to read instead of standard input.
+	 */
+	private static void stream(String[] args)
+	{
+		Reader input;
+		try
+		{
+			input = args.length > 1 ? new FileReader(args[1])
+					: new InputStreamReader(System.in);
+		}
+		catch (FileNotFoundException ex)
+		{
+			System.err.println(ex);
+			System.exit(1);
+			return;
+		}
+
+		Parser parse = new Parser(new Lexer(input));
+		SyntaxTree ast;
+		while ((ast = parse.parseNext()) != null)
+		{
+			if (parse.hasError())
 			{
-				System.out.println("Parse successful!");
-				System.out.println("Result: " + ast.evaluate());
-			}
-			else
 				System.out.println("Parse failed.");
+				continue;
+			}
+			try
+			{
+				System.out.println("Value: " + ast.evaluate());
+			}
+			catch (EvaluationException ex)
+			{
+				System.out.println("Evaluation failed: " + ex.getMessage());
+			}
 		}
-		catch (FileNotFoundException ex)
+	}
+
+	/**
+	 * Checks a batch of files in parallel. Each file is parsed and evaluated
+	 * as a task of a fork-join pool, and its report is printed once it and
+	 * every file before it are done, so the output does not depend on the
+	 * order the tasks finish in.
+	 * @param args the command line arguments.
+	 */
+	private static void batch(String[] args)
+	{
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean optimize = false;
+		boolean roundTrip = false;
+		List<File> files = new ArrayList<>();
+		try
+		{
+			for (int i = 0; i < args.length; i++)
+			{
+				if (args[i].equals("-j") && i + 1 < args.length)
+					threads = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-O"))
+					optimize = true;
+				else if (args[i].equals("--round-trip"))
+					roundTrip = true;
+				else if (args[i].startsWith("@"))
+					for (String line : Files.readAllLines(new File(args[i].substring(1)).toPath()))
+					{
+						if (!line.isBlank())
+							files.add(new File(line.trim()));
+					}
+				else
+					collect(new File(args[i]), files);
+			}
+		}
+		catch (NumberFormatException | IOException ex)
 		{
 			System.err.println(ex);
+			System.err.println("Usage: let-lang [-j threads] [-O] [--round-trip] <file | directory | @list>...");
+			System.exit(1);
+		}
+
+		try
+		{
+			ParseMetrics.global().register("batch");
+		}
+		catch (JMException ex)
+		{
+			System.err.println("Parse metrics not available over JMX: " + ex);
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		long start = System.nanoTime();
+		List<ForkJoinTask<FileReport>> tasks = new ArrayList<>(files.size());
+		boolean optimizeTrees = optimize;
+		boolean roundTrips = roundTrip;
+		for (File file : files)
+			tasks.add(pool.submit(() -> check(file, optimizeTrees, roundTrips)));
+
+		long bytes = 0;
+		int failed = 0;
+		int roundTripsFailed = 0;
+		for (ForkJoinTask<FileReport> task : tasks)
+		{
+			FileReport report = task.join();
+			System.out.print(report.output);
+			bytes += report.bytes;
+			if (report.failed)
+				failed++;
+			if (report.roundTripFailed)
+				roundTripsFailed++;
+		}
+		double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+		pool.shutdown();
+
+		System.out.printf("Checked %d files (%d bytes, %d failed) in %.3f s: %.1f files/s, %.1f bytes/s%n",
+				files.size(), bytes, failed, seconds, files.size() / seconds, bytes / seconds);
+		System.out.println(ParseMetrics.global());
+		if (roundTripsFailed > 0)
+		{
+			System.out.println(roundTripsFailed + " round trips failed");
+			System.exit(2);
+		}
+		if (failed > 0)
 			System.exit(1);
+	}
+
+	/**
+	 * Adds {@code file} to a batch, or if it is a directory, every
+	 * {@code .let} file under it in name order.
+	 * @param file the file or directory named on the command line.
+	 * @param files the files of the batch.
+	 * @throws IOException if the directory can not be read.
+	 */
+	private static void collect(File file, List<File> files) throws IOException
+	{
+		if (!file.isDirectory())
+		{
+			files.add(file);
+			return;
+		}
+		try (Stream<Path> paths = Files.walk(file.toPath()))
+		{
+			files.addAll(paths
+					.filter(path -> Files.isRegularFile(path)
+							&& path.getFileName().toString().endsWith(".let"))
+					.sorted()
+					.map(Path::toFile)
+					.collect(Collectors.toList()));
+		}
+	}
+
+	/**
+	 * Parses and evaluates one file of a batch.
+	 * @param file the file to check.
+	 * @param optimize true to optimize the tree before evaluating it.
+	 * @param roundTrip true to check that the tree survives a tree file.
+	 * @return the report of the file.
+	 */
+	private static FileReport check(File file, boolean optimize, boolean roundTrip)
+	{
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(buf, true);
+		boolean ok;
+		boolean roundTripOk = true;
+
+		out.println("==> " + file + " <==");
+		try
+		{
+			Parser parse = new Parser(Lexer.mapFile(file));
+			parse.setErrorOutput(out);
+			SyntaxTree ast = parse.parse();
+			if (optimize && !parse.hasError())
+				ast = Optimizer.optimize(ast);
+			ok = report(parse, ast, out);
+			if (roundTrip && !parse.hasError())
+				roundTripOk = roundTrip(ast, out);
+		}
+		catch (IOException ex)
+		{
+			out.println(ex);
+			ok = false;
+		}
+		out.flush();
+		return new FileReport(buf.toString(), file.length(), !ok, !roundTripOk);
+	}
+
+	/**
+	 * Writes a tree to a temporary tree file, loads it back and checks
+	 * that the loaded tree prints and evaluates the same as the original.
+	 * @param ast the tree to check.
+	 * @param out where to print the outcome.
+	 * @return true if the loaded tree is the same; otherwise, false.
+	 */
+	private static boolean roundTrip(SyntaxTree ast, PrintStream out)
+	{
+		Path path = null;
+		try
+		{
+			path = Files.createTempFile("let-lang", ".lett");
+			TreeFile.write(ast, path);
+			SyntaxTree loaded = TreeFile.read(path);
+			if (!loaded.toString().equals(ast.toString()))
+				out.println("Round trip failed: loaded " + loaded);
+			else if (!outcome(loaded).equals(outcome(ast)))
+				out.println("Round trip failed: loaded tree gives " + outcome(loaded));
+			else
+			{
+				out.println("Round trip: " + Files.size(path) + " bytes");
+				return true;
+			}
+		}
+		catch (IOException ex)
+		{
+			out.println("Round trip failed: " + ex);
+		}
+		finally
+		{
+			try
+			{
+				if (path != null)
+					Files.delete(path);
+			}
+			catch (IOException ex)
+			{
+				out.println("Could not delete " + path + ": " + ex);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Evaluates a tree for comparison.
+	 * @param ast the tree to evaluate.
+	 * @return the value, or the message of the evaluation error.
+	 */
+	private static String outcome(SyntaxTree ast)
+	{
+		try
+		{
+			return "Value: " + ast.evaluate();
+		}
+		catch (EvaluationException ex)
+		{
+			return "Evaluation failed: " + ex.getMessage();
+		}
+	}
+
+	/**
+	 * The printed outcome of checking one file of a batch.
+	 */
+	private static class FileReport
+	{
+		final String output;  // The report to print.
+		final long bytes;     // The size of the file.
+		final boolean failed; // True if the file did not parse or evaluate.
+		final boolean roundTripFailed; // True if the tree file differed.
+
+		FileReport(String output, long bytes, boolean failed, boolean roundTripFailed)
+		{
+			this.output = output;
+			this.bytes = bytes;
+			this.failed = failed;
+			this.roundTripFailed = roundTripFailed;
 		}
-		 
 	}
 }
@@ -0,0 +1,681 @@
+package ast;
+
+import ast.nodes.SyntaxNode;
+import ast.nodes.TreeWalker;
+import environment.Environment;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lexer.Token;
+import lexer.TokenType;
+
+/**
+ * Evaluates one syntax tree for every row of a batch at once. The free
+ * variables of the tree are given a {@link Column} of values each, and
+ * instead of walking the tree once per row, each node is evaluated once
+ * for the whole batch by a loop over the columns of its operands.
+ *
+ * The type of a value depends only on the types of the columns and
+ * literals it is made from, so every node is either integer or real for
+ * all rows and each operation is a plain loop over a {@code long[]} or a
+ * {@code double[]} that the JIT compiler can unroll and vectorize. The
+ * batch is evaluated in chunks of {@value #CHUNK} rows, so the arrays of
+ * intermediate results stay in the cache, and those arrays are reused for
+ * the results of the operations on them and for later chunks. Values that
+ * are the same for every row, such as literals and whatever is computed
+ * only from them, are kept as one value instead of an array.
+ *
+ * The values are those {@link SyntaxTree#evaluate()} gives for each row
+ * with the columns bound in its environment. A batch either evaluates for
+ * every row or fails as a whole; when more than one row would fail, the
+ * failure reported is the first met evaluating the tree node by node.
+ */
+public final class BatchEvaluator
+{
+	/** The number of rows evaluated at a time. */
+	public static final int CHUNK = 1024;
+
+	private final Map<String, Column> columns;  // The columns of the free variables.
+	private final Environment env;     // Gives variables with no column a value.
+	private final Values[] slots;      // The values of the let slots.
+	private final Map<String, Values> names = new HashMap<>();  // Lets bound by name.
+	private final Evaluator evaluator = new Evaluator();  // The pass evaluating a chunk.
+	private final Map<String, Values> chunkColumns = new HashMap<>();  // Columns read in this chunk.
+	private final List<long[]> longBuffers = new ArrayList<>();      // Every integer array.
+	private final List<double[]> doubleBuffers = new ArrayList<>();  // Every real array.
+	private final ArrayDeque<long[]> freeLongs = new ArrayDeque<>();      // Integer arrays not in use.
+	private final ArrayDeque<double[]> freeDoubles = new ArrayDeque<>();  // Real arrays not in use.
+	private int base;                  // The first row of the chunk.
+	private int n;                     // The number of rows in the chunk.
+
+	private BatchEvaluator(Map<String, Column> columns, Environment env, int slotCount)
+	{
+		this.columns = columns;
+		this.env = env;
+		this.slots = new Values[slotCount];
+	}
+
+	/**
+	 * Evaluates a tree for each row of a batch. A variable the tree does
+	 * not bind takes the value of its row in the column of that name; a
+	 * variable with no column takes its value in the executional
+	 * environment of the tree for every row.
+	 * @param tree the tree to evaluate.
+	 * @param columns the columns of the variables, each with at least
+	 * {@code rows} values.
+	 * @param rows the number of rows of the batch.
+	 * @return the value of the tree for each row.
+	 * @throws IllegalArgumentException if a column has fewer than
+	 * {@code rows} values.
+	 * @throws EvaluationException if the tree can not be evaluated for
+	 * some row.
+	 */
+	public static Column evaluate(SyntaxTree tree, Map<String, Column> columns, int rows)
+	{
+		if (rows < 0)
+			throw new IllegalArgumentException("Negative row count " + rows);
+		for (Map.Entry<String, Column> column : columns.entrySet())
+		{
+			if (column.getValue().size() < rows)
+				throw new IllegalArgumentException("Column " + column.getKey() + " has "
+						+ column.getValue().size() + " rows, not " + rows);
+		}
+
+		BatchEvaluator batch = new BatchEvaluator(columns, tree.getEnvironment(),
+				tree.getSlotCount());
+		if (rows == 0)
+		{
+			// An empty batch has no row to fail.
+			try
+			{
+				Values values = batch.evaluateChunk(tree.getRootNode(), 0, 0);
+				return values.real ? Column.ofDoubles() : Column.ofLongs();
+			}
+			catch (EvaluationException ex)
+			{
+				return Column.ofLongs();
+			}
+		}
+
+		long[] longs = null;
+		double[] doubles = null;
+		for (int start = 0; start < rows; start += CHUNK)
+		{
+			int count = Math.min(CHUNK, rows - start);
+			Values values = batch.evaluateChunk(tree.getRootNode(), start, count);
+			// The type of the tree is the same for every chunk.
+			if (values.real)
+			{
+				if (doubles == null)
+					doubles = new double[rows];
+				if (values.uniform)
+					Arrays.fill(doubles, start, start + count, values.doubles[0]);
+				else
+					System.arraycopy(values.doubles, 0, doubles, start, count);
+			}
+			else
+			{
+				if (longs == null)
+					longs = new long[rows];
+				if (values.uniform)
+					Arrays.fill(longs, start, start + count, values.longs[0]);
+				else
+					System.arraycopy(values.longs, 0, longs, start, count);
+			}
+		}
+		return doubles != null ? Column.ofDoubles(doubles) : Column.ofLongs(longs);
+	}
+
+	/************
+	 * Private Methods
+	 ***********/
+
+	/**
+	 * Evaluates a tree for one chunk of the batch. Every array of the last
+	 * chunk is free again once this starts.
+	 * @param root the root of the tree.
+	 * @param start the first row of the chunk.
+	 * @param count the number of rows in the chunk.
+	 * @return the values of the tree for the rows of the chunk.
+	 */
+	private Values evaluateChunk(SyntaxNode root, int start, int count)
+	{
+		base = start;
+		n = count;
+		chunkColumns.clear();
+		freeLongs.clear();
+		freeLongs.addAll(longBuffers);
+		freeDoubles.clear();
+		freeDoubles.addAll(doubleBuffers);
+		return TreeWalker.walk(root, evaluator);
+	}
+
+	/**
+	 * Evaluates a leaf for the chunk.
+	 * @param tok the token of the leaf.
+	 * @param slot the slot of a bound identifier, or -1.
+	 * @return the values of the leaf.
+	 */
+	private Values leaf(Token tok, int slot)
+	{
+		switch (tok.getType())
+		{
+			case INT:
+				try
+				{
+					return Values.of(Long.parseLong(tok.getValue()));
+				}
+				catch (NumberFormatException ex)
+				{
+					throw new EvaluationException("Integer out of range: " + tok.getValue());
+				}
+			case REAL:
+				return Values.of(Double.parseDouble(tok.getValue()));
+			case ID:
+				break;
+			default:
+				throw new EvaluationException("Can not evaluate " + tok);
+		}
+
+		if (slot >= 0)
+			return slots[slot];
+		String name = tok.getValue();
+		Values bound = names.get(name);
+		if (bound != null)
+			return bound;
+		Values read = chunkColumns.get(name);
+		if (read != null)
+			return read;
+		Column column = columns.get(name);
+		if (column != null)
+		{
+			// The rows of the chunk are copied once, so every operation
+			// reads arrays starting at the first row of the chunk.
+			if (column.isReal())
+			{
+				double[] values = takeDoubles();
+				System.arraycopy(column.getDoubles(), base, values, 0, n);
+				read = new Values(values, false).shared();
+			}
+			else
+			{
+				long[] values = takeLongs();
+				System.arraycopy(column.getLongs(), base, values, 0, n);
+				read = new Values(values, false).shared();
+			}
+			chunkColumns.put(name, read);
+			return read;
+		}
+
+		Object val = env.lookup(tok);
+		if (val == null)
+			throw new EvaluationException("Unbound variable " + name);
+		if (!(val instanceof Number))
+			throw new EvaluationException("Variable " + name + " is not a number");
+		if (val instanceof Double || val instanceof Float)
+			return Values.of(((Number) val).doubleValue());
+		return Values.of(((Number) val).longValue());
+	}
+
+	/**
+	 * Applies an operation to each row of two operands. Two integers give
+	 * an integer; anything involving a real number gives a real number.
+	 * @param op the operation.
+	 * @param left the left operand.
+	 * @param right the right operand.
+	 * @return the values of the operation.
+	 */
+	private Values apply(TokenType op, Values left, Values right)
+	{
+		boolean uniform = left.uniform && right.uniform;
+		int count = uniform ? Math.min(n, 1) : n;
+		if (!left.real && !right.real)
+		{
+			long[] out = left.target(false, uniform) ? left.longs
+					: right.target(false, uniform) ? right.longs
+					: uniform ? new long[1] : takeLongs();
+			int failed;
+			if (right.uniform)
+				failed = longs(op, left.longs, right.longs[0], out, count);
+			else if (left.uniform)
+				failed = longs(op, left.longs[0], right.longs, out, count);
+			else
+				failed = longs(op, left.longs, right.longs, out, count);
+			if (failed >= 0)
+				throw new EvaluationException("Division by zero in row " + (base + failed));
+			release(left, out);
+			release(right, out);
+			return new Values(out, uniform);
+		}
+
+		Values realLeft = toReal(left);
+		Values realRight = toReal(right);
+		double[] out = realLeft.target(true, uniform) ? realLeft.doubles
+				: realRight.target(true, uniform) ? realRight.doubles
+				: uniform ? new double[1] : takeDoubles();
+		if (realRight.uniform)
+			doubles(op, realLeft.doubles, realRight.doubles[0], out, count);
+		else if (realLeft.uniform)
+			doubles(op, realLeft.doubles[0], realRight.doubles, out, count);
+		else
+			doubles(op, realLeft.doubles, realRight.doubles, out, count);
+		release(left, out);
+		release(right, out);
+		if (realLeft != left)
+			release(realLeft, out);
+		if (realRight != right)
+			release(realRight, out);
+		return new Values(out, uniform);
+	}
+
+	/**
+	 * Converts integer values to real numbers.
+	 * @param values the values to convert.
+	 * @return real values equal to {@code values}.
+	 */
+	private Values toReal(Values values)
+	{
+		if (values.real)
+			return values;
+		if (values.uniform)
+			return new Values(new double[] { values.longs[0] }, true);
+		double[] converted = takeDoubles();
+		for (int i = 0; i < n; i++)
+			converted[i] = values.longs[i];
+		return new Values(converted, false);
+	}
+
+	/**
+	 * Gets an integer array of {@value #CHUNK} values that is not in use.
+	 * @return the array.
+	 */
+	private long[] takeLongs()
+	{
+		if (freeLongs.isEmpty())
+		{
+			long[] buffer = new long[CHUNK];
+			longBuffers.add(buffer);
+			return buffer;
+		}
+		return freeLongs.pop();
+	}
+
+	/**
+	 * Gets a real array of {@value #CHUNK} values that is not in use.
+	 * @return the array.
+	 */
+	private double[] takeDoubles()
+	{
+		if (freeDoubles.isEmpty())
+		{
+			double[] buffer = new double[CHUNK];
+			doubleBuffers.add(buffer);
+			return buffer;
+		}
+		return freeDoubles.pop();
+	}
+
+	/**
+	 * Frees the array of an operand once an operation has used it, unless
+	 * it is shared or holds the result of the operation.
+	 * @param operand the operand.
+	 * @param out the array of the result.
+	 */
+	private void release(Values operand, Object out)
+	{
+		if (!operand.owned || operand.uniform)
+			return;
+		if (operand.real && operand.doubles != out)
+			freeDoubles.push(operand.doubles);
+		else if (!operand.real && operand.longs != out)
+			freeLongs.push(operand.longs);
+	}
+
+	/**
+	 * Applies an integer operation to each row.
+	 * @param op the operation.
+	 * @param left the left operands.
+	 * @param right the right operands.
+	 * @param out where to store the results; may be an operand.
+	 * @param n the number of rows.
+	 */
+	private static int longs(TokenType op, long[] left, long[] right, long[] out, int n)
+	{
+		switch (op)
+		{
+			case ADD:
+				for (int i = 0; i < n; i++)
+					out[i] = left[i] + right[i];
+				return -1;
+			case SUB:
+				for (int i = 0; i < n; i++)
+					out[i] = left[i] - right[i];
+				return -1;
+			case MULT:
+				for (int i = 0; i < n; i++)
+					out[i] = left[i] * right[i];
+				return -1;
+			case DIV:
+				for (int i = 0; i < n; i++)
+				{
+					if (right[i] == 0)
+						return i;
+					out[i] = left[i] / right[i];
+				}
+				return -1;
+			default:
+				throw new EvaluationException("Unknown operation " + op);
+		}
+	}
+
+	/**
+	 * Applies an integer operation with the same right operand for each row.
+	 * @param op the operation.
+	 * @param left the left operands.
+	 * @param right the right operand.
+	 * @param out where to store the results; may be the left operands.
+	 * @param n the number of rows.
+	 * @return the first row that divides by zero, or -1 if none does.
+	 */
+	private static int longs(TokenType op, long[] left, long right, long[] out, int n)
+	{
+		switch (op)
+		{
+			case ADD:
+				for (int i = 0; i < n; i++)
+					out[i] = left[i] + right;
+				return -1;
+			case SUB:
+				for (int i = 0; i < n; i++)
+					out[i] = left[i] - right;
+				return -1;
+			case MULT:
+				for (int i = 0; i < n; i++)
+					out[i] = left[i] * right;
+				return -1;
+			case DIV:
+				if (right == 0 && n > 0)
+					return 0;
+				for (int i = 0; i < n; i++)
+					out[i] = left[i] / right;
+				return -1;
+			default:
+				throw new EvaluationException("Unknown operation " + op);
+		}
+	}
+
+	/**
+	 * Applies an integer operation with the same left operand for each row.
+	 * @param op the operation.
+	 * @param left the left operand.
+	 * @param right the right operands.
+	 * @param out where to store the results; may be the right operands.
+	 * @param n the number of rows.
+	 * @return the first row that divides by zero, or -1 if none does.
+	 */
+	private static int longs(TokenType op, long left, long[] right, long[] out, int n)
+	{
+		switch (op)
+		{
+			case ADD:
+				for (int i = 0; i < n; i++)
+					out[i] = left + right[i];
+				return -1;
+			case SUB:
+				for (int i = 0; i < n; i++)
+					out[i] = left - right[i];
+				return -1;
+			case MULT:
+				for (int i = 0; i < n; i++)
+					out[i] = left * right[i];
+				return -1;
+			case DIV:
+				for (int i = 0; i < n; i++)
+				{
+					if (right[i] == 0)
+						return i;
+					out[i] = left / right[i];
+				}
+				return -1;
+			default:
+				throw new EvaluationException("Unknown operation " + op);
+		}
+	}
+
+	/**
+	 * Applies a real operation to each row.
+	 * @param op the operation.
+	 * @param left the left operands.
+	 * @param right the right operands.
+	 * @param out where to store the results; may be an operand.
+	 * @param n the number of rows.
+	 */
+	private static void doubles(TokenType op, double[] left, double[] right, double[] out, int n)
+	{
+		switch (op)
+		{
+			case ADD:
+				for (int i = 0; i < n; i++)
+					out[i] = left[i] + right[i];
+				return;
+			case SUB:
+				for (int i = 0; i < n; i++)
+					out[i] = left[i] - right[i];
+				return;
+			case MULT:
+				for (int i = 0; i < n; i++)
+					out[i] = left[i] * right[i];
+				return;
+			case DIV:
+				for (int i = 0; i < n; i++)
+					out[i] = left[i] / right[i];
+				return;
+			default:
+				throw new EvaluationException("Unknown operation " + op);
+		}
+	}
+
+	/**
+	 * Applies a real operation with the same right operand for each row.
+	 * @param op the operation.
+	 * @param left the left operands.
+	 * @param right the right operand.
+	 * @param out where to store the results; may be the left operands.
+	 * @param n the number of rows.
+	 */
+	private static void doubles(TokenType op, double[] left, double right, double[] out, int n)
+	{
+		switch (op)
+		{
+			case ADD:
+				for (int i = 0; i < n; i++)
+					out[i] = left[i] + right;
+				return;
+			case SUB:
+				for (int i = 0; i < n; i++)
+					out[i] = left[i] - right;
+				return;
+			case MULT:
+				for (int i = 0; i < n; i++)
+					out[i] = left[i] * right;
+				return;
+			case DIV:
+				for (int i = 0; i < n; i++)
+					out[i] = left[i] / right;
+				return;
+			default:
+				throw new EvaluationException("Unknown operation " + op);
+		}
+	}
+
+	/**
+	 * Applies a real operation with the same left operand for each row.
+	 * @param op the operation.
+	 * @param left the left operand.
+	 * @param right the right operands.
+	 * @param out where to store the results; may be the right operands.
+	 * @param n the number of rows.
+	 */
+	private static void doubles(TokenType op, double left, double[] right, double[] out, int n)
+	{
+		switch (op)
+		{
+			case ADD:
+				for (int i = 0; i < n; i++)
+					out[i] = left + right[i];
+				return;
+			case SUB:
+				for (int i = 0; i < n; i++)
+					out[i] = left - right[i];
+				return;
+			case MULT:
+				for (int i = 0; i < n; i++)
+					out[i] = left * right[i];
+				return;
+			case DIV:
+				for (int i = 0; i < n; i++)
+					out[i] = left / right[i];
+				return;
+			default:
+				throw new EvaluationException("Unknown operation " + op);
+		}
+	}
+
+	/**
+	 * Evaluates each node for the chunk as the walk leaves it. The value
+	 * of the bound expression of a let is shared, since the body may read
+	 * it many times, so it is not to be written over. A variable bound by
+	 * name only keeps its binding for the body.
+	 */
+	private final class Evaluator implements TreeWalker.Pass<Values>
+	{
+		private Values[] olds = new Values[16];  // The outer value of each name bound.
+		private int lets;                        // The lets bound by name being walked.
+
+		@Override
+		public Values leaf(SyntaxNode node, Token tok, int slot)
+		{
+			return BatchEvaluator.this.leaf(tok, slot);
+		}
+
+		@Override
+		public Values operation(Token op, Values left, Values right)
+		{
+			return apply(op.getType(), left, right);
+		}
+
+		@Override
+		public void bind(Token variable, int slot, Values bound)
+		{
+			Values value = bound.shared();
+			if (slot >= 0)
+			{
+				slots[slot] = value;
+				return;
+			}
+			if (lets == olds.length)
+				olds = Arrays.copyOf(olds, lets * 2);
+			olds[lets++] = names.put(variable.getValue(), value);
+		}
+
+		@Override
+		public Values let(Token variable, int slot, Values bound, Values body)
+		{
+			if (slot < 0)
+			{
+				Values old = olds[--lets];
+				olds[lets] = null;
+				if (old == null)
+					names.remove(variable.getValue());
+				else
+					names.put(variable.getValue(), old);
+			}
+			return body;
+		}
+	}
+
+	/**
+	 * The values of a node for the rows of a batch: either one array of
+	 * integers or one of real numbers, holding a value for each row, or a
+	 * single value if it is the same for every row.
+	 */
+	private static final class Values
+	{
+		final boolean real;      // True if the values are real numbers.
+		final boolean uniform;   // True if one value stands for every row.
+		final boolean owned;     // True if the array may be written over or freed.
+		final long[] longs;      // The integer values.
+		final double[] doubles;  // The real values.
+
+		private Values(boolean real, boolean uniform, boolean owned, long[] longs, double[] doubles)
+		{
+			this.real = real;
+			this.uniform = uniform;
+			this.owned = owned;
+			this.longs = longs;
+			this.doubles = doubles;
+		}
+
+		/**
+		 * Makes values held in an array of the evaluation.
+		 * @param longs the integer values.
+		 * @param uniform true if the array holds one value for every row.
+		 */
+		Values(long[] longs, boolean uniform)
+		{
+			this(false, uniform, true, longs, null);
+		}
+
+		/**
+		 * Makes values held in an array of the evaluation.
+		 * @param doubles the real values.
+		 * @param uniform true if the array holds one value for every row.
+		 */
+		Values(double[] doubles, boolean uniform)
+		{
+			this(true, uniform, true, null, doubles);
+		}
+
+		/**
+		 * Makes an integer value that is the same for every row.
+		 * @param value the value.
+		 */
+		static Values of(long value)
+		{
+			return new Values(false, true, false, new long[] { value }, null);
+		}
+
+		/**
+		 * Makes a real value that is the same for every row.
+		 * @param value the value.
+		 */
+		static Values of(double value)
+		{
+			return new Values(true, true, false, null, new double[] { value });
+		}
+
+		/**
+		 * Gets these values as ones that may not be written over.
+		 * @return values sharing the array of these.
+		 */
+		Values shared()
+		{
+			return owned ? new Values(real, uniform, false, longs, doubles) : this;
+		}
+
+		/**
+		 * Determines if the result of an operation can be stored in the
+		 * array of these values.
+		 * @param resultReal true if the result is real.
+		 * @param resultUniform true if the result is the same for every row.
+		 * @return true if the array can be written over with the result.
+		 */
+		boolean target(boolean resultReal, boolean resultUniform)
+		{
+			return owned && real == resultReal && uniform == resultUniform;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package ast;
+
+/**
+ * A column of values for {@link BatchEvaluator}, one value for each row of
+ * a batch. A column is either integers, kept in a {@code long[]}, or real
+ * numbers, kept in a {@code double[]}, and all of its values have that
+ * type. The array is not copied, so a column wraps the caller's data.
+ */
+public final class Column
+{
+	private final long[] longs;      // The values of an integer column.
+	private final double[] doubles;  // The values of a real column.
+
+	private Column(long[] longs, double[] doubles)
+	{
+		this.longs = longs;
+		this.doubles = doubles;
+	}
+
+	/**
+	 * Makes an integer column.
+	 * @param values the values of the rows.
+	 * @return a column wrapping {@code values}.
+	 */
+	public static Column ofLongs(long... values)
+	{
+		if (values == null)
+			throw new NullPointerException("values");
+		return new Column(values, null);
+	}
+
+	/**
+	 * Makes a real column.
+	 * @param values the values of the rows.
+	 * @return a column wrapping {@code values}.
+	 */
+	public static Column ofDoubles(double... values)
+	{
+		if (values == null)
+			throw new NullPointerException("values");
+		return new Column(null, values);
+	}
+
+	/**
+	 * Determines if the column holds real numbers.
+	 * @return true if the column is real; false if it is integers.
+	 */
+	public boolean isReal()
+	{
+		return doubles != null;
+	}
+
+	/**
+	 * Gets the number of rows of the column.
+	 * @return the number of values.
+	 */
+	public int size()
+	{
+		return doubles != null ? doubles.length : longs.length;
+	}
+
+	/**
+	 * Gets the values of an integer column.
+	 * @return the array of values.
+	 * @throws IllegalStateException if the column is real.
+	 */
+	public long[] getLongs()
+	{
+		if (longs == null)
+			throw new IllegalStateException("Column is real");
+		return longs;
+	}
+
+	/**
+	 * Gets the values of the column as real numbers. An integer column is
+	 * converted into a new array.
+	 * @return the array of values.
+	 */
+	public double[] getDoubles()
+	{
+		if (doubles != null)
+			return doubles;
+		double[] converted = new double[longs.length];
+		for (int i = 0; i < converted.length; i++)
+			converted[i] = longs[i];
+		return converted;
+	}
+
+	/**
+	 * Gets the value of one row, boxed the way
+	 * {@link SyntaxTree#evaluate()} boxes its result.
+	 * @param row the index of the row.
+	 * @return a {@code Long} or a {@code Double} holding the value.
+	 */
+	public Number get(int row)
+	{
+		if (doubles != null)
+			return doubles[row];
+		return longs[row];
+	}
+}
@@ -0,0 +1,19 @@
+package ast;
+
+/**
+ * Thrown when a syntax tree can not be evaluated, for example because a
+ * variable has no value or an integer is divided by zero.
+ */
+public class EvaluationException extends RuntimeException
+{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructs a new exception with the message {@code msg}.
+	 * @param msg the reason the evaluation failed.
+	 */
+	public EvaluationException(String msg)
+	{
+		super(msg);
+	}
+}
@@ -0,0 +1,731 @@
+package ast;
+
+import ast.nodes.FlatNode;
+import ast.nodes.Result;
+import environment.Environment;
+import lexer.SymbolTable;
+import lexer.Token;
+import lexer.TokenType;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An arena holding the nodes of one syntax tree in parallel arrays instead
+ * of as objects. Node {@code n} is described by {@code kinds[n]},
+ * {@code lefts[n]}, {@code rights[n]} and {@code tokens[n]}, so a node
+ * costs four ints and no object header, and the nodes of a tree lie next
+ * to each other in the order the parser built them, children before their
+ * parents. No token objects are kept: identifiers and let variables keep
+ * their symbol id in the symbol table of the parse, and literals keep
+ * their value and the offset of their text in a pool of characters.
+ *
+ * The kind of a node is the ordinal of its token type: {@code INT},
+ * {@code REAL} or {@code ID} for leaves, an operator for binary
+ * operations, {@code LET} for lets and {@code UNKNOWN} for the empty node
+ * left by a syntax error. Identifiers and lets also keep their slot in the
+ * kind, above its lowest eight bits. The left of a literal is the index of
+ * its value among the constants of the arena, or -1 if it is out of range,
+ * and its right is the length of its text.
+ *
+ * {@link #node(int)} gives a {@link FlatNode} view of a node for code
+ * that works with {@link ast.nodes.SyntaxNode}s, and {@link TreeFile}
+ * saves a completed arena as its arrays so it can be loaded again without
+ * parsing.
+ */
+public final class FlatTree
+{
+	private static final TokenType[] TYPES = TokenType.values();
+	private static final int KIND_MASK = 0xFF;   // The type bits of a kind.
+	private static final int SLOT_SHIFT = 8;     // Where the slot + 1 is kept.
+	private static final Object[] NO_HIDDEN = new Object[0];
+
+	private final SymbolTable symbols;   // The symbols of the parse.
+	private int[] kinds = new int[64];   // The type and slot of each node.
+	private int[] lefts = new int[64];   // The left child, or the constant.
+	private int[] rights = new int[64];  // The right child, or the length.
+	private int[] tokens = new int[64];  // The symbol or text of each node.
+	private int size;                    // The nodes in the arena.
+	private long[] constants = new long[16]; // The bits of each literal value.
+	private int constantCount;           // The constants in the arena.
+	private char[] text = new char[64];  // The text of the literals.
+	private int textSize;                // The characters of text used.
+	private long[] bindings = new long[16]; // The bound node and let of each let.
+	private int bindCount;               // The lets in the arena.
+
+	/**
+	 * Constructs an empty arena for a tree whose identifiers are in
+	 * {@code symbols}.
+	 * @param symbols the symbol table of the parse.
+	 */
+	public FlatTree(SymbolTable symbols)
+	{
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Adds a literal or identifier leaf.
+	 * @param tok the token of the leaf.
+	 * @param slot the slot of a bound identifier, or -1.
+	 * @return the index of the node.
+	 */
+	public int addLeaf(Token tok, int slot)
+	{
+		TokenType type = tok.getType();
+		if (type == TokenType.ID)
+			return add(type, slot, -1, -1, tok.getSymbol());
+
+		String value = tok.getValue();
+		int constant = -1;
+		if (type == TokenType.INT)
+		{
+			try
+			{
+				constant = addConstant(Long.parseLong(value));
+			}
+			catch (NumberFormatException ex)
+			{
+				// Left for evaluation to report.
+			}
+		}
+		else
+			constant = addConstant(Double.doubleToRawLongBits(
+					Double.parseDouble(value)));
+
+		if (textSize + value.length() > text.length)
+			text = Arrays.copyOf(text, Math.max(text.length * 2,
+					textSize + value.length()));
+		value.getChars(0, value.length(), text, textSize);
+		textSize += value.length();
+		return add(type, -1, constant, value.length(), textSize - value.length());
+	}
+
+	/**
+	 * Adds the empty node left in place of input that could not be parsed.
+	 * @return the index of the node.
+	 */
+	public int addError()
+	{
+		return add(TokenType.UNKNOWN, -1, -1, -1, -1);
+	}
+
+	/**
+	 * Adds a binary operation.
+	 * @param op the operator.
+	 * @param left the index of the left operand.
+	 * @param right the index of the right operand.
+	 * @return the index of the node.
+	 */
+	public int addBinOp(TokenType op, int left, int right)
+	{
+		return add(op, -1, left, right, -1);
+	}
+
+	/**
+	 * Adds a let.
+	 * @param variable the variable of the let.
+	 * @param slot the slot of the variable, or -1 to bind it by name.
+	 * @param bound the index of the bound expression.
+	 * @param body the index of the body.
+	 * @return the index of the node.
+	 */
+	public int addLet(Token variable, int slot, int bound, int body)
+	{
+		int let = add(TokenType.LET, slot, bound, body, variable.getSymbol());
+		if (bindCount == bindings.length)
+			bindings = Arrays.copyOf(bindings, bindCount * 2);
+		bindings[bindCount++] = (long) bound << 32 | let;
+		return let;
+	}
+
+	/**
+	 * Completes the arena once its last node is added. The lets are put in
+	 * the order evaluation meets the ends of their bound expressions, and
+	 * the room the arrays grew beyond what the tree uses is given back. The
+	 * arena must not be evaluated before this and is not changed after, so
+	 * it may then be shared by threads.
+	 */
+	public void complete()
+	{
+		kinds = Arrays.copyOf(kinds, size);
+		lefts = Arrays.copyOf(lefts, size);
+		rights = Arrays.copyOf(rights, size);
+		tokens = Arrays.copyOf(tokens, size);
+		constants = Arrays.copyOf(constants, constantCount);
+		text = Arrays.copyOf(text, textSize);
+		bindings = Arrays.copyOf(bindings, bindCount);
+		Arrays.sort(bindings);
+	}
+
+	/**
+	 * Gets the number of bytes {@link #write(ByteBuffer)} puts.
+	 * @return the size of the arena and its symbols when written.
+	 */
+	int byteSize()
+	{
+		long bytes = 6 * Integer.BYTES + (long) symbols.size() * Integer.BYTES
+				+ (long) size * 4 * Integer.BYTES
+				+ (long) (constantCount + bindCount) * Long.BYTES
+				+ (long) textSize * Character.BYTES;
+		for (int i = 0; i < symbols.size(); i++)
+			bytes += (long) symbols.nameOf(i).length() * Character.BYTES;
+		if (bytes > Integer.MAX_VALUE)
+			throw new IllegalStateException("Tree too large to write: " + bytes + " bytes");
+		return (int) bytes;
+	}
+
+	/**
+	 * Puts a completed arena and the names of its symbols. The counts come
+	 * first, then each array in one run, so reading it back is a bulk copy
+	 * of each run.
+	 * @param out the buffer to put the arena in.
+	 */
+	void write(ByteBuffer out)
+	{
+		int nameChars = 0;
+		int[] lengths = new int[symbols.size()];
+		for (int i = 0; i < lengths.length; i++)
+		{
+			lengths[i] = symbols.nameOf(i).length();
+			nameChars += lengths[i];
+		}
+		char[] names = new char[nameChars];
+		for (int i = 0, off = 0; i < lengths.length; off += lengths[i++])
+			symbols.nameOf(i).getChars(0, lengths[i], names, off);
+
+		out.putInt(lengths.length).putInt(nameChars)
+				.putInt(size).putInt(constantCount).putInt(bindCount).putInt(textSize);
+		out.asIntBuffer().put(lengths);
+		skip(out, lengths.length * Integer.BYTES);
+		for (int[] array : new int[][] { kinds, lefts, rights, tokens })
+		{
+			out.asIntBuffer().put(array, 0, size);
+			skip(out, size * Integer.BYTES);
+		}
+		out.asLongBuffer().put(constants, 0, constantCount);
+		skip(out, constantCount * Long.BYTES);
+		out.asLongBuffer().put(bindings, 0, bindCount);
+		skip(out, bindCount * Long.BYTES);
+		out.asCharBuffer().put(names);
+		skip(out, nameChars * Character.BYTES);
+		out.asCharBuffer().put(text, 0, textSize);
+		skip(out, textSize * Character.BYTES);
+	}
+
+	/**
+	 * Reads back an arena put by {@link #write(ByteBuffer)}. Each array is
+	 * copied out of the buffer in one bulk copy and the symbol table is
+	 * rebuilt from the names, so nothing is lexed or parsed. The arena is
+	 * checked before it is returned, since evaluation trusts its indexes.
+	 * @param in the buffer to read the arena from.
+	 * @param slotCount the number of slots of the tree.
+	 * @return the completed arena.
+	 * @throws IOException if the buffer does not hold a valid arena.
+	 */
+	static FlatTree read(ByteBuffer in, int slotCount) throws IOException
+	{
+		int symbolCount = count(in, Integer.BYTES);
+		int nameChars = count(in, Character.BYTES);
+		int size = count(in, 4 * Integer.BYTES);
+		int constantCount = count(in, Long.BYTES);
+		int bindCount = count(in, Long.BYTES);
+		int textSize = count(in, Character.BYTES);
+
+		int[] lengths = new int[symbolCount];
+		in.asIntBuffer().get(lengths);
+		skip(in, symbolCount * Integer.BYTES);
+		int[][] arrays = new int[4][size];
+		for (int[] array : arrays)
+		{
+			in.asIntBuffer().get(array);
+			skip(in, size * Integer.BYTES);
+		}
+		long[] constants = new long[constantCount];
+		in.asLongBuffer().get(constants);
+		skip(in, constantCount * Long.BYTES);
+		long[] bindings = new long[bindCount];
+		in.asLongBuffer().get(bindings);
+		skip(in, bindCount * Long.BYTES);
+		char[] names = new char[nameChars];
+		in.asCharBuffer().get(names);
+		skip(in, nameChars * Character.BYTES);
+		char[] text = new char[textSize];
+		in.asCharBuffer().get(text);
+		skip(in, textSize * Character.BYTES);
+
+		SymbolTable symbols = new SymbolTable();
+		for (int i = 0, off = 0; i < symbolCount; off += lengths[i++])
+		{
+			if (lengths[i] < 0 || lengths[i] > nameChars - off
+					|| symbols.intern(new String(names, off, lengths[i])).getSymbol() != i)
+				throw new IOException("Corrupt symbol table");
+		}
+
+		FlatTree tree = new FlatTree(symbols);
+		tree.kinds = arrays[0];
+		tree.lefts = arrays[1];
+		tree.rights = arrays[2];
+		tree.tokens = arrays[3];
+		tree.size = size;
+		tree.constants = constants;
+		tree.constantCount = constantCount;
+		tree.bindings = bindings;
+		tree.bindCount = bindCount;
+		tree.text = text;
+		tree.textSize = textSize;
+		tree.check(slotCount);
+		return tree;
+	}
+
+	/**
+	 * Gets the number of nodes in the arena.
+	 * @return the number of nodes.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Gets the number of nodes in the tree rooted at a node.
+	 * @param n the index of the root.
+	 * @return the length of the run of the arena ending at {@code n}.
+	 */
+	public int size(int n)
+	{
+		return n - first(n) + 1;
+	}
+
+	/**
+	 * Gets the type of a node.
+	 * @param n the index of the node.
+	 * @return the token type of the node.
+	 */
+	public TokenType type(int n)
+	{
+		return TYPES[kinds[n] & KIND_MASK];
+	}
+
+	/**
+	 * Gets the left child of a binary operation or let.
+	 * @param n the index of the node.
+	 * @return the index of the left child.
+	 */
+	public int left(int n)
+	{
+		return lefts[n];
+	}
+
+	/**
+	 * Gets the right child of a binary operation or let.
+	 * @param n the index of the node.
+	 * @return the index of the right child.
+	 */
+	public int right(int n)
+	{
+		return rights[n];
+	}
+
+	/**
+	 * Gets the slot of an identifier or let.
+	 * @param n the index of the node.
+	 * @return the slot, or -1 if the variable is looked up by name.
+	 */
+	public int slot(int n)
+	{
+		return (kinds[n] >>> SLOT_SHIFT) - 1;
+	}
+
+	/**
+	 * Gets the token of a leaf or the variable of a let as a token object.
+	 * Identifiers and operations give their shared token; a literal gives
+	 * a new token.
+	 * @param n the index of the node.
+	 * @return the token of the node.
+	 */
+	public Token token(int n)
+	{
+		TokenType type = type(n);
+		switch (type)
+		{
+			case ID:
+			case LET:
+				return symbols.tokenOf(tokens[n]);
+			case INT:
+			case REAL:
+				return new Token(type, new String(text, tokens[n], rights[n]));
+			case UNKNOWN:
+				return new Token();
+			default:
+				return Token.of(type);
+		}
+	}
+
+	/**
+	 * Gets the symbol table the identifiers of the tree are in.
+	 * @return the symbol table of the parse.
+	 */
+	public SymbolTable getSymbolTable()
+	{
+		return symbols;
+	}
+
+	/**
+	 * Gets a view of a node.
+	 * @param n the index of the node.
+	 * @return a node reading node {@code n} of this arena.
+	 */
+	public FlatNode node(int n)
+	{
+		return new FlatNode(this, n);
+	}
+
+	/**
+	 * Evaluates the tree rooted at a node, the same way the node objects
+	 * do. The nodes of a subtree are a run of the arena ending at its root,
+	 * so the subtree is evaluated in one pass over the run, keeping the
+	 * operands on a stack, without recursion however deep the tree is.
+	 * @param n the index of the root.
+	 * @param env the executional environment.
+	 * @param res where to store the result.
+	 * @throws EvaluationException if the node can not be evaluated.
+	 */
+	public void evaluate(int n, Environment env, Result res)
+	{
+		int first = first(n);
+		int bind = firstBinding(first);
+		long[] longs = new long[16];         // The integer operands.
+		double[] doubles = new double[16];   // The real operands.
+		boolean[] reals = new boolean[16];   // True if an operand is real.
+		int top = 0;                         // The operands on the stack.
+		Object[] hidden = NO_HIDDEN;         // Name bindings to put back.
+		int hiddenCount = 0;                 // Name bindings hidden.
+
+		try
+		{
+			for (int i = first; i <= n; i++)
+			{
+				int kind = kinds[i];
+				TokenType type = TYPES[kind & KIND_MASK];
+				int slot = (kind >>> SLOT_SHIFT) - 1;
+				switch (type)
+				{
+					case INT:
+						if (lefts[i] < 0)
+							throw new EvaluationException("Integer out of range: " + token(i).getValue());
+						res.setLong(constants[lefts[i]]);
+						break;
+					case REAL:
+						res.setDouble(Double.longBitsToDouble(constants[lefts[i]]));
+						break;
+					case ID:
+						if (slot < 0)
+							lookup(i, env, res);
+						else if (env.isReal(slot))
+							res.setDouble(env.getDouble(slot));
+						else
+							res.setLong(env.getLong(slot));
+						break;
+					case ADD:
+					case SUB:
+					case MULT:
+					case DIV:
+						top -= 2;
+						res.setLong(longs[top + 1]);
+						if (reals[top + 1])
+							res.setDouble(doubles[top + 1]);
+						res.apply(type, reals[top], longs[top], doubles[top]);
+						break;
+					case LET:
+						// The body is on the stack; the variable was bound
+						// when the bound expression was done.
+						top--;
+						res.setLong(longs[top]);
+						if (reals[top])
+							res.setDouble(doubles[top]);
+						if (slot < 0)
+						{
+							hiddenCount -= 2;
+							env.updateEnvironment((Token) hidden[hiddenCount], hidden[hiddenCount + 1]);
+							hidden[hiddenCount] = null;
+							hidden[hiddenCount + 1] = null;
+						}
+						break;
+					default:
+						throw new EvaluationException("Can not evaluate " + token(i));
+				}
+
+				if (bind < bindCount && (int) (bindings[bind] >>> 32) == i
+						&& (int) bindings[bind] <= n)
+				{
+					// The bound expression of a let is done: store its value
+					// instead of stacking it.
+					int let = (int) bindings[bind++];
+					slot = slot(let);
+					if (slot >= 0)
+					{
+						if (res.isReal())
+							env.setDouble(slot, res.getDouble());
+						else
+							env.setLong(slot, res.getLong());
+						continue;
+					}
+					Token variable = symbols.tokenOf(tokens[let]);
+					if (hiddenCount == hidden.length)
+						hidden = Arrays.copyOf(hidden, Math.max(8, hiddenCount * 2));
+					hidden[hiddenCount++] = variable;
+					hidden[hiddenCount++] = env.lookup(variable);
+					env.updateEnvironment(variable, res.toNumber());
+					continue;
+				}
+
+				if (top == longs.length)
+				{
+					longs = Arrays.copyOf(longs, top * 2);
+					doubles = Arrays.copyOf(doubles, top * 2);
+					reals = Arrays.copyOf(reals, top * 2);
+				}
+				reals[top] = res.isReal();
+				longs[top] = res.getLong();
+				doubles[top] = res.getDouble();
+				top++;
+			}
+		}
+		finally
+		{
+			// A failed evaluation still puts back what it hid.
+			while (hiddenCount > 0)
+			{
+				hiddenCount -= 2;
+				env.updateEnvironment((Token) hidden[hiddenCount], hidden[hiddenCount + 1]);
+			}
+		}
+
+		res.setLong(longs[0]);
+		if (reals[0])
+			res.setDouble(doubles[0]);
+	}
+
+	/************
+	 * Private Methods
+	 ***********/
+
+	/**
+	 * Checks that the arena read from a file is one {@link #evaluate} can
+	 * run: every index and slot is in range, the children of a node are the runs
+	 * just before it, and each let has its binding.
+	 * @param slotCount the number of slots of the tree.
+	 * @throws IOException if the arena is not valid.
+	 */
+	private void check(int slotCount) throws IOException
+	{
+		// A tree has no more slots than nodes, and an environment is made
+		// with this many slots for each evaluation.
+		if (slotCount > size)
+			throw new IOException("Corrupt tree: " + slotCount + " slots for " + size + " nodes");
+
+		int[] starts = new int[size];   // The first node of each subtree.
+		int lets = 0;
+		for (int n = 0; n < size; n++)
+		{
+			int kind = kinds[n];
+			if ((kind & KIND_MASK) >= TYPES.length)
+				throw corrupt(n);
+			TokenType type = TYPES[kind & KIND_MASK];
+			int slot = slot(n);
+			boolean valid;
+			starts[n] = n;
+			switch (type)
+			{
+				case INT:
+				case REAL:
+					valid = slot < 0 && lefts[n] >= (type == TokenType.INT ? -1 : 0)
+							&& lefts[n] < constantCount && rights[n] >= 0
+							&& tokens[n] >= 0 && tokens[n] <= textSize - rights[n];
+					break;
+				case ID:
+					valid = slot < slotCount && tokens[n] >= 0 && tokens[n] < symbols.size();
+					break;
+				case ADD:
+				case SUB:
+				case MULT:
+				case DIV:
+				case LET:
+					valid = rights[n] == n - 1 && lefts[n] >= 0
+							&& lefts[n] == starts[rights[n]] - 1;
+					if (valid)
+						starts[n] = starts[lefts[n]];
+					if (type == TokenType.LET)
+					{
+						lets++;
+						valid &= slot < slotCount && tokens[n] >= 0 && tokens[n] < symbols.size();
+					}
+					else
+						valid &= slot < 0;
+					break;
+				case UNKNOWN:
+					valid = slot < 0;
+					break;
+				default:
+					valid = false;
+			}
+			if (!valid)
+				throw corrupt(n);
+		}
+
+		if (lets != bindCount)
+			throw new IOException("Corrupt tree: " + lets + " lets but " + bindCount + " bindings");
+		for (int i = 0; i < bindCount; i++)
+		{
+			int let = (int) bindings[i];
+			if (let < 0 || let >= size || type(let) != TokenType.LET
+					|| lefts[let] != (int) (bindings[i] >>> 32)
+					|| i > 0 && bindings[i - 1] >= bindings[i])
+				throw new IOException("Corrupt tree: binding " + i);
+		}
+	}
+
+	/**
+	 * Makes the exception for a node that is not valid.
+	 * @param n the index of the node.
+	 * @return the exception to throw.
+	 */
+	private static IOException corrupt(int n)
+	{
+		return new IOException("Corrupt tree: node " + n);
+	}
+
+	/**
+	 * Gets a count from a buffer, checking that the buffer is big enough
+	 * to hold that many elements.
+	 * @param in the buffer to read.
+	 * @param bytes the size of one element.
+	 * @return the count.
+	 * @throws IOException if the count is negative or too large.
+	 */
+	private static int count(ByteBuffer in, int bytes) throws IOException
+	{
+		int count = in.getInt();
+		if (count < 0 || count > in.remaining() / bytes)
+			throw new IOException("Truncated tree: count " + count);
+		return count;
+	}
+
+	/**
+	 * Moves the position of a buffer past what a view of it read or put.
+	 * @param buf the buffer.
+	 * @param bytes the number of bytes to skip.
+	 */
+	private static void skip(ByteBuffer buf, int bytes)
+	{
+		buf.position(buf.position() + bytes);
+	}
+
+	/**
+	 * Finds the first node of the run of the arena holding the tree rooted
+	 * at a node, which is its leftmost leaf.
+	 * @param n the index of the root.
+	 * @return the index of the first node of the tree.
+	 */
+	private int first(int n)
+	{
+		while (isParent(n))
+			n = lefts[n];
+		return n;
+	}
+
+	/**
+	 * Determines if a node has children.
+	 * @param n the index of the node.
+	 * @return true for operations and lets; otherwise, false.
+	 */
+	private boolean isParent(int n)
+	{
+		switch (type(n))
+		{
+			case ADD:
+			case SUB:
+			case MULT:
+			case DIV:
+			case LET:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Finds the first let whose bound expression ends at or after a node.
+	 * @param n the index of the node.
+	 * @return the index of the let in {@code bindings}.
+	 */
+	private int firstBinding(int n)
+	{
+		int lo = 0;
+		int hi = bindCount;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if ((int) (bindings[mid] >>> 32) < n)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Evaluates an identifier that is looked up by name.
+	 * @param n the index of the identifier.
+	 * @param env the executional environment.
+	 * @param res where to store the result.
+	 */
+	private void lookup(int n, Environment env, Result res)
+	{
+		Token tok = symbols.tokenOf(tokens[n]);
+		Object val = env.lookup(tok);
+		if (val == null)
+			throw new EvaluationException("Unbound variable " + tok.getValue());
+		if (!(val instanceof Number))
+			throw new EvaluationException("Variable " + tok.getValue() + " is not a number");
+		res.set((Number) val);
+	}
+
+	/**
+	 * Appends a node.
+	 * @param type the type of the node.
+	 * @param slot the slot of the node, or -1.
+	 * @param left the left child or constant.
+	 * @param right the right child or length, or -1.
+	 * @param token the symbol or text offset, or -1.
+	 * @return the index of the node.
+	 */
+	private int add(TokenType type, int slot, int left, int right, int token)
+	{
+		if (size == kinds.length)
+		{
+			kinds = Arrays.copyOf(kinds, size * 2);
+			lefts = Arrays.copyOf(lefts, size * 2);
+			rights = Arrays.copyOf(rights, size * 2);
+			tokens = Arrays.copyOf(tokens, size * 2);
+		}
+		kinds[size] = type.ordinal() | (slot + 1) << SLOT_SHIFT;
+		lefts[size] = left;
+		rights[size] = right;
+		tokens[size] = token;
+		return size++;
+	}
+
+	/**
+	 * Appends the bits of a literal value to the constants.
+	 * @param bits the value, or the raw bits of a real value.
+	 * @return the index of the constant.
+	 */
+	private int addConstant(long bits)
+	{
+		if (constantCount == constants.length)
+			constants = Arrays.copyOf(constants, constantCount * 2);
+		constants[constantCount] = bits;
+		return constantCount++;
+	}
+}
@@ -0,0 +1,436 @@
+package ast;
+
+import ast.nodes.Result;
+import ast.nodes.SyntaxNode;
+import ast.nodes.TreeWalker;
+import environment.Environment;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import lexer.Token;
+import lexer.TokenType;
+
+/**
+ * Evaluates one syntax tree again and again, keeping the value of every
+ * node and working out again only the nodes whose free variables have
+ * changed. When the evaluator is made it notes the parent of each node,
+ * the identifiers that read each free variable and the identifiers that
+ * read the variable of each let. Each evaluation compares the values of
+ * the free variables with those of the last one, and for each that
+ * changed, drops the kept values on the way from the identifiers reading
+ * it up to the root, and on from the identifiers reading any let whose
+ * bound expression lost its value. A way stops at a node with no kept
+ * value, since the nodes above it have none either. Only the nodes with
+ * no kept value are then worked out, children before their parents, so
+ * the cost of an evaluation follows the part of the tree that changed
+ * rather than its size, and no subtree is walked by recursion. When
+ * {@link Environment#getVersion()} shows that no name has been given a
+ * new value at all, the kept value of the tree is returned straight away.
+ *
+ * The tree is copied into arrays of the evaluator, one entry for each
+ * place a node is reached, children before their parents. The variable of
+ * a let is resolved to the bound expression of the let when the evaluator
+ * is made, and an identifier reading it takes the kept value of that
+ * expression, so evaluation does not change the environment. The values
+ * and failures are those of {@link SyntaxTree#evaluate()} under the
+ * environment of the tree. A node that fails keeps no value. An evaluator
+ * is not safe for use by more than one thread at a time.
+ */
+public final class MemoizedEvaluator
+{
+	private final SyntaxTree tree;    // The tree evaluated.
+	private TokenType[] types = new TokenType[64];  // The type of each node.
+	private int[] lefts = new int[64];   // The left child, or the bound expression an identifier reads.
+	private int[] rights = new int[64];  // The right child, or the free variable read.
+	private Token[] tokens = new Token[64];  // The token of each leaf.
+	private int[] parents = new int[64];  // The parent of each node, or -1.
+	private int[] readers = new int[64];  // The first identifier reading a bound expression, or -1.
+	private int[] nextReaders = new int[64];  // The next identifier reading the same variable, or -1.
+	private int size;                 // The nodes of the evaluator.
+	private final int root;           // The index of the root.
+
+	private final boolean[] kept;     // True if a node has a kept value.
+	private final boolean[] reals;    // True if the kept value of a node is real.
+	private final long[] longs;       // The kept integer value of each node.
+	private final double[] doubles;   // The kept real value of each node.
+	private final int[] dirty;        // The nodes with no kept value.
+	private int dirtyCount;           // The number of nodes with no kept value.
+	private int[] marks = new int[16];  // The identifiers whose ways to the root are being dropped.
+
+	private final Map<String, Integer> freeIndex = new HashMap<>();  // Free variables by name.
+	private Token[] free = new Token[8];  // The token of each free variable.
+	private int[] freeReaders = new int[8];  // The first identifier reading each free variable, or -1.
+	private final Object[] lastValues;  // The values the kept values were worked out with.
+	private Environment lastEnv;      // The environment of the last evaluation.
+	private long lastVersion;         // The version of that environment.
+	private int evaluated;            // The nodes worked out by the last evaluation.
+
+	private int[] slotLets = new int[8];  // The bound expression of each slot while building.
+	private final Map<String, Integer> nameLets = new HashMap<>();  // The lets bound by name.
+
+	/**
+	 * Constructs an evaluator for a tree.
+	 * @param tree the tree to evaluate.
+	 */
+	public MemoizedEvaluator(SyntaxTree tree)
+	{
+		this.tree = tree;
+		Arrays.fill(slotLets, -1);
+		root = TreeWalker.walk(tree.getRootNode(), new Builder());
+		parents[root] = -1;
+		slotLets = null;
+		lastValues = new Object[freeIndex.size()];
+
+		kept = new boolean[size];
+		reals = new boolean[size];
+		longs = new long[size];
+		doubles = new double[size];
+		dirty = new int[size];
+		for (int n = 0; n < size; n++)
+		{
+			if (types[n] == TokenType.REAL)
+			{
+				kept[n] = reals[n] = true;
+				doubles[n] = Double.parseDouble(tokens[n].getValue());
+			}
+			else if (types[n] == TokenType.INT)
+			{
+				try
+				{
+					longs[n] = Long.parseLong(tokens[n].getValue());
+					kept[n] = true;
+				}
+				catch (NumberFormatException ex)
+				{
+					// Left for evaluation to report.
+				}
+			}
+			if (!kept[n])
+				dirty[dirtyCount++] = n;
+		}
+	}
+
+	/**
+	 * Evaluates the tree under its executional environment.
+	 * @return the object representing the result of the evaluation, a
+	 * {@code Long} for integers or a {@code Double} for real numbers.
+	 * @throws EvaluationException if the tree can not be evaluated.
+	 */
+	public Object evaluate()
+	{
+		Environment env = tree.getEnvironment();
+		long version = env.getVersion();
+		evaluated = 0;
+		if (!kept[root] || env != lastEnv || version != lastVersion)
+		{
+			for (int i = 0; i < lastValues.length; i++)
+			{
+				Object val = env.lookup(free[i]);
+				if (env != lastEnv || !Objects.equals(val, lastValues[i]))
+				{
+					lastValues[i] = val;
+					for (int r = freeReaders[i]; r >= 0; r = nextReaders[r])
+						drop(r);
+				}
+			}
+			lastEnv = env;
+			lastVersion = version;
+
+			// The indices are in the order of a recursive evaluation, so
+			// each node is worked out after its children, and the first
+			// failure is the one the tree would meet.
+			Arrays.sort(dirty, 0, dirtyCount);
+			Result res = new Result();
+			int done = 0;
+			try
+			{
+				for (; done < dirtyCount; done++)
+				{
+					evaluated++;
+					evaluate(dirty[done], env, res);
+				}
+			}
+			finally
+			{
+				dirtyCount -= done;
+				System.arraycopy(dirty, done, dirty, 0, dirtyCount);
+			}
+		}
+		return reals[root] ? (Object) doubles[root] : (Object) longs[root];
+	}
+
+	/**
+	 * Gets the number of nodes the last evaluation worked out rather than
+	 * taking their kept values.
+	 * @return the number of nodes evaluated.
+	 */
+	public int getEvaluated()
+	{
+		return evaluated;
+	}
+
+	/**
+	 * Gets the number of places a node of the tree is reached, which is
+	 * the most nodes an evaluation works out.
+	 * @return the number of nodes of the evaluator.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/************
+	 * Private Methods
+	 ***********/
+
+	/**
+	 * Works out the value of a node from the kept values of its children
+	 * and keeps it.
+	 * @param n the index of the node.
+	 * @param env the executional environment.
+	 * @param res where to work out the value.
+	 */
+	private void evaluate(int n, Environment env, Result res)
+	{
+		TokenType type = types[n];
+		switch (type)
+		{
+			case INT:
+				throw new EvaluationException("Integer out of range: " + tokens[n].getValue());
+			case ID:
+				read(n, env, res);
+				break;
+			case ADD:
+			case SUB:
+			case MULT:
+			case DIV:
+				int left = lefts[n];
+				load(rights[n], res);
+				res.apply(type, reals[left], longs[left], doubles[left]);
+				break;
+			case LET:
+				load(rights[n], res);
+				break;
+			default:
+				throw new EvaluationException("Can not evaluate " + tokens[n]);
+		}
+
+		kept[n] = true;
+		reals[n] = res.isReal();
+		longs[n] = res.getLong();
+		doubles[n] = res.getDouble();
+	}
+
+	/**
+	 * Evaluates an identifier, reading the value of its let or looking it
+	 * up in the environment.
+	 * @param n the index of the identifier.
+	 * @param env the executional environment.
+	 * @param res where to store the result.
+	 */
+	private void read(int n, Environment env, Result res)
+	{
+		Token tok = tokens[n];
+		if (lefts[n] >= 0)
+		{
+			load(lefts[n], res);
+			return;
+		}
+		if (rights[n] < 0)
+		{
+			// A slot no let has set holds zero, as in a new frame.
+			res.setLong(0);
+			return;
+		}
+
+		Object val = env.lookup(tok);
+		if (val == null)
+			throw new EvaluationException("Unbound variable " + tok.getValue());
+		if (!(val instanceof Number))
+			throw new EvaluationException("Variable " + tok.getValue() + " is not a number");
+		res.set((Number) val);
+	}
+
+	/**
+	 * Stores the kept value of a node.
+	 * @param n the index of the node.
+	 * @param res where to store the value.
+	 */
+	private void load(int n, Result res)
+	{
+		if (reals[n])
+			res.setDouble(doubles[n]);
+		else
+			res.setLong(longs[n]);
+	}
+
+	/**
+	 * Drops the kept values of an identifier whose variable changed and of
+	 * every node whose value follows from it: the nodes above it and,
+	 * where a bound expression loses its value, the identifiers reading
+	 * the variable of its let and the nodes above those.
+	 * @param reader the index of the identifier.
+	 */
+	private void drop(int reader)
+	{
+		int top = -1;
+		int n = reader;
+		while (true)
+		{
+			for (; n >= 0 && kept[n]; n = parents[n])
+			{
+				kept[n] = false;
+				dirty[dirtyCount++] = n;
+				for (int r = readers[n]; r >= 0; r = nextReaders[r])
+				{
+					if (++top == marks.length)
+						marks = Arrays.copyOf(marks, top * 2);
+					marks[top] = r;
+				}
+			}
+			if (top < 0)
+				return;
+			n = marks[top--];
+		}
+	}
+
+	/**
+	 * Copies a leaf into the evaluator.
+	 * @param tok the token of the leaf.
+	 * @param slot the slot of a bound identifier, or -1.
+	 * @return the index of the leaf.
+	 */
+	private int leaf(Token tok, int slot)
+	{
+		if (tok.getType() != TokenType.ID)
+			return add(tok.getType(), -1, -1, tok);
+
+		int let;
+		if (slot >= 0)
+			let = slot < slotLets.length ? slotLets[slot] : -1;
+		else
+			let = nameLets.getOrDefault(tok.getValue(), -1);
+		if (let >= 0)
+		{
+			int n = add(TokenType.ID, let, -1, tok);
+			nextReaders[n] = readers[let];
+			readers[let] = n;
+			return n;
+		}
+		if (slot >= 0)
+			return add(TokenType.ID, -1, -1, tok);
+
+		Integer index = freeIndex.get(tok.getValue());
+		if (index == null)
+		{
+			index = freeIndex.size();
+			freeIndex.put(tok.getValue(), index);
+			if (index == free.length)
+			{
+				free = Arrays.copyOf(free, index * 2);
+				freeReaders = Arrays.copyOf(freeReaders, index * 2);
+			}
+			free[index] = tok;
+			freeReaders[index] = -1;
+		}
+		int n = add(TokenType.ID, -1, index, tok);
+		nextReaders[n] = freeReaders[index];
+		freeReaders[index] = n;
+		return n;
+	}
+
+	/**
+	 * Appends a node, making it the parent of its children.
+	 * @param type the type of the node.
+	 * @param left the left child, or the bound expression an identifier reads.
+	 * @param right the right child, or the free variable an identifier reads.
+	 * @param tok the token of the node, or null.
+	 * @return the index of the node.
+	 */
+	private int add(TokenType type, int left, int right, Token tok)
+	{
+		if (size == types.length)
+		{
+			types = Arrays.copyOf(types, size * 2);
+			lefts = Arrays.copyOf(lefts, size * 2);
+			rights = Arrays.copyOf(rights, size * 2);
+			tokens = Arrays.copyOf(tokens, size * 2);
+			parents = Arrays.copyOf(parents, size * 2);
+			readers = Arrays.copyOf(readers, size * 2);
+			nextReaders = Arrays.copyOf(nextReaders, size * 2);
+		}
+		types[size] = type;
+		lefts[size] = left;
+		rights[size] = right;
+		tokens[size] = tok;
+		readers[size] = -1;
+		nextReaders[size] = -1;
+		if (type != TokenType.ID && left >= 0)
+		{
+			parents[left] = size;
+			parents[right] = size;
+		}
+		return size++;
+	}
+
+	/**
+	 * Copies each node into the evaluator as the walk leaves it, children
+	 * before their parents. The value of a node is its index. The
+	 * identifiers of the body of a let that read its variable are resolved
+	 * to its bound expression, and listed as its readers.
+	 */
+	private final class Builder implements TreeWalker.Pass<Integer>
+	{
+		private int[] outers = new int[16];  // The bound expression each variable bound hides, or -1.
+		private int lets;                    // The lets whose bodies are being walked.
+
+		@Override
+		public Integer leaf(SyntaxNode node, Token tok, int slot)
+		{
+			return MemoizedEvaluator.this.leaf(tok, slot);
+		}
+
+		@Override
+		public Integer operation(Token op, Integer left, Integer right)
+		{
+			return add(op.getType(), left, right, null);
+		}
+
+		@Override
+		public void bind(Token variable, int slot, Integer bound)
+		{
+			if (lets == outers.length)
+				outers = Arrays.copyOf(outers, lets * 2);
+			if (slot >= 0)
+			{
+				if (slot >= slotLets.length)
+				{
+					int old = slotLets.length;
+					slotLets = Arrays.copyOf(slotLets, Math.max(old * 2, slot + 1));
+					Arrays.fill(slotLets, old, slotLets.length, -1);
+				}
+				outers[lets++] = slotLets[slot];
+				slotLets[slot] = bound;
+			}
+			else
+			{
+				Integer outer = nameLets.put(variable.getValue(), bound);
+				outers[lets++] = outer == null ? -1 : outer;
+			}
+		}
+
+		@Override
+		public Integer let(Token variable, int slot, Integer bound, Integer body)
+		{
+			int outer = outers[--lets];
+			if (slot >= 0)
+				slotLets[slot] = outer;
+			else if (outer < 0)
+				nameLets.remove(variable.getValue());
+			else
+				nameLets.put(variable.getValue(), outer);
+			return add(TokenType.LET, bound, body, variable);
+		}
+	}
+}
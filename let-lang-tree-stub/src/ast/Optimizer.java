@@ -0,0 +1,778 @@
+package ast;
+
+import ast.nodes.BinOpNode;
+import ast.nodes.LetNode;
+import ast.nodes.Result;
+import ast.nodes.SyntaxNode;
+import ast.nodes.TokenNode;
+import ast.nodes.TreeWalker;
+import lexer.Token;
+import lexer.TokenType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Rewrites syntax trees into trees that evaluate to the same value, or fail
+ * with the same error, with less work:
+ * <ul>
+ * <li>operations on two literals are folded into a literal, except integer
+ * division by zero, which is left to fail when evaluated;</li>
+ * <li>a let that binds a literal is dropped and the literal put in place of
+ * its variable;</li>
+ * <li>a let whose variable is not used is dropped if its bound expression
+ * can not fail;</li>
+ * <li>structurally identical subtrees are shared, and an operation that
+ * can not fail and occurs more than once is computed once, by a new let
+ * at the start of the innermost scope its variables are bound in;</li>
+ * <li>an operation that can fail, by reading a free variable or dividing,
+ * and occurs more than once is computed once too, by a new let just
+ * before its first occurrence in evaluation order.</li>
+ * </ul>
+ * Expressions that can fail are never dropped, and are only moved with
+ * everything evaluated before them that can fail as well, so an error
+ * that evaluation meets first is still met first. The let of a shared
+ * operation that can fail goes at the innermost node holding all its
+ * occurrences, and whatever that node evaluates before the first
+ * occurrence and can fail is bound by a let of its own ahead of it. Let
+ * variables are given their slots again, as the parser would for the new
+ * tree.
+ *
+ * The new tree shares the executional environment of the tree it was
+ * made from, and the tree it was made from is not changed.
+ */
+public final class Optimizer
+{
+	private final HashMap<Expr, Expr> interned = new HashMap<>();
+	private final IdentityHashMap<Expr, SyntaxNode> emitted = new IdentityHashMap<>();
+	private final HashMap<Integer, List<Expr>> hoisted = new HashMap<>();
+	private Object[] scope = new Object[16];  // The binding of each old slot.
+	private int[] uses = new int[16];         // The uses of each binding.
+	private int bindingCount;                 // The bindings made.
+	private int[] slots = new int[16];        // The new slot of each binding.
+	private int slotCount;                    // The slots of the new tree.
+	private boolean unbound;                  // True if a slot is read unbound.
+	private boolean byName;                   // True if a let binds by name.
+
+	private Optimizer()
+	{
+	}
+
+	/**
+	 * Optimizes a syntax tree.
+	 * @param tree the tree to optimize.
+	 * @return the optimized tree, or {@code tree} itself if it reads a slot
+	 * that no let around it binds, which only trees built by hand do.
+	 */
+	public static SyntaxTree optimize(SyntaxTree tree)
+	{
+		Optimizer o = new Optimizer();
+		Expr root = TreeWalker.walk(tree.getRootNode(), o.new Reader());
+		if (o.unbound)
+			return tree;
+
+		o.count(root);
+		root = o.wrap(-1, o.share(root));
+		SyntaxTree optimized = new SyntaxTree(o.emit(root), o.slotCount);
+		optimized.setEnvironment(tree.getEnvironment());
+		return optimized;
+	}
+
+	/************
+	 * Private Methods
+	 *
+	 * The tree is first read into expressions by a walk, the variables of
+	 * the expressions referring to bindings by number instead of by slot,
+	 * which folds, propagates and drops lets on the way. Equal leaves and
+	 * operations are interned, so equal subtrees are the same expression.
+	 * The occurrences of each operation are then counted, and the
+	 * operations that occur more than once replaced by new bindings. The
+	 * lets that compute operations that can fail are carried up, in the
+	 * order they are evaluated, to the node they go at. Last the
+	 * expressions are written out as nodes, one node for each expression
+	 * without lets in it. Each of these steps keeps a stack of its own
+	 * rather than recursing, so trees of any depth can be optimized.
+	 ***********/
+
+	/**
+	 * Reads a leaf. An identifier bound to a literal is replaced by the
+	 * literal.
+	 * @param tok the token of the leaf.
+	 * @param slot the slot of a bound identifier, or -1.
+	 * @return the expression of the leaf.
+	 */
+	private Expr leaf(Token tok, int slot)
+	{
+		switch (tok.getType())
+		{
+			case INT:
+				try
+				{
+					return intern(Expr.literal(tok, Long.parseLong(tok.getValue())));
+				}
+				catch (NumberFormatException ex)
+				{
+					return Expr.opaque(tok, -1);
+				}
+			case REAL:
+				return intern(Expr.literal(tok, Double.doubleToLongBits(
+						Double.parseDouble(tok.getValue()))));
+			case ID:
+				if (slot < 0)
+					return intern(Expr.name(tok));
+				Object bound = slot < scope.length ? scope[slot] : null;
+				if (bound instanceof Expr)
+					return (Expr) bound;
+				if (bound == null)
+				{
+					unbound = true;
+					return Expr.opaque(tok, slot);
+				}
+				int binding = (Integer) bound;
+				uses[binding]++;
+				return intern(Expr.reference(tok, binding));
+			default:
+				return Expr.opaque(tok, -1);
+		}
+	}
+
+	/**
+	 * Makes an operation, folding it if both operands are literals and it
+	 * does not fail.
+	 * @param op the operator token.
+	 * @param left the left operand.
+	 * @param right the right operand.
+	 * @return the expression of the operation.
+	 */
+	private Expr operation(Token op, Expr left, Expr right)
+	{
+		if (left.isLiteral() && right.isLiteral())
+		{
+			Result res = new Result();
+			left.load(res);
+			boolean leftReal = res.isReal();
+			long leftLong = res.getLong();
+			double leftDouble = res.getDouble();
+			right.load(res);
+			try
+			{
+				res.apply(op.getType(), leftReal, leftLong, leftDouble);
+				if (res.isReal())
+					return intern(Expr.literal(new Token(TokenType.REAL,
+							Double.toString(res.getDouble())),
+							Double.doubleToLongBits(res.getDouble())));
+				return intern(Expr.literal(new Token(TokenType.INT,
+						Long.toString(res.getLong())), res.getLong()));
+			}
+			catch (EvaluationException ex)
+			{
+				// Division by zero is left to fail when evaluated.
+			}
+		}
+		return intern(Expr.operation(op, left, right));
+	}
+
+	/**
+	 * Counts the occurrences of each expression. A second occurrence of an
+	 * operation that will be shared is not looked into, as its parts are
+	 * only computed once for all its occurrences. Each occurrence is
+	 * numbered in the order it is walked, and an operation that will be
+	 * shared is given the number of the innermost node holding all its
+	 * occurrences.
+	 * @param root the root of the expression.
+	 */
+	private void count(Expr root)
+	{
+		Expr[] exprs = new Expr[32];         // The expression of each frame.
+		int[] numbers = new int[32];         // The number of each frame's occurrence.
+		boolean[] rights = new boolean[32];  // True once the left operand is counted.
+		int top = -1;                        // The innermost frame.
+		int number = 0;                      // The occurrences walked.
+
+		Expr e = root;
+		while (true)
+		{
+			// Go down the left operands to one not looked into.
+			while (true)
+			{
+				if (e.occurrences++ > 0 && isShareable(e))
+				{
+					// The frames were numbered as they were entered, so the
+					// innermost one entered before the first occurrence holds
+					// it as well as this one.
+					int k = Arrays.binarySearch(numbers, 0, top + 1, e.first);
+					e.holder = Math.min(e.holder, numbers[k < 0 ? -k - 2 : k]);
+					number++;
+					break;
+				}
+				e.first = number++;
+				if (e.left == null)
+					break;
+				if (++top == exprs.length)
+				{
+					exprs = Arrays.copyOf(exprs, top * 2);
+					numbers = Arrays.copyOf(numbers, top * 2);
+					rights = Arrays.copyOf(rights, top * 2);
+				}
+				exprs[top] = e;
+				numbers[top] = e.first;
+				rights[top] = false;
+				e = e.left;
+			}
+
+			// Come back up to a frame with a right operand still to count.
+			e = null;
+			while (e == null)
+			{
+				if (top < 0)
+					return;
+				if (!rights[top])
+				{
+					rights[top] = true;
+					e = exprs[top].right;
+				}
+				else
+					exprs[top--] = null;
+			}
+		}
+	}
+
+	/**
+	 * Replaces the operations that occur more than once by references to
+	 * new bindings. The lets of operations that can not fail are put aside
+	 * in {@code hoisted} under the binding whose scope they go at the
+	 * start of. Those of operations that can fail are carried up from
+	 * their first occurrence in a sequence, with the lets of what is
+	 * evaluated before them, to the innermost node holding all their
+	 * occurrences. The operands of each expression are shared left before
+	 * right, and occurrences numbered, as {@link #count(Expr)} did.
+	 * @param root the root of the expression.
+	 * @return the expression with shared operations replaced.
+	 */
+	private Expr share(Expr root)
+	{
+		Expr[] exprs = new Expr[32];              // The expression of each frame.
+		int[] numbers = new int[32];              // The number of each frame's occurrence.
+		boolean[] rights = new boolean[32];       // True once the left operand is shared.
+		Expr[] lefts = new Expr[32];              // The shared left operand of each frame.
+		Sequence[] sequences = new Sequence[32];  // The lets carried up from each left operand.
+		int top = -1;                             // The innermost frame.
+		int number = 0;                           // The occurrences walked.
+
+		Expr e = root;
+		while (true)
+		{
+			// Go down the left operands to one that is already shared.
+			Expr value;
+			Sequence sequence = null;
+			while (true)
+			{
+				number++;
+				if (e.left == null)
+				{
+					value = e;
+					break;
+				}
+				if (e.temporary != null)
+				{
+					value = e.temporary;
+					break;
+				}
+				if (++top == exprs.length)
+				{
+					exprs = Arrays.copyOf(exprs, top * 2);
+					numbers = Arrays.copyOf(numbers, top * 2);
+					rights = Arrays.copyOf(rights, top * 2);
+					lefts = Arrays.copyOf(lefts, top * 2);
+					sequences = Arrays.copyOf(sequences, top * 2);
+				}
+				exprs[top] = e;
+				numbers[top] = number - 1;
+				rights[top] = false;
+				e = e.left;
+			}
+
+			// Come back up, rebuilding each frame until one has a right
+			// operand still to share.
+			e = null;
+			while (e == null)
+			{
+				if (top < 0)
+					return value;
+				if (!rights[top])
+				{
+					rights[top] = true;
+					lefts[top] = value;
+					sequences[top] = sequence;
+					e = exprs[top].right;
+					continue;
+				}
+
+				Expr parent = exprs[top];
+				Expr left = lefts[top];
+				Sequence before = sequences[top];
+				if (parent.type == TokenType.LET)
+				{
+					if (sequence == null)
+						value = Expr.let(parent.tok, parent.binding, left,
+								parent.binding < 0 ? value : wrap(parent.binding, value));
+					else
+					{
+						// What the body carries up may read the variable, so
+						// the let is carried up ahead of it.
+						Sequence let = new Sequence(Expr.let(parent.tok, parent.binding, left, null));
+						List<Expr> lets = hoisted.remove(parent.binding);
+						if (lets != null)
+							for (Expr hoist : lets)
+								let.append(new Sequence(hoist));
+						sequence = let.append(sequence);
+					}
+				}
+				else
+				{
+					// What the right operand carries up is evaluated after
+					// the left operand, which is bound ahead of it if it can
+					// fail.
+					if (sequence != null && !left.pure)
+					{
+						Expr bound = left;
+						left = temporary();
+						sequence = new Sequence(Expr.let(left.tok, left.binding, bound, null))
+								.append(sequence);
+					}
+					value = left == parent.left && value == parent.right ? parent
+							: intern(Expr.operation(parent.tok, left, value));
+					if (parent.occurrences > 1 && isShareable(parent))
+					{
+						Expr bound = value;
+						parent.temporary = value = temporary();
+						Expr let = Expr.let(value.tok, value.binding, bound, null);
+						if (parent.pure)
+							hoisted.computeIfAbsent(parent.scope, k -> new ArrayList<>()).add(let);
+						else
+						{
+							Sequence shared = new Sequence(let);
+							shared.holder = parent.holder;
+							sequence = sequence == null ? shared : sequence.append(shared);
+						}
+					}
+				}
+				if (before != null)
+					sequence = sequence == null ? before : before.append(sequence);
+
+				// Once every occurrence of the operations carried up is
+				// under this frame, their lets go here.
+				if (sequence != null && sequence.holder >= numbers[top])
+				{
+					value = sequence.around(value);
+					sequence = null;
+				}
+				exprs[top] = null;
+				lefts[top] = null;
+				sequences[top--] = null;
+			}
+		}
+	}
+
+	/**
+	 * Determines if an expression is an operation that can be computed
+	 * once for all its occurrences: one that holds no let and that can not
+	 * fail, or that can but is not read in a tree with lets bound by name,
+	 * whose scopes can not be moved.
+	 * @param e the expression.
+	 * @return true if the operation can be shared; otherwise, false.
+	 */
+	private boolean isShareable(Expr e)
+	{
+		return e.left != null && !e.hasLet && (e.pure || !byName);
+	}
+
+	/**
+	 * Makes a reference to a new binding.
+	 * @return the reference.
+	 */
+	private Expr temporary()
+	{
+		int binding = newBinding();
+		return intern(Expr.reference(new Token(TokenType.ID, "$t" + binding), binding));
+	}
+
+	/**
+	 * Puts the bindings hoisted to the start of a scope around its body.
+	 * @param binding the binding whose scope it is, or -1 for the whole
+	 * tree.
+	 * @param body the body of the scope.
+	 * @return the body inside the hoisted lets.
+	 */
+	private Expr wrap(int binding, Expr body)
+	{
+		List<Expr> lets = hoisted.remove(binding);
+		if (lets == null)
+			return body;
+		for (int i = lets.size() - 1; i >= 0; i--)
+		{
+			Expr let = lets.get(i);
+			body = Expr.let(let.tok, let.binding, let.left, body);
+		}
+		return body;
+	}
+
+	/**
+	 * Writes an expression out as nodes, giving each let the slot of its
+	 * depth. Expressions without lets are written once and their node
+	 * shared by every occurrence.
+	 * @param root the expression.
+	 * @return the node of the expression.
+	 */
+	private SyntaxNode emit(Expr root)
+	{
+		Expr[] exprs = new Expr[32];              // The expression of each frame.
+		int[] depths = new int[32];               // The let bodies around each frame.
+		boolean[] rights = new boolean[32];       // True once the left operand is written.
+		SyntaxNode[] lefts = new SyntaxNode[32];  // The node of each left operand written.
+		int top = -1;                             // The innermost frame.
+
+		Expr e = root;
+		int depth = 0;
+		while (true)
+		{
+			// Go down the left operands to one that is already written.
+			SyntaxNode value;
+			while (true)
+			{
+				value = emitted.get(e);
+				if (value != null)
+					break;
+				if (e.left == null)
+				{
+					value = new TokenNode(e.tok, e.type != TokenType.ID || e.binding < 0
+							? e.slot : slots[e.binding]);
+					emitted.put(e, value);
+					break;
+				}
+				if (++top == exprs.length)
+				{
+					exprs = Arrays.copyOf(exprs, top * 2);
+					depths = Arrays.copyOf(depths, top * 2);
+					rights = Arrays.copyOf(rights, top * 2);
+					lefts = Arrays.copyOf(lefts, top * 2);
+				}
+				exprs[top] = e;
+				depths[top] = depth;
+				rights[top] = false;
+				e = e.left;
+			}
+
+			// Come back up, making the node of each frame until one has a
+			// right operand still to write.
+			e = null;
+			while (e == null)
+			{
+				if (top < 0)
+					return value;
+				Expr parent = exprs[top];
+				depth = depths[top];
+				if (!rights[top])
+				{
+					// The variable of a let comes into scope in its body.
+					if (parent.type == TokenType.LET && parent.binding >= 0)
+					{
+						slots[parent.binding] = depth;
+						slotCount = Math.max(slotCount, depth + 1);
+						depth++;
+					}
+					rights[top] = true;
+					lefts[top] = value;
+					e = parent.right;
+				}
+				else
+				{
+					if (parent.type == TokenType.LET)
+						value = new LetNode(parent.tok, parent.binding < 0 ? -1 : depth,
+								lefts[top], value);
+					else
+					{
+						value = new BinOpNode(lefts[top], parent.tok, value);
+						if (!parent.hasLet)
+							emitted.put(parent, value);
+					}
+					exprs[top] = null;
+					lefts[top--] = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Interns an expression.
+	 * @param e the expression.
+	 * @return the expression equal to {@code e} made first.
+	 */
+	private Expr intern(Expr e)
+	{
+		Expr old = interned.putIfAbsent(e, e);
+		return old == null ? e : old;
+	}
+
+	/**
+	 * Makes a new binding.
+	 * @return the number of the binding.
+	 */
+	private int newBinding()
+	{
+		if (bindingCount == uses.length)
+		{
+			uses = Arrays.copyOf(uses, bindingCount * 2);
+			slots = Arrays.copyOf(slots, bindingCount * 2);
+		}
+		return bindingCount++;
+	}
+
+	/**
+	 * Reads a tree into expressions as it is walked. A let bound to a
+	 * literal is dropped and the literal put in place of its variable, and
+	 * a let whose variable is not used is dropped if its bound expression
+	 * can not fail.
+	 */
+	private final class Reader implements TreeWalker.Pass<Expr>
+	{
+		private Object[] outers = new Object[16];  // The outer binding of each let's slot.
+		private int[] bindings = new int[16];      // The binding of each let, or -1.
+		private int lets;                          // The lets whose bodies are being read.
+
+		@Override
+		public Expr leaf(SyntaxNode node, Token tok, int slot)
+		{
+			return Optimizer.this.leaf(tok, slot);
+		}
+
+		@Override
+		public Expr operation(Token op, Expr left, Expr right)
+		{
+			return Optimizer.this.operation(op, left, right);
+		}
+
+		@Override
+		public void bind(Token variable, int slot, Expr bound)
+		{
+			if (slot < 0)
+				return;
+			if (slot >= scope.length)
+				scope = Arrays.copyOf(scope, Math.max(slot + 1, scope.length * 2));
+			if (lets == bindings.length)
+			{
+				outers = Arrays.copyOf(outers, lets * 2);
+				bindings = Arrays.copyOf(bindings, lets * 2);
+			}
+			outers[lets] = scope[slot];
+			if (bound.isLiteral())
+			{
+				bindings[lets] = -1;
+				scope[slot] = bound;
+			}
+			else
+			{
+				bindings[lets] = newBinding();
+				scope[slot] = bindings[lets];
+			}
+			lets++;
+		}
+
+		@Override
+		public Expr let(Token variable, int slot, Expr bound, Expr body)
+		{
+			if (slot < 0)
+			{
+				byName = true;
+				return Expr.let(variable, -1, bound, body);
+			}
+			lets--;
+			scope[slot] = outers[lets];
+			outers[lets] = null;
+			int binding = bindings[lets];
+			if (binding < 0 || (uses[binding] == 0 && bound.pure))
+				return body;
+			return Expr.let(variable, binding, bound, body);
+		}
+	}
+
+	/**
+	 * Lets carried up the tree to the node they go at, in the order they
+	 * are evaluated. Sequences are linked lists, so joining two costs the
+	 * same however long they are.
+	 */
+	private static final class Sequence
+	{
+		private Expr first;  // The first let.
+		private Expr last;   // The last let.
+		int holder = Integer.MAX_VALUE;  // The number of the node all the lets must go under.
+
+		/**
+		 * Makes a sequence of one let.
+		 * @param let the let, whose body is null.
+		 */
+		Sequence(Expr let)
+		{
+			first = last = let;
+		}
+
+		/**
+		 * Puts the lets of another sequence after these.
+		 * @param after the sequence to follow this one.
+		 * @return this sequence.
+		 */
+		Sequence append(Sequence after)
+		{
+			last.next = after.first;
+			last = after.last;
+			holder = Math.min(holder, after.holder);
+			return this;
+		}
+
+		/**
+		 * Puts the lets of the sequence around an expression.
+		 * @param body the expression evaluated after the lets.
+		 * @return the lets around {@code body}.
+		 */
+		Expr around(Expr body)
+		{
+			List<Expr> lets = new ArrayList<>();
+			for (Expr let = first; let != null; let = let.next)
+				lets.add(let);
+			for (int i = lets.size() - 1; i >= 0; i--)
+			{
+				Expr let = lets.get(i);
+				body = Expr.let(let.tok, let.binding, let.left, body);
+			}
+			return body;
+		}
+	}
+
+	/**
+	 * An expression being optimized. Leaves and operations are compared by
+	 * value, with their operands compared by identity, so they can be
+	 * interned; lets and leaves that can not be evaluated are never
+	 * interned.
+	 */
+	private static final class Expr
+	{
+		final TokenType type;  // The type of the leaf, operator or LET.
+		final Token tok;       // The leaf, operator or variable token.
+		final Expr left;       // The left operand or bound expression.
+		final Expr right;      // The right operand or body.
+		final int binding;     // The binding made or referred to, or -1.
+		final int slot;        // The slot of a leaf read from a slot, or -1.
+		final long bits;       // The value of a literal.
+		final boolean pure;    // True if the expression can not fail.
+		final boolean hasLet;  // True if the expression holds a let.
+		final int scope;       // The innermost binding referred to, or -1.
+		final int hash;        // The hash of the expression.
+		int occurrences;       // The occurrences counted in the tree.
+		int first;             // The number of the first occurrence.
+		int holder = Integer.MAX_VALUE;  // The number of the node holding all occurrences.
+		Expr temporary;        // The reference to the binding computing it.
+		Expr next;             // The let after this one in a sequence.
+
+		private Expr(TokenType type, Token tok, Expr left, Expr right,
+				int binding, int slot, long bits, boolean pure, boolean hasLet,
+				int scope)
+		{
+			this.type = type;
+			this.tok = tok;
+			this.left = left;
+			this.right = right;
+			this.binding = binding;
+			this.slot = slot;
+			this.bits = bits;
+			this.pure = pure;
+			this.hasLet = hasLet;
+			this.scope = scope;
+			this.hash = ((type.hashCode() * 31 + System.identityHashCode(left)) * 31
+					+ System.identityHashCode(right)) * 31
+					+ Long.hashCode(bits) + binding;
+		}
+
+		static Expr literal(Token tok, long bits)
+		{
+			return new Expr(tok.getType(), tok, null, null, -1, -1, bits, true, false, -1);
+		}
+
+		static Expr reference(Token tok, int binding)
+		{
+			return new Expr(TokenType.ID, tok, null, null, binding, -1, 0, true, false,
+					binding);
+		}
+
+		static Expr name(Token tok)
+		{
+			return new Expr(TokenType.ID, tok, null, null, -1, -1,
+					tok.getValue().hashCode(), false, false, -1);
+		}
+
+		static Expr opaque(Token tok, int slot)
+		{
+			return new Expr(tok.getType(), tok, null, null, -1, slot, 0, false, false, -1);
+		}
+
+		static Expr operation(Token op, Expr left, Expr right)
+		{
+			// Only integer division by zero fails, so division is only
+			// known not to fail by a literal divisor that is not zero.
+			boolean pure = left.pure && right.pure && (op.getType() != TokenType.DIV
+					|| right.isLiteral() && (right.type == TokenType.REAL || right.bits != 0));
+			return new Expr(op.getType(), op, left, right, -1, -1, 0, pure,
+					left.hasLet || right.hasLet, Math.max(left.scope, right.scope));
+		}
+
+		static Expr let(Token variable, int binding, Expr bound, Expr body)
+		{
+			return new Expr(TokenType.LET, variable, bound, body, binding, -1, 0,
+					false, true, -1);
+		}
+
+		/**
+		 * Determines if the expression is a literal that can be evaluated.
+		 * @return true for a literal; otherwise, false.
+		 */
+		boolean isLiteral()
+		{
+			return (type == TokenType.INT || type == TokenType.REAL) && pure;
+		}
+
+		/**
+		 * Stores the value of a literal.
+		 * @param res where to store the value.
+		 */
+		void load(Result res)
+		{
+			if (type == TokenType.REAL)
+				res.setDouble(Double.longBitsToDouble(bits));
+			else
+				res.setLong(bits);
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o)
+				return true;
+			if (!(o instanceof Expr))
+				return false;
+			Expr e = (Expr) o;
+			if (type != e.type || left != e.left || right != e.right
+					|| binding != e.binding || bits != e.bits)
+				return false;
+			// Identifiers looked up by name are equal by name.
+			return type != TokenType.ID || binding >= 0
+					|| tok.getValue().equals(e.tok.getValue());
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package ast;
+
+import ast.nodes.BinOpNode;
+import ast.nodes.LetNode;
+import ast.nodes.Result;
+import ast.nodes.SyntaxNode;
+import environment.Environment;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import lexer.Token;
+
+/**
+ * Evaluates a syntax tree on the threads of a fork-join pool. The two
+ * operands of an operation do not depend on each other, so when both are
+ * large, the left one is evaluated as a task of its own while the right
+ * one is evaluated by the current thread. A let is walked in order, since
+ * its body needs the value of its bound expression, but both may hold
+ * operations to split. Trees smaller than the threshold are evaluated the
+ * ordinary way, since a task costs more than evaluating a small tree.
+ * Sizes come from {@link SyntaxNode#getSize()}, which the nodes work out
+ * when they are made.
+ *
+ * A task gets a copy of the current frame of the environment, so the lets
+ * it evaluates store their values apart from those of the thread that
+ * forked it. The value is the same as that of {@link SyntaxTree#evaluate()},
+ * and when more than one operand fails, the failure reported is the one
+ * the ordinary evaluation would meet first. Flat trees are always
+ * evaluated by their own single pass.
+ */
+public final class ParallelEvaluator
+{
+	/** The size below which a tree is not split into tasks. */
+	public static final int DEFAULT_THRESHOLD = 4096;
+
+	private ParallelEvaluator()
+	{
+	}
+
+	/**
+	 * Evaluates a tree in parallel under its executional environment.
+	 * @param tree the tree to evaluate.
+	 * @param pool the pool to run the tasks in.
+	 * @param threshold the size of the smallest operand worth a task.
+	 * @return the object representing the result of the evaluation, a
+	 * {@code Long} for integers or a {@code Double} for real numbers.
+	 * @throws EvaluationException if the tree can not be evaluated.
+	 */
+	public static Object evaluate(SyntaxTree tree, ForkJoinPool pool, int threshold)
+	{
+		if (threshold < 1)
+			throw new IllegalArgumentException("Threshold must be positive: " + threshold);
+		Environment env = tree.getEnvironment().extend(tree.getSlotCount());
+		return pool.invoke(new Task(tree.getRootNode(), env, threshold)).toNumber();
+	}
+
+	/************
+	 * Private Methods
+	 ***********/
+
+	/**
+	 * Evaluates the tree rooted at a node, forking tasks for its large
+	 * operands. Each large operation or let waiting on a child has a frame
+	 * on a stack of its own rather than a call, so a long chain of large
+	 * nodes, such as a generated sum, can not overflow the stack of the
+	 * thread. The frame holds the task forked for the left operand, or the
+	 * value of the left operand, or the old value of a variable bound by
+	 * name. Smaller nodes are evaluated the ordinary way.
+	 * @param root the root of the tree.
+	 * @param env the frame to evaluate under.
+	 * @param res where to store the result.
+	 * @param threshold the size of the smallest operand worth a task.
+	 */
+	private static void evaluate(SyntaxNode root, Environment env, Result res, int threshold)
+	{
+		SyntaxNode[] nodes = new SyntaxNode[16];  // The node of each frame.
+		Task[] tasks = new Task[16];              // The task of a left operand, or null.
+		boolean[] rights = new boolean[16];       // True once a frame waits on its right child.
+		boolean[] reals = new boolean[16];        // True if a left operand is real.
+		long[] values = new long[16];             // The left operand, or the bits of a real one.
+		Object[] olds = new Object[16];           // The old value of a variable.
+		int top = -1;                             // The innermost frame.
+
+		SyntaxNode node = root;
+		try
+		{
+			while (true)
+			{
+				// Go down to a small node, forking the left operands of the
+				// operations whose operands are both large.
+				while (isLarge(node, threshold))
+				{
+					if (++top == nodes.length)
+					{
+						int length = top * 2;
+						nodes = Arrays.copyOf(nodes, length);
+						tasks = Arrays.copyOf(tasks, length);
+						rights = Arrays.copyOf(rights, length);
+						reals = Arrays.copyOf(reals, length);
+						values = Arrays.copyOf(values, length);
+						olds = Arrays.copyOf(olds, length);
+					}
+					nodes[top] = node;
+					tasks[top] = null;
+					rights[top] = false;
+					if (node instanceof BinOpNode)
+					{
+						BinOpNode binOp = (BinOpNode) node;
+						SyntaxNode left = binOp.getLeft();
+						SyntaxNode right = binOp.getRight();
+						if (left.getSize() >= threshold && right.getSize() >= threshold)
+						{
+							tasks[top] = new Task(left, env.copy(), threshold);
+							tasks[top].fork();
+							rights[top] = true;
+							node = right;
+						}
+						else
+							node = left;
+					}
+					else
+						node = ((LetNode) node).getLeft();
+				}
+				node.evaluate(env, res);
+
+				// Come back up, giving the value to each frame until one has
+				// a right child still to evaluate.
+				node = null;
+				while (node == null)
+				{
+					if (top < 0)
+						return;
+					if (nodes[top] instanceof BinOpNode)
+					{
+						BinOpNode binOp = (BinOpNode) nodes[top];
+						if (tasks[top] != null)
+						{
+							Result left = tasks[top].join();
+							tasks[top] = null;
+							res.apply(binOp.getOpType(), left.isReal(), left.getLong(), left.getDouble());
+							top--;
+						}
+						else if (rights[top])
+						{
+							long value = values[top];
+							res.apply(binOp.getOpType(), reals[top], value, Double.longBitsToDouble(value));
+							top--;
+						}
+						else
+						{
+							rights[top] = true;
+							reals[top] = res.isReal();
+							values[top] = res.isReal() ? Double.doubleToRawLongBits(res.getDouble())
+									: res.getLong();
+							node = binOp.getRight();
+						}
+					}
+					else
+					{
+						LetNode let = (LetNode) nodes[top];
+						if (rights[top])
+						{
+							if (let.getSlot() < 0)
+								env.updateEnvironment(let.getVariable(), olds[top]);
+							top--;
+						}
+						else
+						{
+							bind(let, env, res, olds, top);
+							rights[top] = true;
+							node = let.getRight();
+						}
+					}
+				}
+			}
+		}
+		catch (RuntimeException | Error ex)
+		{
+			// Wait for every task forked, and report the failure of the one
+			// furthest out, since its left operand comes first. The
+			// variables bound by name get their old values again.
+			RuntimeException first = null;
+			for (; top >= 0; top--)
+			{
+				if (tasks[top] != null)
+				{
+					try
+					{
+						tasks[top].join();
+					}
+					catch (RuntimeException left)
+					{
+						first = left;
+					}
+				}
+				else if (rights[top] && nodes[top] instanceof LetNode)
+				{
+					LetNode let = (LetNode) nodes[top];
+					if (let.getSlot() < 0)
+						env.updateEnvironment(let.getVariable(), olds[top]);
+				}
+			}
+			if (first != null && ex instanceof RuntimeException)
+				throw first;
+			throw ex;
+		}
+	}
+
+	/**
+	 * Determines if a node is worth a frame: an operation or let at least
+	 * as large as the threshold.
+	 * @param node the node.
+	 * @param threshold the size of the smallest operand worth a task.
+	 * @return true if the node is a large operation or let.
+	 */
+	private static boolean isLarge(SyntaxNode node, int threshold)
+	{
+		return (node instanceof BinOpNode || node instanceof LetNode)
+				&& node.getSize() >= threshold;
+	}
+
+	/**
+	 * Binds the variable of a let to the value of its bound expression.
+	 * @param let the let.
+	 * @param env the frame to evaluate under.
+	 * @param res the value of the bound expression.
+	 * @param olds the old values of the variables bound by name, by frame.
+	 * @param top the frame of the let.
+	 */
+	private static void bind(LetNode let, Environment env, Result res, Object[] olds, int top)
+	{
+		int slot = let.getSlot();
+		if (slot >= 0)
+		{
+			if (res.isReal())
+				env.setDouble(slot, res.getDouble());
+			else
+				env.setLong(slot, res.getLong());
+		}
+		else
+		{
+			Token variable = let.getVariable();
+			olds[top] = env.lookup(variable);
+			env.updateEnvironment(variable, res.toNumber());
+		}
+	}
+
+	/**
+	 * Evaluates one operand as a task of the pool.
+	 */
+	private static final class Task extends RecursiveTask<Result>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final SyntaxNode node;   // The root of the operand.
+		private final Environment env;   // The frame of the task.
+		private final int threshold;     // The smallest operand worth a task.
+
+		Task(SyntaxNode node, Environment env, int threshold)
+		{
+			this.node = node;
+			this.env = env;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected Result compute()
+		{
+			Result res = new Result();
+			evaluate(node, env, res, threshold);
+			return res;
+		}
+	}
+}
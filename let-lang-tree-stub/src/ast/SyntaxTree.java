@@ -2,6 +2,9 @@ package ast;
 
 import ast.nodes.SyntaxNode;
 import environment.Environment;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Represents a syntax tree for the language.
@@ -10,15 +13,28 @@ public class SyntaxTree
 {
 	SyntaxNode root;  // The root of the syntax tree.
 	Environment env;  // The executional environment.
+	int slotCount;    // The number of let slots the tree uses.
 
 	/**
 	 * Constructs a new syntax tree with root {@code root}.
 	 * @param root the root node of the tree.
 	 */
 	public SyntaxTree(SyntaxNode root)
+	{
+		this(root, 0);
+	}
+
+	/**
+	 * Constructs a new syntax tree with root {@code root} whose let
+	 * variables have been resolved to slots.
+	 * @param root the root node of the tree.
+	 * @param slotCount the number of slots the let variables use.
+	 */
+	public SyntaxTree(SyntaxNode root, int slotCount)
 	{
 		this.root = root;
 		this.env = new Environment();
+		this.slotCount = slotCount;
 	}
 
 	/**
@@ -48,12 +64,68 @@ public class SyntaxTree
 		}
 
 	 /**
-		* Evaluate the syntax tree.
-		* @return the object representing the result of the evaluation.
+		* Evaluate the syntax tree. The let variables of the tree are kept in
+		* a new frame of the executional environment, so evaluating the tree
+		* leaves the environment as it was.
+		* @return the object representing the result of the evaluation, a
+		* {@code Long} for integers or a {@code Double} for real numbers.
+		* @throws EvaluationException if the tree can not be evaluated.
 		*/
 		public Object evaluate()
 		{
-			return root.evaluate(env);
+			return root.evaluate(env.extend(slotCount));
+		}
+
+		/**
+		 * Evaluate the syntax tree under {@code env} instead of the
+		 * executional environment of the tree. The tree is not changed, so
+		 * a shared tree may be evaluated this way by many callers at once.
+		 * @param env the environment giving the free variables their values.
+		 * @return the object representing the result of the evaluation, a
+		 * {@code Long} for integers or a {@code Double} for real numbers.
+		 * @throws EvaluationException if the tree can not be evaluated.
+		 */
+		public Object evaluate(Environment env)
+		{
+			return root.evaluate(env.extend(slotCount));
+		}
+
+		/**
+		 * Evaluate the syntax tree using the threads of {@code pool} for
+		 * large operations whose operands are both large.
+		 * @param pool the pool to evaluate in.
+		 * @return the object representing the result of the evaluation, a
+		 * {@code Long} for integers or a {@code Double} for real numbers.
+		 * @throws EvaluationException if the tree can not be evaluated.
+		 * @see ParallelEvaluator
+		 */
+		public Object evaluateParallel(ForkJoinPool pool)
+		{
+			return ParallelEvaluator.evaluate(this, pool, ParallelEvaluator.DEFAULT_THRESHOLD);
+		}
+
+		/**
+		 * Evaluate the syntax tree for each row of a batch, the free
+		 * variables taking their values from the columns of the same name.
+		 * @param columns the columns of the free variables.
+		 * @param rows the number of rows of the batch.
+		 * @return the value of the tree for each row.
+		 * @throws EvaluationException if the tree can not be evaluated for
+		 * some row.
+		 * @see BatchEvaluator
+		 */
+		public Column evaluateBatch(Map<String, Column> columns, int rows)
+		{
+			return BatchEvaluator.evaluate(this, columns, rows);
+		}
+
+		/**
+		 * Gets the number of slots the let variables of the tree use.
+		 * @return the number of slots of the tree.
+		 */
+		public int getSlotCount()
+		{
+			return slotCount;
 		}
 
 		/**
@@ -73,4 +145,68 @@ public class SyntaxTree
 		 {
 			 this.env = env;
 		 }
+
+		/**
+		 * Makes a read-only view of the tree, for handing one tree to many
+		 * callers. The view shares the nodes of this tree but has a copy of
+		 * its environment, so a caller that gives names values in its view
+		 * changes what only its own {@link #evaluate()} sees. The root and
+		 * environment of the view can not be replaced.
+		 * @return a read-only view of the tree.
+		 */
+		public SyntaxTree readOnly()
+		{
+			return new ReadOnly(this);
+		}
+
+		/**
+		 * Renders the structure of the tree.
+		 * @return a string describing the nodes of the tree.
+		 */
+		@Override
+		public String toString()
+		{
+			return TreePrinter.print(root);
+		}
+
+		/**
+		 * Writes the structure of the tree to {@code out} as it is rendered,
+		 * the same as {@link #toString()} but without building the string.
+		 * @param out where to write the rendering.
+		 * @throws IOException if {@code out} can not be written.
+		 */
+		public void print(Appendable out) throws IOException
+		{
+			TreePrinter.print(root, out);
+		}
+
+		/**
+		 * A view of a tree that refuses to be changed.
+		 */
+		private static final class ReadOnly extends SyntaxTree
+		{
+			ReadOnly(SyntaxTree tree)
+			{
+				super(tree.root, tree.slotCount);
+				env = tree.env.copy();
+			}
+
+			@Override
+			public void setRootNode(SyntaxNode root)
+			{
+				throw new UnsupportedOperationException("The tree is read only");
+			}
+
+			@Override
+			public void setEnvironment(Environment env)
+			{
+				throw new UnsupportedOperationException("The tree is read only");
+			}
+
+			@Override
+			public SyntaxTree readOnly()
+			{
+				return new ReadOnly(this);
+			}
+		}
 }
@@ -0,0 +1,215 @@
+package ast;
+
+import ast.nodes.FlatNode;
+import ast.nodes.SyntaxNode;
+import ast.nodes.TreeWalker;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import lexer.SymbolTable;
+import lexer.Token;
+
+/**
+ * Saves syntax trees in a compact binary form and loads them again without
+ * lexing or parsing the source. A file holds a header, the magic number
+ * {@code LETT}, the format version, the slot count and the index of the
+ * root, followed by the {@link FlatTree} of the tree: its counts, then the
+ * lengths and characters of the symbol names, the kinds, children and
+ * tokens of the nodes, the literal constants and text, and the lets, each
+ * in one run of little-endian values.
+ *
+ * A tree parsed with {@link parser.Parser#parseFlat()} is written straight
+ * from its arena; any other tree is first flattened into one. A loaded
+ * tree is always a tree of {@link FlatNode}s, whose arrays are bulk copies
+ * of the runs of the mapped file, and is checked before it is returned, so
+ * a damaged file is reported rather than evaluated.
+ */
+public final class TreeFile
+{
+	/** The first four bytes of a tree file, {@code LETT}. */
+	public static final int MAGIC = 0x4C455454;
+	/** The version of the format this class writes and reads. */
+	public static final int VERSION = 1;
+
+	private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+	private static final int HEADER = 4 * Integer.BYTES;  // Magic to root.
+
+	private TreeFile()
+	{
+	}
+
+	/**
+	 * Writes a tree to a file, replacing the file if it exists.
+	 * @param tree the tree to write.
+	 * @param path the file to write.
+	 * @throws IOException if the file can not be written.
+	 */
+	public static void write(SyntaxTree tree, Path path) throws IOException
+	{
+		ByteBuffer bytes = encode(tree);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			while (bytes.hasRemaining())
+				channel.write(bytes);
+		}
+	}
+
+	/**
+	 * Reads a tree from a file by mapping it into memory.
+	 * @param path the file to read.
+	 * @return the tree the file holds.
+	 * @throws IOException if the file can not be read or does not hold a
+	 * valid tree.
+	 */
+	public static SyntaxTree read(Path path) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Tree file too large: " + path);
+			MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			return decode(bytes);
+		}
+	}
+
+	/**
+	 * Encodes a tree in the binary form.
+	 * @param tree the tree to encode.
+	 * @return a buffer holding the encoded tree, ready to be read.
+	 */
+	public static ByteBuffer encode(SyntaxTree tree)
+	{
+		SyntaxNode node = tree.getRootNode();
+		FlatTree arena;
+		int root;
+		if (node instanceof FlatNode
+				&& ((FlatNode) node).getIndex() == ((FlatNode) node).getTree().size() - 1)
+		{
+			arena = ((FlatNode) node).getTree();
+			root = ((FlatNode) node).getIndex();
+		}
+		else
+		{
+			arena = new FlatTree(new SymbolTable());
+			root = flatten(node, arena);
+			arena.complete();
+		}
+
+		ByteBuffer out = ByteBuffer.allocate(HEADER + arena.byteSize()).order(ORDER);
+		out.putInt(MAGIC).putInt(VERSION).putInt(tree.getSlotCount()).putInt(root);
+		arena.write(out);
+		return out.flip();
+	}
+
+	/**
+	 * Decodes a tree from the binary form. The position of {@code bytes}
+	 * is not changed.
+	 * @param bytes the encoded tree.
+	 * @return the tree.
+	 * @throws IOException if {@code bytes} does not hold a valid tree.
+	 */
+	public static SyntaxTree decode(ByteBuffer bytes) throws IOException
+	{
+		ByteBuffer in = bytes.duplicate().order(ORDER);
+		try
+		{
+			if (in.remaining() < HEADER || in.getInt() != MAGIC)
+				throw new IOException("Not a tree file");
+			int version = in.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported tree file version " + version);
+			int slotCount = in.getInt();
+			int root = in.getInt();
+			if (slotCount < 0)
+				throw new IOException("Corrupt tree: slot count " + slotCount);
+
+			FlatTree arena = FlatTree.read(in, slotCount);
+			if (root < 0 || root >= arena.size())
+				throw new IOException("Corrupt tree: root " + root);
+			return new SyntaxTree(arena.node(root), slotCount);
+		}
+		catch (BufferUnderflowException ex)
+		{
+			throw new IOException("Truncated tree file", ex);
+		}
+	}
+
+	/************
+	 * Private Methods
+	 ***********/
+
+	/**
+	 * Adds the nodes of a tree to an arena, children before their parents.
+	 * Names are interned in the symbol table of the arena, since the
+	 * symbols of the tokens belong to the parse that made them.
+	 * @param node the root of the tree to add.
+	 * @param arena the arena to add to.
+	 * @return the index of the root in the arena.
+	 */
+	private static int flatten(SyntaxNode node, FlatTree arena)
+	{
+		return TreeWalker.walk(node, new Flattener(arena));
+	}
+
+	/**
+	 * Adds a leaf to an arena.
+	 * @param tok the token of the leaf.
+	 * @param slot the slot of a bound identifier, or -1.
+	 * @param arena the arena to add to.
+	 * @return the index of the leaf in the arena.
+	 */
+	private static int leaf(Token tok, int slot, FlatTree arena)
+	{
+		switch (tok.getType())
+		{
+			case ID:
+				return arena.addLeaf(arena.getSymbolTable().intern(tok.getValue()), slot);
+			case INT:
+			case REAL:
+				return arena.addLeaf(tok, -1);
+			default:
+				return arena.addError();
+		}
+	}
+
+	/**
+	 * Adds each node to an arena as the walk leaves it. The value of a
+	 * node is its index in the arena.
+	 */
+	private static final class Flattener implements TreeWalker.Pass<Integer>
+	{
+		private final FlatTree arena;       // The arena to add to.
+		private final SymbolTable symbols;  // The symbol table of the arena.
+
+		Flattener(FlatTree arena)
+		{
+			this.arena = arena;
+			this.symbols = arena.getSymbolTable();
+		}
+
+		@Override
+		public Integer leaf(SyntaxNode node, Token tok, int slot)
+		{
+			return TreeFile.leaf(tok, slot, arena);
+		}
+
+		@Override
+		public Integer operation(Token op, Integer left, Integer right)
+		{
+			return arena.addBinOp(op.getType(), left, right);
+		}
+
+		@Override
+		public Integer let(Token variable, int slot, Integer bound, Integer body)
+		{
+			return arena.addLet(symbols.intern(variable.getValue()), slot, bound, body);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package ast;
+
+import ast.nodes.SyntaxNode;
+import ast.nodes.TreeWalker;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import lexer.Token;
+
+/**
+ * Renders syntax trees as strings describing their structure, such as
+ * {@code BinOpNode(TokenNode(INT(1)), ADD, TokenNode(ID(x)))}. The tree is
+ * walked by a {@link TreeWalker}, so a tree of any depth can be rendered,
+ * and the rendering is written as it is made rather than built up in one
+ * string.
+ */
+public class TreePrinter
+{
+	/**
+	 * Renders the tree rooted at {@code node}.
+	 * @param node the root of the tree to render.
+	 * @return the string form of the tree.
+	 */
+	public static String print(SyntaxNode node)
+	{
+		StringBuilder out = new StringBuilder();
+		try
+		{
+			print(node, out);
+		}
+		catch (IOException ex)
+		{
+			throw new UncheckedIOException(ex);  // A StringBuilder does not fail.
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Writes the rendering of the tree rooted at {@code node} to
+	 * {@code out}.
+	 * @param node the root of the tree to render.
+	 * @param out where to write the rendering.
+	 * @throws IOException if {@code out} can not be written.
+	 */
+	public static void print(SyntaxNode node, Appendable out) throws IOException
+	{
+		try
+		{
+			TreeWalker.walk(node, new Printer(out));
+		}
+		catch (UncheckedIOException ex)
+		{
+			throw ex.getCause();
+		}
+	}
+
+	/**
+	 * Writes the rendering of each node as the walk reaches it.
+	 */
+	private static final class Printer implements TreeWalker.Pass<Void>
+	{
+		private final Appendable out;  // Where to write the rendering.
+
+		Printer(Appendable out)
+		{
+			this.out = out;
+		}
+
+		@Override
+		public Void leaf(SyntaxNode node, Token tok, int slot)
+		{
+			return write("TokenNode(", tok, ")");
+		}
+
+		@Override
+		public void enterOperation(Token op)
+		{
+			write("BinOpNode(");
+		}
+
+		@Override
+		public void betweenOperands(Token op, Void left)
+		{
+			write(", ", op, ", ");
+		}
+
+		@Override
+		public Void operation(Token op, Void left, Void right)
+		{
+			return write(")");
+		}
+
+		@Override
+		public void enterLet(Token variable, int slot)
+		{
+			write("LetNode(", variable, ", ");
+		}
+
+		@Override
+		public void bind(Token variable, int slot, Void bound)
+		{
+			write(", ");
+		}
+
+		@Override
+		public Void let(Token variable, int slot, Void bound, Void body)
+		{
+			return write(")");
+		}
+
+		/**
+		 * Writes text.
+		 * @param text the text.
+		 * @return null.
+		 */
+		private Void write(String text)
+		{
+			return write(text, null, "");
+		}
+
+		/**
+		 * Writes a token with text around it.
+		 * @param before the text before the token.
+		 * @param tok the token, or null for none.
+		 * @param after the text after the token.
+		 * @return null.
+		 */
+		private Void write(String before, Token tok, String after)
+		{
+			try
+			{
+				out.append(before);
+				if (tok != null)
+					out.append(tok.toString());
+				out.append(after);
+				return null;
+			}
+			catch (IOException ex)
+			{
+				throw new UncheckedIOException(ex);
+			}
+		}
+	}
+}
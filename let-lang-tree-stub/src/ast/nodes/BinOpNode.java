@@ -2,20 +2,81 @@ package ast.nodes;
 import environment.Environment;
 import lexer.Token;
 
-public class BinOpNode extends SyntaxNode {
+public final class BinOpNode extends SyntaxNode {
     private SyntaxNode leftNode;
     private SyntaxNode rightNode;
     private Token operation;
+    private int size;            // The nodes in the tree of this node.
 
     public BinOpNode(SyntaxNode left, Token op, SyntaxNode right) {
         operation = op;
         leftNode = left;
         rightNode = right;
         this.opType = op.getType();
+        size = sizeOf(left, right);
     }
 
-    public String evaluate(Environment env) {
-        return "BinOpNode(" + leftNode.evaluate(env) + ", " + operation.toString() + ", "
-        + rightNode.evaluate(env) + ")";
+    /**
+     * Gets the left operand.
+     * @return the node of the left operand.
+     */
+    public SyntaxNode getLeft() {
+        return leftNode;
+    }
+
+    /**
+     * Replaces the left operand, as an incremental parse does when only it
+     * has changed. The size of this node is worked out again, but not
+     * those of the nodes above it.
+     * @param left the node of the new left operand.
+     */
+    public void setLeft(SyntaxNode left) {
+        leftNode = left;
+        size = sizeOf(left, rightNode);
+    }
+
+    /**
+     * Gets the right operand.
+     * @return the node of the right operand.
+     */
+    public SyntaxNode getRight() {
+        return rightNode;
+    }
+
+    /**
+     * Replaces the right operand, as an incremental parse does when only it
+     * has changed. The size of this node is worked out again, but not
+     * those of the nodes above it.
+     * @param right the node of the new right operand.
+     */
+    public void setRight(SyntaxNode right) {
+        rightNode = right;
+        size = sizeOf(leftNode, right);
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the operator token.
+     * @return the token of the operation.
+     */
+    public Token getOperation() {
+        return operation;
+    }
+
+    /**
+     * Evaluates the operation with a stack of its own, so a long chain of
+     * operations does not overflow the stack of the thread.
+     */
+    public void evaluate(Environment env, Result res) {
+        Evaluation.run(this, env, res);
+    }
+
+    @Override
+    public <R> R accept(NodeVisitor<R> visitor) {
+        return visitor.visitBinOp(this);
     }
 }
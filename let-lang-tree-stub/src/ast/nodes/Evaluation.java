@@ -0,0 +1,247 @@
+package ast.nodes;
+
+import environment.Environment;
+import java.util.Arrays;
+import lexer.Token;
+
+/**
+ * Evaluates a tree of operations and lets without overflowing the stack
+ * of the thread, however deep the tree, such as a long left-leaning sum.
+ * The top of the tree is evaluated by plain recursion, which is the
+ * quickest, and once that is {@link #MAX_DEPTH} calls deep the subtree
+ * below is evaluated with a stack of its own. Each large node waiting on
+ * a child there has a frame holding the value of its left operand, or the
+ * old value of a variable bound by name, until the child is done, while
+ * subtrees too small to reach that depth are evaluated by recursion again.
+ * Leaves and flat nodes are evaluated by their own {@code evaluate}. The order of
+ * evaluation, the values and the failures are those of evaluating each
+ * node in turn, and a variable bound by name has its old value again even
+ * when the body of its let fails.
+ */
+final class Evaluation {
+    static final int MAX_DEPTH = 256;    // The deepest recursion before a stack is used.
+
+    // The stack of each thread, kept to be used again.
+    private static final ThreadLocal<Evaluation> STACKS = ThreadLocal.withInitial(Evaluation::new);
+
+    private SyntaxNode[] nodes = new SyntaxNode[64];  // The node of each frame.
+    private boolean[] rights = new boolean[64];  // True once a frame waits on its right child.
+    private boolean[] reals = new boolean[64];   // True if a left operand is real.
+    private long[] values = new long[64];     // The left operand, or the bits of a real one.
+    private Object[] olds = new Object[64];   // The old value of a variable.
+    private int top = -1;                     // The innermost frame.
+    private int used;                         // The most frames used by a walk.
+    private boolean busy;                     // True while a walk uses the stack.
+
+    private Evaluation() {
+    }
+
+    /**
+     * Evaluates the tree rooted at a node.
+     * @param root the root of the tree.
+     * @param env the executional environment.
+     * @param res where to store the result.
+     * @throws ast.EvaluationException if the tree can not be evaluated.
+     */
+    static void run(SyntaxNode root, Environment env, Result res) {
+        evaluate(root, env, res, 0);
+    }
+
+    /**
+     * Evaluates the tree rooted at a node by recursion, handing it to a
+     * stack of its own once the recursion is too deep.
+     * @param node the root of the tree.
+     * @param env the executional environment.
+     * @param res where to store the result.
+     * @param depth the number of calls above this one.
+     */
+    private static void evaluate(SyntaxNode node, Environment env, Result res, int depth) {
+        if (depth == MAX_DEPTH && (node instanceof BinOpNode || node instanceof LetNode)) {
+            Evaluation eval = STACKS.get();
+            if (eval.busy)
+                eval = new Evaluation();  // A leaf that evaluates a tree of its own.
+            eval.busy = true;
+            try {
+                eval.walk(node, env, res);
+            } catch (RuntimeException | Error ex) {
+                eval.unwind(env);
+                throw ex;
+            } finally {
+                eval.release();
+            }
+        } else if (node instanceof BinOpNode) {
+            BinOpNode binOp = (BinOpNode) node;
+            evaluate(binOp.getLeft(), env, res, depth + 1);
+            boolean leftReal = res.isReal();
+            long leftLong = res.getLong();
+            double leftDouble = res.getDouble();
+            evaluate(binOp.getRight(), env, res, depth + 1);
+            res.apply(binOp.getOpType(), leftReal, leftLong, leftDouble);
+        } else if (node instanceof LetNode) {
+            LetNode let = (LetNode) node;
+            evaluate(let.getLeft(), env, res, depth + 1);
+            int slot = let.getSlot();
+            if (slot >= 0) {
+                if (res.isReal())
+                    env.setDouble(slot, res.getDouble());
+                else
+                    env.setLong(slot, res.getLong());
+                evaluate(let.getRight(), env, res, depth + 1);
+                return;
+            }
+
+            Token variable = let.getVariable();
+            Object old = env.lookup(variable);
+            env.updateEnvironment(variable, res.toNumber());
+            try {
+                evaluate(let.getRight(), env, res, depth + 1);
+            } finally {
+                env.updateEnvironment(variable, old);
+            }
+        } else {
+            node.evaluate(env, res);
+        }
+    }
+
+    /**
+     * Walks the tree, going down the left children and coming back up to
+     * each waiting frame once its child is done.
+     * @param root the root of the tree.
+     * @param env the executional environment.
+     * @param res where to store the result.
+     */
+    private void walk(SyntaxNode root, Environment env, Result res) {
+        SyntaxNode node = root;
+        while (true) {
+            while (isLarge(node)) {
+                push(node);
+                node = node instanceof BinOpNode ? ((BinOpNode) node).getLeft()
+                        : ((LetNode) node).getLeft();
+            }
+            evaluate(node, env, res, 0);
+
+            node = null;
+            while (node == null) {
+                if (top < 0)
+                    return;
+                SyntaxNode parent = nodes[top];
+                if (parent instanceof BinOpNode) {
+                    BinOpNode binOp = (BinOpNode) parent;
+                    if (rights[top]) {
+                        long value = values[top];
+                        res.apply(binOp.getOpType(), reals[top], value, Double.longBitsToDouble(value));
+                        top--;
+                        continue;
+                    }
+                    SyntaxNode right = binOp.getRight();
+                    if (isLarge(right)) {
+                        rights[top] = true;
+                        reals[top] = res.isReal();
+                        values[top] = res.isReal() ? Double.doubleToRawLongBits(res.getDouble())
+                                : res.getLong();
+                        node = right;
+                        continue;
+                    }
+
+                    // A small operand needs no frame, so the left one is
+                    // kept in locals while it is evaluated.
+                    boolean leftReal = res.isReal();
+                    long leftLong = res.getLong();
+                    double leftDouble = res.getDouble();
+                    evaluate(right, env, res, 0);
+                    res.apply(binOp.getOpType(), leftReal, leftLong, leftDouble);
+                    top--;
+                } else {
+                    LetNode let = (LetNode) parent;
+                    if (!rights[top]) {
+                        bind(let, env, res);
+                        node = let.getRight();
+                    } else {
+                        if (let.getSlot() < 0)
+                            env.updateEnvironment(let.getVariable(), olds[top]);
+                        top--;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Determines if a node needs frames on the stack. A smaller tree is
+     * less than {@link #MAX_DEPTH} deep, so it is evaluated by recursion.
+     * @param node the node.
+     * @return true if the node is a large operation or let.
+     */
+    private static boolean isLarge(SyntaxNode node) {
+        return (node instanceof BinOpNode || node instanceof LetNode)
+                && node.getSize() >= MAX_DEPTH;
+    }
+
+    /**
+     * Binds the variable of the let of the innermost frame to the value of
+     * its bound expression.
+     * @param let the let.
+     * @param env the executional environment.
+     * @param res the value of the bound expression.
+     */
+    private void bind(LetNode let, Environment env, Result res) {
+        int slot = let.getSlot();
+        if (slot >= 0) {
+            if (res.isReal())
+                env.setDouble(slot, res.getDouble());
+            else
+                env.setLong(slot, res.getLong());
+        } else {
+            Token variable = let.getVariable();
+            olds[top] = env.lookup(variable);
+            env.updateEnvironment(variable, res.toNumber());
+        }
+        rights[top] = true;
+    }
+
+    /**
+     * Gives the variables bound by name of the lets whose bodies were
+     * being evaluated their old values again, innermost first.
+     * @param env the executional environment.
+     */
+    private void unwind(Environment env) {
+        for (; top >= 0; top--) {
+            if (rights[top] && nodes[top] instanceof LetNode) {
+                LetNode let = (LetNode) nodes[top];
+                if (let.getSlot() < 0)
+                    env.updateEnvironment(let.getVariable(), olds[top]);
+            }
+        }
+    }
+
+    /**
+     * Opens a frame for a node waiting on its left child.
+     * @param node the node.
+     */
+    private void push(SyntaxNode node) {
+        if (++top == nodes.length) {
+            int length = top * 2;
+            nodes = Arrays.copyOf(nodes, length);
+            rights = Arrays.copyOf(rights, length);
+            reals = Arrays.copyOf(reals, length);
+            values = Arrays.copyOf(values, length);
+            olds = Arrays.copyOf(olds, length);
+        }
+        if (top >= used)
+            used = top + 1;
+        nodes[top] = node;
+        rights[top] = false;
+    }
+
+    /**
+     * Lets go of the nodes and values of the last walk, so a stack kept by
+     * a thread does not keep a tree alive.
+     */
+    private void release() {
+        Arrays.fill(nodes, 0, used, null);
+        Arrays.fill(olds, 0, used, null);
+        used = 0;
+        top = -1;
+        busy = false;
+    }
+}
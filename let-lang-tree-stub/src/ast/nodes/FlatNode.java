@@ -0,0 +1,145 @@
+package ast.nodes;
+
+import ast.FlatTree;
+import environment.Environment;
+import lexer.Token;
+import lexer.TokenType;
+
+/**
+ * A view of one node of a {@link FlatTree}. The view only holds the arena
+ * and the index of the node, and its children are new views made when
+ * asked for, so views can be made freely and thrown away; the arena is
+ * what holds the tree.
+ */
+public final class FlatNode extends SyntaxNode {
+    private final FlatTree tree;  // The arena holding the node.
+    private final int index;      // The index of the node in the arena.
+
+    /**
+     * Constructs a view of a node.
+     * @param tree the arena holding the node.
+     * @param index the index of the node in the arena.
+     */
+    public FlatNode(FlatTree tree, int index) {
+        this.tree = tree;
+        this.index = index;
+        this.opType = tree.type(index);
+    }
+
+    /**
+     * Gets the arena holding the node.
+     * @return the arena.
+     */
+    public FlatTree getTree() {
+        return tree;
+    }
+
+    /**
+     * Gets the index of the node in its arena.
+     * @return the index of the node.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Determines if the node is a binary operation.
+     * @return true if the node is an operation; otherwise, false.
+     */
+    public boolean isBinOp() {
+        switch (opType) {
+            case ADD:
+            case SUB:
+            case MULT:
+            case DIV:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Determines if the node is a let.
+     * @return true if the node is a let; otherwise, false.
+     */
+    public boolean isLet() {
+        return opType == TokenType.LET;
+    }
+
+    /**
+     * Gets the left operand of an operation or the bound expression of a
+     * let.
+     * @return a view of the left child.
+     */
+    public FlatNode getLeft() {
+        return new FlatNode(tree, tree.left(index));
+    }
+
+    /**
+     * Gets the right operand of an operation or the body of a let.
+     * @return a view of the right child.
+     */
+    public FlatNode getRight() {
+        return new FlatNode(tree, tree.right(index));
+    }
+
+    /**
+     * Gets the operator token of an operation.
+     * @return the token of the operation.
+     */
+    public Token getOperation() {
+        return Token.of(opType);
+    }
+
+    /**
+     * Gets the variable a let binds.
+     * @return the identifier token of the variable.
+     */
+    public Token getVariable() {
+        return tree.token(index);
+    }
+
+    /**
+     * Gets the token of a leaf.
+     * @return the token of the node.
+     */
+    public Token getToken() {
+        return tree.token(index);
+    }
+
+    /**
+     * Gets the slot of an identifier or let.
+     * @return the slot of the variable, or -1 if it is bound by name.
+     */
+    public int getSlot() {
+        return tree.slot(index);
+    }
+
+    /**
+     * Gets the number of nodes in the tree of the node, which is the
+     * length of its run of the arena.
+     * @return the number of nodes.
+     */
+    @Override
+    public int getSize() {
+        return tree.size(index);
+    }
+
+    /**
+     * The type of a view is fixed by its arena.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void setOpType(TokenType newType) {
+        throw new UnsupportedOperationException("Flat nodes can not be changed");
+    }
+
+    public void evaluate(Environment env, Result res) {
+        tree.evaluate(index, env, res);
+    }
+
+    @Override
+    public <R> R accept(NodeVisitor<R> visitor) {
+        return visitor.visitFlat(this);
+    }
+}
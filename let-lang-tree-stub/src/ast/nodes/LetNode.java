@@ -4,20 +4,107 @@ import lexer.Token;
 import lexer.TokenType;
 import environment.Environment;
 
-public class LetNode extends SyntaxNode {
+public final class LetNode extends SyntaxNode {
     private SyntaxNode leftNode;
     private SyntaxNode rightNode;
     private Token variable;
+    private int slot;            // The slot of the variable, or -1.
+    private int size;            // The nodes in the tree of this node.
 
     public LetNode(Token variable, SyntaxNode left, SyntaxNode right) {
+        this(variable, -1, left, right);
+    }
+
+    /**
+     * Constructs a let node whose variable has been resolved to a slot.
+     * @param variable the variable the let expression binds.
+     * @param slot the slot of the environment frame that holds the
+     * variable, or -1 to bind the variable by name instead.
+     * @param left the bound expression.
+     * @param right the body.
+     */
+    public LetNode(Token variable, int slot, SyntaxNode left, SyntaxNode right) {
         this.variable = variable;
+        this.slot = slot;
         leftNode = left;
         rightNode = right;
         this.opType = TokenType.LET;
+        size = sizeOf(left, right);
+    }
+
+    /**
+     * Gets the variable the let expression binds.
+     * @return the identifier token of the variable.
+     */
+    public Token getVariable() {
+        return variable;
+    }
+
+    /**
+     * Gets the slot the variable is stored in.
+     * @return the slot of the variable, or -1 if it is bound by name.
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the expression whose value is bound to the variable.
+     * @return the node of the bound expression.
+     */
+    public SyntaxNode getLeft() {
+        return leftNode;
+    }
+
+    /**
+     * Replaces the bound expression, as an incremental parse does when only it
+     * has changed. The size of this node is worked out again, but not
+     * those of the nodes above it.
+     * @param left the node of the new bound expression.
+     */
+    public void setLeft(SyntaxNode left) {
+        leftNode = left;
+        size = sizeOf(left, rightNode);
+    }
+
+    /**
+     * Gets the body evaluated with the variable bound.
+     * @return the node of the body.
+     */
+    public SyntaxNode getRight() {
+        return rightNode;
+    }
+
+    /**
+     * Replaces the body, as an incremental parse does when only it
+     * has changed. The size of this node is worked out again, but not
+     * those of the nodes above it.
+     * @param right the node of the new body.
+     */
+    public void setRight(SyntaxNode right) {
+        rightNode = right;
+        size = sizeOf(leftNode, right);
+    }
+
+    /**
+     * Evaluates the body with the variable bound to the value of the bound
+     * expression. A resolved variable is simply stored in its slot; a slot
+     * is only reused once every use of its previous variable is done. A
+     * variable bound by name only keeps its binding for the body and has
+     * its old value again afterwards. Nested lets and operations are
+     * evaluated with a stack of their own rather than the call stack.
+     */
+    public void evaluate(Environment env, Result res) {
+        Evaluation.run(this, env, res);
     }
 
-    public String evaluate(Environment env) {
-        return "LetNode(" + variable.toString() + ", " + leftNode.evaluate(env) + ", "
-        + rightNode.evaluate(env) + ")";
+    @Override
+    public <R> R accept(NodeVisitor<R> visitor) {
+        return visitor.visitLet(this);
     }
 }
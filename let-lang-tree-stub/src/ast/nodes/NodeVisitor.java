@@ -0,0 +1,42 @@
+package ast.nodes;
+
+/**
+ * A pass over syntax nodes with a method for each kind of node, reached by
+ * {@link SyntaxNode#accept(NodeVisitor)}. Each call site of {@code accept}
+ * picks the method by the class of the node, so a pass gets the node with
+ * its type known without testing for it. A visitor decides itself whether
+ * and in what order to visit the children of a node; for a walk that does
+ * not recurse, see {@link TreeWalker}.
+ * @param <R> the type of value the visitor gives for a node.
+ */
+public interface NodeVisitor<R> {
+    /**
+     * Visits an operation.
+     * @param node the operation.
+     * @return the value for the node.
+     */
+    R visitBinOp(BinOpNode node);
+
+    /**
+     * Visits a let.
+     * @param node the let.
+     * @return the value for the node.
+     */
+    R visitLet(LetNode node);
+
+    /**
+     * Visits a literal, an identifier or the empty node left by a syntax
+     * error.
+     * @param node the leaf.
+     * @return the value for the node.
+     */
+    R visitToken(TokenNode node);
+
+    /**
+     * Visits a node of a flat tree, which may be an operation, a let or a
+     * leaf.
+     * @param node the view of the node.
+     * @return the value for the node.
+     */
+    R visitFlat(FlatNode node);
+}
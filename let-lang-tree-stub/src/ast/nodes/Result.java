@@ -0,0 +1,129 @@
+package ast.nodes;
+
+import ast.EvaluationException;
+import lexer.TokenType;
+
+/**
+ * Holds the result of evaluating a node. A result is either an integer,
+ * kept as a {@code long}, or a real number, kept as a {@code double}, so
+ * arithmetic on results never boxes its operands. One result object is
+ * reused for a whole evaluation.
+ */
+public final class Result
+{
+    private boolean real;        // True if the result is a real number.
+    private long longValue;      // The value of an integer result.
+    private double doubleValue;  // The value of a real result.
+
+    /**
+     * Sets the result to an integer.
+     * @param val the integer value.
+     */
+    public void setLong(long val) {
+        real = false;
+        longValue = val;
+    }
+
+    /**
+     * Sets the result to a real number.
+     * @param val the real value.
+     */
+    public void setDouble(double val) {
+        real = true;
+        doubleValue = val;
+    }
+
+    /**
+     * Sets the result from a boxed number. Doubles and floats become real
+     * numbers and every other number becomes an integer.
+     * @param val the value.
+     */
+    public void set(Number val) {
+        if (val instanceof Double || val instanceof Float)
+            setDouble(val.doubleValue());
+        else
+            setLong(val.longValue());
+    }
+
+    /**
+     * Determines if the result is a real number.
+     * @return true if the result is real; false if it is an integer.
+     */
+    public boolean isReal() {
+        return real;
+    }
+
+    /**
+     * Gets the value of an integer result.
+     * @return the integer value.
+     */
+    public long getLong() {
+        return longValue;
+    }
+
+    /**
+     * Gets the result as a real number, converting an integer result.
+     * @return the value as a double.
+     */
+    public double getDouble() {
+        return real ? doubleValue : longValue;
+    }
+
+    /**
+     * Combines a left operand with this result as the right operand and
+     * stores the outcome here. Two integers give an integer; anything
+     * involving a real number gives a real number.
+     * @param op the operation to apply.
+     * @param leftReal true if the left operand is real.
+     * @param leftLong the left operand if it is an integer.
+     * @param leftDouble the left operand if it is real.
+     * @throws EvaluationException if an integer is divided by zero.
+     */
+    public void apply(TokenType op, boolean leftReal, long leftLong, double leftDouble) {
+        if (!leftReal && !real) {
+            long right = longValue;
+            switch (op) {
+                case ADD:  setLong(leftLong + right); return;
+                case SUB:  setLong(leftLong - right); return;
+                case MULT: setLong(leftLong * right); return;
+                case DIV:
+                    if (right == 0)
+                        throw new EvaluationException("Division by zero");
+                    setLong(leftLong / right);
+                    return;
+                default:
+                    throw new EvaluationException("Unknown operation " + op);
+            }
+        }
+
+        double left = leftReal ? leftDouble : leftLong;
+        double right = getDouble();
+        switch (op) {
+            case ADD:  setDouble(left + right); return;
+            case SUB:  setDouble(left - right); return;
+            case MULT: setDouble(left * right); return;
+            case DIV:  setDouble(left / right); return;
+            default:
+                throw new EvaluationException("Unknown operation " + op);
+        }
+    }
+
+    /**
+     * Boxes the result.
+     * @return a {@code Long} or a {@code Double} holding the result.
+     */
+    public Number toNumber() {
+        if (real)
+            return doubleValue;
+        return longValue;
+    }
+
+    /**
+     * Provides a string representing the result.
+     * @return the result as a string.
+     */
+    @Override
+    public String toString() {
+        return real ? Double.toString(doubleValue) : Long.toString(longValue);
+    }
+}
@@ -9,8 +9,12 @@ import lexer.TokenType;
  * is responsible for implementing the evaluate method for that
  * node subtype.
  *
+ * The kinds of node are fixed, so a pass over trees may either take a
+ * {@link NodeVisitor}, test for each kind with {@code instanceof}, or plug
+ * into a {@link TreeWalker}, which walks trees of any depth and hides the
+ * difference between node objects and {@link FlatNode} views.
  */
-public abstract class SyntaxNode
+public abstract sealed class SyntaxNode permits BinOpNode, FlatNode, LetNode, TokenNode
 {
   protected TokenType opType;
   public TokenType getOpType() {
@@ -21,11 +25,58 @@ public abstract class SyntaxNode
     this.opType = newType;
   }
 
+  /**
+   * Gets the number of nodes in the tree rooted at this node, as an
+   * estimate of the cost of evaluating it. It is worked out when the node
+   * is made, so it costs nothing to ask. A node reached along more than
+   * one path is counted once for each, since it is evaluated once for each.
+   * The nodes above a child replaced in place keep the size they had.
+   * @return the number of nodes, at least 1.
+   */
+  public int getSize() {
+    return 1;
+  }
+
+  /**
+   * Works out the size of a node with two children.
+   * @param left the left child.
+   * @param right the right child.
+   * @return the size of the node, or {@code Integer.MAX_VALUE} if it is
+   * larger.
+   */
+  protected static int sizeOf(SyntaxNode left, SyntaxNode right) {
+    long size = 1L + left.getSize() + right.getSize();
+    return (int) Math.min(size, Integer.MAX_VALUE);
+  }
+
   /**
    * Evaluate the node.
    * @param env the executional environment we should evaluate the
    * node under.
-   * @return the object representing the result of the evaluation.
+   * @return the object representing the result of the evaluation, a
+   * {@code Long} for integers or a {@code Double} for real numbers.
+   * @throws ast.EvaluationException if the node can not be evaluated.
+   */
+  public Object evaluate(Environment env)
+  {
+    Result res = new Result();
+    evaluate(env, res);
+    return res.toNumber();
+  }
+
+  /**
+   * Evaluate the node without boxing its result.
+   * @param env the executional environment we should evaluate the
+   * node under.
+   * @param res where to store the result of the evaluation.
+   * @throws ast.EvaluationException if the node can not be evaluated.
+   */
+  public abstract void evaluate(Environment env, Result res);
+
+  /**
+   * Calls the method of {@code visitor} for the kind of this node.
+   * @param visitor the visitor.
+   * @return the value the visitor returns.
    */
-  public abstract Object evaluate(Environment env);
+  public abstract <R> R accept(NodeVisitor<R> visitor);
 }
@@ -1,23 +1,102 @@
 package ast.nodes;
 
+import ast.EvaluationException;
 import environment.Environment;
 import lexer.Token;
 import lexer.TokenType;
 
 
-public class TokenNode extends SyntaxNode {
+public final class TokenNode extends SyntaxNode {
     private Token tok;
+    private long longValue;      // The value of an INT literal.
+    private double doubleValue;  // The value of a REAL literal.
+    private boolean valid;       // False if the literal is out of range.
+    private int slot;            // The slot of a bound identifier, or -1.
 
     public TokenNode() {
         this.tok = new Token();
         this.opType = TokenType.UNKNOWN;
+        this.slot = -1;
     }
 
     public TokenNode(Token tok) {
+        this(tok, -1);
+    }
+
+    /**
+     * Constructs a node for an identifier that has been resolved to a slot.
+     * @param tok the token of the node.
+     * @param slot the slot of the environment frame that holds the
+     * identifier, or -1 to look the identifier up by name.
+     */
+    public TokenNode(Token tok, int slot) {
         this.tok = tok;
+        this.slot = slot;
+        this.opType = tok.getType();
+        valid = true;
+        if (opType == TokenType.INT) {
+            try {
+                longValue = Long.parseLong(tok.getValue());
+            } catch (NumberFormatException ex) {
+                valid = false;
+            }
+        } else if (opType == TokenType.REAL) {
+            doubleValue = Double.parseDouble(tok.getValue());
+        }
+    }
+
+    /**
+     * Gets the token held by the node.
+     * @return the token of the node.
+     */
+    public Token getToken() {
+        return tok;
+    }
+
+    /**
+     * Gets the slot a bound identifier is read from.
+     * @return the slot of the identifier, or -1 if it is looked up by name.
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Evaluates a literal to its value and an identifier to the value
+     * the environment holds for it.
+     */
+    public void evaluate(Environment env, Result res) {
+        switch (opType) {
+            case INT:
+                if (!valid)
+                    throw new EvaluationException("Integer out of range: " + tok.getValue());
+                res.setLong(longValue);
+                return;
+            case REAL:
+                res.setDouble(doubleValue);
+                return;
+            case ID:
+                if (slot >= 0) {
+                    if (env.isReal(slot))
+                        res.setDouble(env.getDouble(slot));
+                    else
+                        res.setLong(env.getLong(slot));
+                    return;
+                }
+                Object val = env.lookup(tok);
+                if (val == null)
+                    throw new EvaluationException("Unbound variable " + tok.getValue());
+                if (!(val instanceof Number))
+                    throw new EvaluationException("Variable " + tok.getValue() + " is not a number");
+                res.set((Number) val);
+                return;
+            default:
+                throw new EvaluationException("Can not evaluate " + tok);
+        }
     }
 
-    public String evaluate(Environment env) {
-        return "TokenNode(" + tok.toString() + ")";
+    @Override
+    public <R> R accept(NodeVisitor<R> visitor) {
+        return visitor.visitToken(this);
     }
 }
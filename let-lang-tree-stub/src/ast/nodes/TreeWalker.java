@@ -0,0 +1,206 @@
+package ast.nodes;
+
+import java.util.Arrays;
+import lexer.Token;
+
+/**
+ * Walks syntax trees for passes that plug into it, with a stack of its
+ * own rather than the call stack, so trees of any depth can be walked.
+ * The walker tells node objects and {@link FlatNode} views apart and hands
+ * the pass the operator, variable, token and slot of each node, so a pass
+ * is written once for both. Children are walked left before right and a
+ * pass gives a value for each node from the values of its children, as a
+ * recursive pass would return them.
+ *
+ * A walk tests the kind of each node once, against the few final classes
+ * of node, and keeps it in the frame of the node, so coming back up to
+ * the node is a switch rather than more tests. The only calls whose
+ * target depends on a class are those into the pass.
+ */
+public final class TreeWalker {
+    private static final byte OPERATION = 0;       // A frame of a BinOpNode.
+    private static final byte LET = 1;             // A frame of a LetNode.
+    private static final byte FLAT_OPERATION = 2;  // A frame of a flat operation.
+    private static final byte FLAT_LET = 3;        // A frame of a flat let.
+    private static final byte RIGHT = 4;           // Set once the right child is walked.
+
+    private TreeWalker() {
+    }
+
+    /**
+     * A pass over a tree. The methods are called in the order of a
+     * recursive walk: a node is entered, its left child walked, the pass
+     * told the value of the left child, its right child walked and a value
+     * made for the node from both.
+     * @param <R> the type of value the pass gives for a node.
+     */
+    public interface Pass<R> {
+        /**
+         * Makes the value of a literal, an identifier or the empty node
+         * left by a syntax error.
+         * @param node the leaf, a {@link TokenNode} or a {@link FlatNode},
+         * for a pass that evaluates it.
+         * @param tok the token of the leaf.
+         * @param slot the slot of a bound identifier, or -1.
+         * @return the value of the leaf.
+         */
+        R leaf(SyntaxNode node, Token tok, int slot);
+
+        /**
+         * Called on reaching an operation, before its operands.
+         * @param op the operator token.
+         */
+        default void enterOperation(Token op) {
+        }
+
+        /**
+         * Called between the operands of an operation.
+         * @param op the operator token.
+         * @param left the value of the left operand.
+         */
+        default void betweenOperands(Token op, R left) {
+        }
+
+        /**
+         * Makes the value of an operation.
+         * @param op the operator token.
+         * @param left the value of the left operand.
+         * @param right the value of the right operand.
+         * @return the value of the operation.
+         */
+        R operation(Token op, R left, R right);
+
+        /**
+         * Called on reaching a let, before its bound expression.
+         * @param variable the variable of the let.
+         * @param slot the slot of the variable, or -1 if it is bound by name.
+         */
+        default void enterLet(Token variable, int slot) {
+        }
+
+        /**
+         * Called between the bound expression of a let and its body, where
+         * the variable comes into scope.
+         * @param variable the variable of the let.
+         * @param slot the slot of the variable, or -1 if it is bound by name.
+         * @param bound the value of the bound expression.
+         */
+        default void bind(Token variable, int slot, R bound) {
+        }
+
+        /**
+         * Makes the value of a let, where its variable goes out of scope.
+         * @param variable the variable of the let.
+         * @param slot the slot of the variable, or -1 if it is bound by name.
+         * @param bound the value of the bound expression.
+         * @param body the value of the body.
+         * @return the value of the let.
+         */
+        R let(Token variable, int slot, R bound, R body);
+    }
+
+    /**
+     * Walks the tree rooted at a node. A failure of the pass ends the walk.
+     * @param root the root of the tree.
+     * @param pass the pass.
+     * @return the value the pass gives for the root.
+     */
+    @SuppressWarnings("unchecked")
+    public static <R> R walk(SyntaxNode root, Pass<R> pass) {
+        SyntaxNode[] nodes = new SyntaxNode[32];  // The node of each frame.
+        byte[] kinds = new byte[32];      // The kind of node of each frame, and if it is past its left child.
+        Object[] lefts = new Object[32];  // The value of each left child walked.
+        int top = -1;                     // The innermost frame.
+
+        SyntaxNode node = root;
+        while (true) {
+            // Go down the left children to a leaf, entering each node.
+            R value;
+            while (true) {
+                byte kind;
+                SyntaxNode left;
+                if (node instanceof BinOpNode binOp) {
+                    pass.enterOperation(binOp.getOperation());
+                    kind = OPERATION;
+                    left = binOp.getLeft();
+                } else if (node instanceof LetNode let) {
+                    pass.enterLet(let.getVariable(), let.getSlot());
+                    kind = LET;
+                    left = let.getLeft();
+                } else if (node instanceof TokenNode leaf) {
+                    value = pass.leaf(node, leaf.getToken(), leaf.getSlot());
+                    break;
+                } else {
+                    FlatNode flat = (FlatNode) node;
+                    if (flat.isBinOp()) {
+                        pass.enterOperation(flat.getOperation());
+                        kind = FLAT_OPERATION;
+                    } else if (flat.isLet()) {
+                        pass.enterLet(flat.getVariable(), flat.getSlot());
+                        kind = FLAT_LET;
+                    } else {
+                        value = pass.leaf(node, flat.getToken(), flat.getSlot());
+                        break;
+                    }
+                    left = flat.getLeft();
+                }
+
+                if (++top == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, top * 2);
+                    kinds = Arrays.copyOf(kinds, top * 2);
+                    lefts = Arrays.copyOf(lefts, top * 2);
+                }
+                nodes[top] = node;
+                kinds[top] = kind;
+                node = left;
+            }
+
+            // Come back up, giving the value to each frame until one has
+            // a right child still to walk.
+            node = null;
+            while (node == null) {
+                if (top < 0)
+                    return value;
+                SyntaxNode parent = nodes[top];
+                switch (kinds[top]) {
+                    case OPERATION:
+                        pass.betweenOperands(((BinOpNode) parent).getOperation(), value);
+                        node = ((BinOpNode) parent).getRight();
+                        break;
+                    case LET:
+                        pass.bind(((LetNode) parent).getVariable(), ((LetNode) parent).getSlot(),
+                                value);
+                        node = ((LetNode) parent).getRight();
+                        break;
+                    case FLAT_OPERATION:
+                        pass.betweenOperands(((FlatNode) parent).getOperation(), value);
+                        node = ((FlatNode) parent).getRight();
+                        break;
+                    case FLAT_LET:
+                        pass.bind(((FlatNode) parent).getVariable(), ((FlatNode) parent).getSlot(),
+                                value);
+                        node = ((FlatNode) parent).getRight();
+                        break;
+                    case OPERATION | RIGHT:
+                        value = pass.operation(((BinOpNode) parent).getOperation(),
+                                (R) lefts[top--], value);
+                        continue;
+                    case LET | RIGHT:
+                        value = pass.let(((LetNode) parent).getVariable(),
+                                ((LetNode) parent).getSlot(), (R) lefts[top--], value);
+                        continue;
+                    case FLAT_OPERATION | RIGHT:
+                        value = pass.operation(((FlatNode) parent).getOperation(),
+                                (R) lefts[top--], value);
+                        continue;
+                    default:
+                        value = pass.let(((FlatNode) parent).getVariable(),
+                                ((FlatNode) parent).getSlot(), (R) lefts[top--], value);
+                        continue;
+                }
+                kinds[top] |= RIGHT;
+                lefts[top] = value;
+            }
+        }
+    }
+}
@@ -1,22 +1,166 @@
 package environment;
 
+import lexer.SymbolTable;
 import lexer.Token;
 import lexer.TokenType;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
  * A simple representation of an executional environment.
+ *
+ * Environments form a chain of frames. Each frame holds named values,
+ * which are found by looking through the frame and then its parents, and
+ * an array of numbered slots. The slots hold the values of let variables,
+ * unboxed, at positions the parser works out ahead of time, so binding a
+ * variable or reading it back costs one array access. Entering a scope of
+ * its own only takes a new frame from {@link #extend(int)}.
+ *
+ * An environment may be tied to the symbol table of a parse, in which case
+ * the named values of identifiers from that parse are kept in an array
+ * indexed by their symbol id. Any other names are kept in a map.
+ *
+ * Each frame counts the changes made to its named values, so a caller
+ * can tell from {@link #getVersion()} whether any name it can see has
+ * been given a new value since it last looked.
  */
 public class Environment
 {
+  private static final Object[] NO_VALUES = new Object[0];
+
   private HashMap<String, Object> env;
+  private SymbolTable symbols;   // The symbol table values are indexed by.
+  private Object[] values;       // The value of each symbol, by symbol id.
+  private Environment parent;    // The enclosing frame, or null.
+  private long[] longSlots;      // The value of each integer slot.
+  private double[] doubleSlots;  // The value of each real slot.
+  private boolean[] realSlots;   // True if a slot holds a real number.
+  private long version;          // The changes made to the named values.
 
   /**
    * Sets up the initial environment.
    */
   public Environment()
+  {
+    this((SymbolTable) null);
+  }
+
+  /**
+   * Sets up an environment that indexes values by the symbol ids of
+   * {@code symbols}. Room for the values is only made once one is set, so
+   * an environment costs the same however many symbols the parse has.
+   * @param symbols the symbol table of the parse being evaluated, or null.
+   */
+  public Environment(SymbolTable symbols)
+  {
+    this(null, symbols, 0);
+  }
+
+  /**
+   * Sets up a frame.
+   * @param parent the enclosing frame, or null.
+   * @param symbols the symbol table of the parse being evaluated, or null.
+   * @param slots the number of slots to make room for.
+   */
+  private Environment(Environment parent, SymbolTable symbols, int slots)
   {
     env = new HashMap<>();
+    this.parent = parent;
+    this.symbols = symbols;
+    values = NO_VALUES;
+    longSlots = new long[slots];
+    doubleSlots = new double[slots];
+    realSlots = new boolean[slots];
+  }
+
+  /**
+   * Opens a new frame inside this one. Names not found in the new frame
+   * are looked up here.
+   * @param slots the number of slots the new frame should start with.
+   * @return the new frame.
+   */
+  public Environment extend(int slots)
+  {
+    return new Environment(this, symbols, slots);
+  }
+
+  /**
+   * Gets the frame this one was opened in.
+   * @return the enclosing frame, or null if this is the outermost frame.
+   */
+  public Environment getParent()
+  {
+    return parent;
+  }
+
+  /**
+   * Gets an enclosing frame.
+   * @param depth the number of frames to go out; 0 is this frame.
+   * @return the frame {@code depth} levels out from this one.
+   */
+  public Environment frame(int depth)
+  {
+    Environment frame = this;
+    while (depth-- > 0)
+      frame = frame.parent;
+    return frame;
+  }
+
+  /**
+   * Determines if a slot of this frame holds a real number.
+   * @param slot the slot.
+   * @return true if the slot holds a real number; false if it holds an
+   * integer.
+   */
+  public boolean isReal(int slot)
+  {
+    return realSlots[slot];
+  }
+
+  /**
+   * Gets the integer held in a slot of this frame.
+   * @param slot the slot.
+   * @return the value of the slot.
+   */
+  public long getLong(int slot)
+  {
+    return longSlots[slot];
+  }
+
+  /**
+   * Gets the value of a slot of this frame as a real number.
+   * @param slot the slot.
+   * @return the value of the slot, converted if it holds an integer.
+   */
+  public double getDouble(int slot)
+  {
+    return realSlots[slot] ? doubleSlots[slot] : longSlots[slot];
+  }
+
+  /**
+   * Stores an integer in a slot of this frame.
+   * @param slot the slot.
+   * @param val the value to store.
+   */
+  public void setLong(int slot, long val)
+  {
+    if (slot >= longSlots.length)
+      growSlots(slot);
+    longSlots[slot] = val;
+    realSlots[slot] = false;
+  }
+
+  /**
+   * Stores a real number in a slot of this frame.
+   * @param slot the slot.
+   * @param val the value to store.
+   */
+  public void setDouble(int slot, double val)
+  {
+    if (slot >= doubleSlots.length)
+      growSlots(slot);
+    doubleSlots[slot] = val;
+    realSlots[slot] = true;
   }
 
   /**
@@ -27,39 +171,161 @@ public class Environment
    */
   public Object lookup(Token tok)
   {
-    return env.get(tok.getValue());
+    Object val;
+    int symbol = symbolOf(tok);
+    if (symbol >= 0)
+      val = lookup(symbol);
+    else
+      val = env.get(tok.getValue());
+
+    if (val == null && parent != null)
+      return parent.lookup(tok);
+    return val;
+  }
+
+  /**
+   * Returns the environment value associated with a symbol in this frame.
+   * @param symbol the id of the symbol in the symbol table of this
+   * environment.
+   * @return the value of {@code symbol}, or null if it has none.
+   */
+  public Object lookup(int symbol)
+  {
+    return symbol < values.length ? values[symbol] : null;
   }
 
   /**
    * Update the environment such that token {@code tok} has
-   * the given value {@code val}.
+   * the given value {@code val}. The value is set in this frame and hides
+   * any value the token has in enclosing frames.
    * @param tok the token to update.
    * @param val the value to associate with the token.
    */
   public void updateEnvironment(Token tok, Object val)
   {
-    if (env.replace(tok.getValue(), val) == null)
-      env.put(tok.getValue(), val);
+    int symbol = symbolOf(tok);
+    if (symbol >= 0)
+      updateEnvironment(symbol, val);
+    else
+    {
+      if (env.replace(tok.getValue(), val) == null)
+        env.put(tok.getValue(), val);
+      version++;
+    }
   }
 
   /**
-   * Makes a copy of the current environment.
+   * Update the environment such that symbol {@code symbol} has
+   * the given value {@code val}.
+   * @param symbol the id of the symbol in the symbol table of this
+   * environment.
+   * @param val the value to associate with the symbol.
+   */
+  public void updateEnvironment(int symbol, Object val)
+  {
+    if (symbol >= values.length)
+    {
+      // Without a symbol table there is no count of symbols to grow to.
+      int length = symbols == null ? values.length * 2 : symbols.size();
+      Object[] bigger = new Object[Math.max(length, symbol + 1)];
+      System.arraycopy(values, 0, bigger, 0, values.length);
+      values = bigger;
+    }
+    values[symbol] = val;
+    version++;
+  }
+
+  /**
+   * Gets the version of the named values seen from this frame. The
+   * version grows each time {@link #updateEnvironment(Token, Object)} is
+   * called on this frame or a frame it was opened in, so if it is the same
+   * as before, no name has been given a new value since.
+   * @return the version of the named values.
+   */
+  public long getVersion()
+  {
+    long sum = 0;
+    for (Environment frame = this; frame != null; frame = frame.parent)
+      sum += frame.version;
+    return sum;
+  }
+
+  /**
+   * Makes a copy of the current frame. The copy shares the enclosing
+   * frames of this one.
    * @return a copy of the environment.
    */
   public Environment copy()
   {
-    Environment newEnv = new Environment();
+    Environment newEnv = new Environment(parent, symbols, 0);
     newEnv.env.putAll(env);
+    newEnv.values = values.clone();
+    newEnv.longSlots = longSlots.clone();
+    newEnv.doubleSlots = doubleSlots.clone();
+    newEnv.realSlots = realSlots.clone();
+    newEnv.version = version;
     return newEnv;
   }
 
   /**
-   * Provides a string representing the environment.
+   * Provides a string representing the named values of the environment.
    * @return a string representation of the environment.
    */
   @Override
   public String toString()
   {
-    return env.toString();
+    return names().toString();
+  }
+
+  /************
+   * Private Methods
+   ***********/
+
+  /**
+   * Collects the named values visible from this frame. Symbols stored
+   * without a symbol table to name them are shown by their id, as #id.
+   * @return the value of each name.
+   */
+  private HashMap<String, Object> names()
+  {
+    HashMap<String, Object> all =
+      parent == null ? new HashMap<>() : parent.names();
+    all.putAll(env);
+    for (int symbol = 0; symbol < values.length; symbol++)
+      if (values[symbol] != null)
+        all.put(symbols == null ? "#" + symbol : symbols.nameOf(symbol),
+            values[symbol]);
+    return all;
+  }
+
+  /**
+   * Makes room for slot {@code slot}.
+   * @param slot the slot about to be stored.
+   */
+  private void growSlots(int slot)
+  {
+    int size = Math.max(slot + 1, longSlots.length * 2);
+    longSlots = Arrays.copyOf(longSlots, size);
+    doubleSlots = Arrays.copyOf(doubleSlots, size);
+    realSlots = Arrays.copyOf(realSlots, size);
+  }
+
+  /**
+   * Finds the symbol id of an identifier token in the symbol table of this
+   * environment. Tokens from the same parse already carry their id, so
+   * only other tokens need a search.
+   * @param tok the token to find.
+   * @return the symbol id of {@code tok}, or -1 if it has none.
+   */
+  private int symbolOf(Token tok)
+  {
+    if (symbols == null || tok.getType() != TokenType.ID)
+      return -1;
+
+    int symbol = tok.getSymbol();
+    if (symbol >= 0 && symbol < symbols.size()
+        && symbols.tokenOf(symbol) == tok)
+      return symbol;
+    return symbols.find(tok.getValue());
   }
 }
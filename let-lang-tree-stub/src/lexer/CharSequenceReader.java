@@ -0,0 +1,63 @@
+package lexer;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A reader over part of a character sequence, which is read in place
+ * rather than copied first.
+ */
+class CharSequenceReader extends Reader
+{
+  private CharSequence text;  // The text being read, or null once closed.
+  private int pos;            // The index of the next character to read.
+
+  /**
+   * Constructs a reader over {@code text} from index {@code start} on.
+   * @param text the text to read.
+   * @param start the index of the first character to read.
+   */
+  CharSequenceReader(CharSequence text, int start)
+  {
+    this.text = text;
+    pos = start;
+  }
+
+  /**
+   * Reads characters into a portion of an array.
+   * @param cbuf the destination buffer.
+   * @param off the offset at which to start storing characters.
+   * @param len the maximum number of characters to read.
+   * @return the number of characters read, or -1 at the end of the input.
+   * @throws IOException if the reader has been closed.
+   */
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException
+  {
+    if (text == null)
+      throw new IOException("Stream closed");
+    if (len == 0)
+      return 0;
+    int n = Math.min(len, text.length() - pos);
+    if (n <= 0)
+      return -1;
+    if (text instanceof StringBuilder)
+      ((StringBuilder) text).getChars(pos, pos + n, cbuf, off);
+    else if (text instanceof String)
+      ((String) text).getChars(pos, pos + n, cbuf, off);
+    else
+      for (int i = 0; i < n; i++)
+        cbuf[off + i] = text.charAt(pos + i);
+    pos += n;
+    return n;
+  }
+
+  /**
+   * Closes the reader.
+   */
+  @Override
+  public void close()
+  {
+    text = null;
+  }
+}
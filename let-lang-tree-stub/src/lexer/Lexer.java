@@ -1,27 +1,53 @@
 package lexer;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
+import java.io.Reader;
 import java.io.FileReader;
 import java.io.File;
-import java.util.HashMap;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
 /**
 * This file implements a basic lexical analyzer.
+*
+* The lexer scans a window of characters with an index cursor rather than
+* reading one character at a time. Token text is only copied out of the
+* window when a token carrying a value is produced.
 */
 public class Lexer
 {
-	private BufferedReader input;      // The input to the lexer.
-	private char nextChar;             // The next character read.
-	private boolean skipRead;          // Whether or not to skip the next char
-																		   // read.
+	private static final int WINDOW_SIZE = 8192; // Initial size of the window.
+	private static final int MAX_KEPT = 1 << 20; // Largest window kept by reset.
+
+	private Reader input;              // The remaining input, or null if all of
+	                                   // the input is in the window.
+	private char[] buf;                // The window of characters being scanned.
+	private int pos;                   // The next character to scan in buf.
+	private int limit;                 // The number of valid characters in buf.
+	private int tokenStart;            // Start of the token being scanned, or -1.
+	private long bufferOffset;         // The input offset of buf[0].
 	private long currentLineNumber;    // The current line number being processed.
+	private long lineCountedTo;        // Input offset past the last counted newline.
+	private SymbolTable symbols;       // The identifiers seen so far.
+	private long tokenOffset;          // The input offset of the last token.
+	private int tokenLength;           // The length of the last token.
+	private long tokenLine;            // The line the last token starts on.
+	private int tokenColumn;           // The column the last token starts at.
+	private boolean separators;        // True if ';' and newlines are tokens.
 
 	private enum CharacterClass {LETTER, DIGIT, WHITE_SPACE, OTHER, END};
-	CharacterClass nextClass; // The character class of the nextChar.
+
+	// The character class of every ASCII character.
+	private static final CharacterClass[] ASCII_CLASSES = new CharacterClass[128];
+
+	static
+	{
+		for (char c = 0; c < ASCII_CLASSES.length; c++)
+			ASCII_CLASSES[c] = classify(c);
+	}
 
 	/**
 	   * Constructs a new lexical analyzer whose source
@@ -31,8 +57,74 @@ public class Lexer
 	   */
 	public Lexer(File file) throws FileNotFoundException
 	{
-		input = new BufferedReader(new FileReader(file));
+		this(new FileReader(file));
+	}
+
+	/**
+	   * Constructs a new lexical analyzer that reads from {@code input}
+	   * a window at a time.
+	   * @param input the reader to lexically analyze.
+	   */
+	public Lexer(Reader input)
+	{
+		this.input = input;
+		buf = new char[WINDOW_SIZE];
+		tokenStart = -1;
 		currentLineNumber = 1;
+		symbols = new SymbolTable();
+	}
+
+	/**
+	   * Constructs a lexical analyzer that picks up part way through
+	   * {@code text}, as if it had lexed everything before {@code start}.
+	   * Only as much of the text as is asked for is read, a small window at
+	   * a time.
+	   * @param text the whole input.
+	   * @param start the offset to start lexing at, which must be the start
+	   * of a token.
+	   * @param line the line {@code start} is on.
+	   * @param lineStart the offset of the start of that line.
+	   * @param symbols the symbol table to add identifiers to.
+	   */
+	Lexer(CharSequence text, int start, long line, long lineStart,
+			SymbolTable symbols)
+	{
+		input = new CharSequenceReader(text, start);
+		buf = new char[256];
+		tokenStart = -1;
+		bufferOffset = start;
+		currentLineNumber = line;
+		lineCountedTo = lineStart;
+		this.symbols = symbols;
+	}
+
+	/**
+	   * Constructs a new lexical analyzer that scans a memory-mapped copy of
+	   * {@code file}. ASCII input is copied straight from the mapping into
+	   * the window; from the first non-ASCII byte on the rest of the file is
+	   * decoded as UTF-8. Files too large to map in one piece are read
+	   * through a reader as usual.
+	   * @param file the file to map for lexical analysis.
+	   * @return a lexer over the contents of {@code file}.
+	   * @throws FileNotFoundException if the file can not be opened.
+	   * @throws IOException if the file can not be mapped.
+	   */
+	public static Lexer mapFile(File file) throws IOException
+	{
+		if (!file.isFile())
+			throw new FileNotFoundException(file.toString());
+
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				return new Lexer(file);
+
+			MappedByteBuffer bytes =
+				channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			return new Lexer(new MappedFileReader(bytes));
+		}
 	}
 
 	/**
@@ -41,8 +133,11 @@ public class Lexer
 	   */
 	   public Lexer(String input)
 	   {
-		   this.input = new BufferedReader(new StringReader(input));
+		   buf = input.toCharArray();
+		   limit = buf.length;
+		   tokenStart = -1;
 		   currentLineNumber = 1;
+		   symbols = new SymbolTable();
 	   }
 
 	   /**
@@ -51,59 +146,82 @@ public class Lexer
 		*/
 	   public Token nextToken()
 	   {
-		   String value = "";   // The value to be associated with the token.
+		   Token tok;
 
-		   getNonBlank();
-		   switch (nextClass)
+		   CharacterClass cls = skipBlanks();
+		   tokenOffset = bufferOffset + pos;
+		   tokenLine = currentLineNumber;
+		   tokenColumn = (int) Math.min(tokenOffset - lineCountedTo + 1, Integer.MAX_VALUE);
+		   switch (cls)
 		   {
 			   // The state where we are recognizing identifiers.
 			   // Regex: [A-Za-Z][0-9a-zA-z]*
 			   case LETTER:
-				   value += nextChar;
-				   getChar();
-
-				   // Read the rest of the identifier.
-				   while (nextClass == CharacterClass.DIGIT ||
-						   nextClass == CharacterClass.LETTER)
-				   {
-					   value += nextChar;
-					   getChar();
-				   }
-				   unread(); // The symbol just read is part of the next token.
-
-				   if (value.equals("let"))
-					   return new Token(TokenType.LET, "");
-				   if (value.equals("in"))
-					   return new Token(TokenType.IN, "");
-
-				   return new Token(TokenType.ID, value);
+				   tok = identifier();
+				   break;
 
 			   // The state where we are recognizing numbers
 			   case DIGIT:
-				   value  += nextChar;
-				   getChar();
-				   while (nextClass == CharacterClass.DIGIT || (nextChar == '.' && !value.contains("."))) {
-					   value += nextChar;
-					   getChar();
-				   }
-				   unread();
-				   if (value.contains("."))
-					   return new Token(TokenType.REAL, value);
-				   else
-					   return new Token(TokenType.INT, value);
+				   tok = number();
+				   break;
 
 			   // Handles all special character symbols.
 			   case OTHER:
-				   return lookup();
+				   tok = lookup();
+				   break;
 
 			   // We reached the end of our input.
 			   case END:
-				   return new Token(TokenType.EOF, "");
+				   tok = Token.of(TokenType.EOF);
+				   break;
 
 			   // This should never be reached.
 			   default:
-				   return new Token(TokenType.UNKNOWN, "");
+				   tok = new Token(TokenType.UNKNOWN, "");
 		   }
+		   tokenLength = (int) (bufferOffset + pos - tokenOffset);
+		   return tok;
+	   }
+
+	   /**
+		* Get the offset in the input of the first character of the token
+		* last returned by {@link #nextToken()}.
+		* @return the offset of the last token.
+		*/
+	   public long getTokenOffset()
+	   {
+		   return tokenOffset;
+	   }
+
+	   /**
+		* Get the number of characters in the token last returned by
+		* {@link #nextToken()}.
+		* @return the length of the last token.
+		*/
+	   public int getTokenLength()
+	   {
+		   return tokenLength;
+	   }
+
+	   /**
+		* Get the line the token last returned by {@link #nextToken()} starts
+		* on. Unlike {@link #getLineNumber()}, this does not count a line
+		* break read just after the token.
+		* @return the line of the last token, counting from 1.
+		*/
+	   public long getTokenLine()
+	   {
+		   return tokenLine;
+	   }
+
+	   /**
+		* Get the column the token last returned by {@link #nextToken()}
+		* starts at.
+		* @return the column of the last token, counting from 1.
+		*/
+	   public int getTokenColumn()
+	   {
+		   return tokenColumn;
 	   }
 
 	   /**
@@ -115,111 +233,321 @@ public class Lexer
 		   return currentLineNumber;
 	   }
 
+	   /**
+		* Get the symbol table holding the identifiers read by this lexer.
+		* @return the symbol table of this lexer.
+		*/
+	   public SymbolTable getSymbolTable()
+	   {
+		   return symbols;
+	   }
+
+	   /**
+		* Turns the reporting of expression separators on or off. While on,
+		* a semicolon is returned as a {@code SEMI} token and a line break as
+		* a {@code NEWLINE} token instead of being skipped.
+		* @param separators true to report separators.
+		*/
+	   public void setSeparators(boolean separators)
+	   {
+		   this.separators = separators;
+	   }
+
+	   /**
+		* Starts a new symbol table for the identifiers read from here on.
+		* Tokens already handed out keep referring to the old table, which is
+		* no longer held by the lexer, so a long stream of expressions does
+		* not collect the names of all of them.
+		*/
+	   public void newSymbolTable()
+	   {
+		   symbols = new SymbolTable();
+	   }
+
+	   /**
+		* Starts lexing {@code input} from the beginning, reusing the window
+		* of this lexer. Any input still being read is closed, separators are
+		* no longer reported, and a new symbol table is started, so tokens
+		* already handed out are not affected.
+		* @param input the input to lexically analyze.
+		*/
+	   public void reset(CharSequence input)
+	   {
+		   if (this.input != null)
+		   {
+			   try {
+				   this.input.close();
+			   }
+			   catch(IOException ioe)
+			   {
+				   // Nothing more will be read from it.
+			   }
+			   this.input = null;
+		   }
+
+		   int length = input.length();
+		   if (buf.length < length || (buf.length > MAX_KEPT && length <= MAX_KEPT))
+			   buf = new char[Math.max(length, WINDOW_SIZE)];
+		   if (input instanceof String)
+			   ((String) input).getChars(0, length, buf, 0);
+		   else
+			   for (int i = 0; i < length; i++)
+				   buf[i] = input.charAt(i);
+
+		   pos = 0;
+		   limit = length;
+		   tokenStart = -1;
+		   bufferOffset = 0;
+		   currentLineNumber = 1;
+		   lineCountedTo = 0;
+		   tokenOffset = 0;
+		   tokenLength = 0;
+		   tokenLine = 0;
+		   tokenColumn = 0;
+		   separators = false;
+		   symbols = new SymbolTable();
+	   }
+
 	   /************
 		* Private Methods
 		************/
 
 		/**
-		   * Processes the {@code nextChar} and returns the resulting token.
+		   * Scans an identifier or keyword starting at {@code pos}.
+		   * @return the new token.
+		   */
+		private Token identifier()
+		{
+			tokenStart = pos++;
+			while (available())
+			{
+				CharacterClass cls = classOf(buf[pos]);
+				if (cls != CharacterClass.LETTER && cls != CharacterClass.DIGIT)
+					break;
+				pos++;
+			}
+			peekNewline();
+
+			int start = tokenStart;
+			int length = pos - start;
+			tokenStart = -1;
+
+			if (length == 3 && buf[start] == 'l' && buf[start + 1] == 'e'
+					&& buf[start + 2] == 't')
+				return Token.of(TokenType.LET);
+			if (length == 2 && buf[start] == 'i' && buf[start + 1] == 'n')
+				return Token.of(TokenType.IN);
+
+			return symbols.intern(buf, start, length);
+		}
+
+		/**
+		   * Scans an integer or real number starting at {@code pos}.
+		   * @return the new token.
+		   */
+		private Token number()
+		{
+			boolean real = false;
+
+			tokenStart = pos++;
+			while (available())
+			{
+				char c = buf[pos];
+				if (classOf(c) == CharacterClass.DIGIT)
+					pos++;
+				else if (c == '.' && !real)
+				{
+					real = true;
+					pos++;
+				}
+				else
+					break;
+			}
+			peekNewline();
+
+			int start = tokenStart;
+			tokenStart = -1;
+
+			String value = new String(buf, start, pos - start);
+			if (real)
+				return new Token(TokenType.REAL, value);
+			else
+				return new Token(TokenType.INT, value);
+		}
+
+		/**
+		   * Processes the character at {@code pos} and returns the resulting token.
 		   * @return the new token.
 		   */
 		private Token lookup()
 		{
-			String value = "";
+			char c = buf[pos++];
 
-			switch(nextChar)
+			switch(c)
 			{
 				case '+':
-				   return new Token(TokenType.ADD, "");
+				   return Token.of(TokenType.ADD);
 				case '-':
-				   return new Token(TokenType.SUB, "");
-				case '*': // Get ready for next token.
-				   return new Token(TokenType.MULT, "");
-				case '/': // Get ready for next token.
-				   return new Token(TokenType.DIV, "");
+				   return Token.of(TokenType.SUB);
+				case '*':
+				   return Token.of(TokenType.MULT);
+				case '/':
+				   return Token.of(TokenType.DIV);
 				case '(':
-				   return new Token(TokenType.LPAREN, "");
+				   return Token.of(TokenType.LPAREN);
 				case ')':
-				   return new Token(TokenType.RPAREN, "");
+				   return Token.of(TokenType.RPAREN);
+				case ';':
+				   if (separators)
+					   return Token.of(TokenType.SEMI);
+				   return new Token(TokenType.UNKNOWN, ";");
+				case '\n':
+				   countNewline(pos - 1);
+				   return Token.of(TokenType.NEWLINE);
 			   case ':':
-				   getChar();
-				   if (nextChar == '=')
-					   return new Token(TokenType.ASGN, "");
-				   else {
-					   unread();
-					   return new Token(TokenType.UNKNOWN, ":");
+				   if (available() && buf[pos] == '=')
+				   {
+					   pos++;
+					   return Token.of(TokenType.ASGN);
 				   }
+				   peekNewline();
+				   return new Token(TokenType.UNKNOWN, ":");
 				default:
-				   return new Token(TokenType.UNKNOWN, String.valueOf(nextChar));
+				   return new Token(TokenType.UNKNOWN, String.valueOf(c));
 			}
 		}
 
 		/**
-		   * Gets the next character from the buffered reader. This updates
-		   * potentially both {@code nextChar} and {@code nextClass}.
-		   */
-		private void getChar()
+		* Skips to the next non-blank character, counting the lines passed.
+		* @return the class of the character at {@code pos}.
+		*/
+		private CharacterClass skipBlanks()
 		{
-			int c = -1;
-
-			// Handle the unread operation.
-			if (skipRead)
+			while (available())
 			{
-				skipRead = false;
-				return;
+				char c = buf[pos];
+				CharacterClass cls = classOf(c);
+				if (cls != CharacterClass.WHITE_SPACE)
+					return cls;
+				if (c == '\n')
+				{
+					if (separators)
+						return CharacterClass.OTHER;
+					countNewline(pos);
+				}
+				pos++;
 			}
+			return CharacterClass.END;
+		}
 
-			try {
-				c = input.read();
-			}
-			catch(IOException ioe)
+		/**
+		* Counts the character following a token if it starts a new line. The
+		* line number has always included the character looked at after a
+		* token, so error messages keep reporting the same lines.
+		*/
+		private void peekNewline()
+		{
+			if (pos < limit && buf[pos] == '\n')
+				countNewline(pos);
+		}
+
+		/**
+		* Counts the newline at index {@code i} of the window unless it has
+		* already been counted.
+		* @param i the index of the newline in the window.
+		*/
+		private void countNewline(int i)
+		{
+			long offset = bufferOffset + i;
+			if (offset >= lineCountedTo)
 			{
-				System.err.println("Internal error (getChar()): " + ioe);
-				nextChar = '\0';
-				nextClass = CharacterClass.END;
+				currentLineNumber++;
+				lineCountedTo = offset + 1;
 			}
+		}
 
-			if (c == -1) // If there is no character to read, we've reached the end.
+		/**
+		* Determines if there is a character at {@code pos}, refilling the
+		* window if needed.
+		* @return true if there is a character to scan; otherwise, false.
+		*/
+		private boolean available()
+		{
+			return pos < limit || fill();
+		}
+
+		/**
+		* Reads the next block of input into the window. Characters of the
+		* token being scanned are kept at the front of the window.
+		* @return true if more characters were read; otherwise, false.
+		*/
+		private boolean fill()
+		{
+			if (input == null)
+				return false;
+
+			int keep = tokenStart >= 0 ? tokenStart : pos;
+			System.arraycopy(buf, keep, buf, 0, limit - keep);
+			bufferOffset += keep;
+			limit -= keep;
+			pos -= keep;
+			if (tokenStart >= 0)
+				tokenStart = 0;
+			if (limit == buf.length)
 			{
-			   nextChar = '\0';
-			   nextClass = CharacterClass.END;
-			   return;
+				char[] bigger = new char[buf.length * 2];
+				System.arraycopy(buf, 0, bigger, 0, limit);
+				buf = bigger;
 			}
 
-			// Set the character and determine it's class.
-			nextChar = (char)c;
-			if (Character.isLetter(nextChar))
-			   nextClass = CharacterClass.LETTER;
-			else if (Character.isDigit(nextChar))
-			   nextClass = CharacterClass.DIGIT;
-			else if (Character.isWhitespace(nextChar))
-			   nextClass = CharacterClass.WHITE_SPACE;
-			else
-				   nextClass = CharacterClass.OTHER;
+			try {
+				int n;
+				do
+					n = input.read(buf, limit, buf.length - limit);
+				while (n == 0);
 
-			// Update the line counter for error checking.
-			if (nextChar == '\n')
-			   currentLineNumber++;
+				if (n > 0)
+				{
+					limit += n;
+					return true;
+				}
+				input.close();
+			}
+			catch(IOException ioe)
+			{
+				System.err.println("Internal error (fill()): " + ioe);
+			}
+			input = null;
+			return false;
 		}
 
 		/**
-		* Gets the next non-blank character.  This updates
-		* potentially both {@code nextChar} and {@code nextClass}.
+		* Determines the class of a character using the ASCII table when
+		* possible.
+		* @param c the character to classify.
+		* @return the class of {@code c}.
 		*/
-		private void getNonBlank()
+		private static CharacterClass classOf(char c)
 		{
-			getChar();
-
-			while (nextClass != CharacterClass.END &&
-					   Character.isWhitespace(nextChar))
-					   getChar();
+			if (c < ASCII_CLASSES.length)
+				return ASCII_CLASSES[c];
+			return classify(c);
 		}
 
 		/**
-		* Save the previous character for a future read operation.
+		* Determines the class of a character from its Unicode properties.
+		* @param c the character to classify.
+		* @return the class of {@code c}.
 		*/
-		private void unread() {
-			skipRead = true;
+		private static CharacterClass classify(char c)
+		{
+			if (Character.isLetter(c))
+			   return CharacterClass.LETTER;
+			else if (Character.isDigit(c))
+			   return CharacterClass.DIGIT;
+			else if (Character.isWhitespace(c))
+			   return CharacterClass.WHITE_SPACE;
+			else
+			   return CharacterClass.OTHER;
 		}
-
 }
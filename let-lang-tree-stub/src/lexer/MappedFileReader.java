@@ -0,0 +1,94 @@
+package lexer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reader over the bytes of a memory-mapped file. ASCII bytes are widened
+ * straight into the caller's buffer without going through a charset
+ * decoder. Once a non-ASCII byte is seen the rest of the input is decoded
+ * as UTF-8.
+ */
+class MappedFileReader extends Reader
+{
+  private ByteBuffer bytes;          // The unread part of the mapping.
+  private CharsetDecoder decoder;    // The UTF-8 decoder, once it is needed.
+  private boolean flushed;           // True if the decoder has been flushed.
+
+  /**
+   * Constructs a reader over {@code bytes}.
+   * @param bytes the bytes to read.
+   */
+  MappedFileReader(ByteBuffer bytes)
+  {
+    this.bytes = bytes;
+  }
+
+  /**
+   * Reads characters into a portion of an array.
+   * @param cbuf the destination buffer.
+   * @param off the offset at which to start storing characters.
+   * @param len the maximum number of characters to read.
+   * @return the number of characters read, or -1 at the end of the input.
+   * @throws IOException if the reader has been closed.
+   */
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException
+  {
+    if (bytes == null)
+      throw new IOException("Stream closed");
+    if (len == 0)
+      return 0;
+
+    if (decoder == null)
+    {
+      int p = bytes.position();
+      int end = p + Math.min(len, bytes.limit() - p);
+      int n = 0;
+      byte b;
+      while (p < end && (b = bytes.get(p)) >= 0)
+      {
+        cbuf[off + n++] = (char) b;
+        p++;
+      }
+      bytes.position(p);
+
+      if (n > 0)
+        return n;
+      if (!bytes.hasRemaining())
+        return -1;
+
+      decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    if (flushed)
+      return -1;
+
+    CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+    decoder.decode(bytes, out, true);
+    if (!bytes.hasRemaining() && !flushed && out.hasRemaining())
+    {
+      flushed = true;
+      decoder.flush(out);
+    }
+
+    int n = out.position() - off;
+    return n == 0 && flushed ? -1 : n;
+  }
+
+  /**
+   * Releases the mapping.
+   */
+  @Override
+  public void close()
+  {
+    bytes = null;
+  }
+}
@@ -0,0 +1,171 @@
+package lexer;
+
+/**
+ * A table of the identifiers read during one parse. Each distinct name is
+ * given a small integer id, starting at zero, and a single shared
+ * {@code ID} token that the lexer hands out for every occurrence of it.
+ */
+public class SymbolTable
+{
+  private String[] names;   // The name of each symbol.
+  private Token[] tokens;   // The shared token of each symbol.
+  private int[] slots;      // Open addressed hash table of symbol + 1.
+  private int size;         // The number of symbols in the table.
+
+  /**
+   * Constructs an empty symbol table.
+   */
+  public SymbolTable()
+  {
+    names = new String[16];
+    tokens = new Token[16];
+    slots = new int[32];
+  }
+
+  /**
+   * Gets the number of symbols in the table.
+   * @return the number of symbols in the table.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Gets the name of a symbol.
+   * @param symbol the id of the symbol.
+   * @return the name of {@code symbol}.
+   */
+  public String nameOf(int symbol)
+  {
+    return names[symbol];
+  }
+
+  /**
+   * Gets the shared token of a symbol.
+   * @param symbol the id of the symbol.
+   * @return the {@code ID} token of {@code symbol}.
+   */
+  public Token tokenOf(int symbol)
+  {
+    return tokens[symbol];
+  }
+
+  /**
+   * Finds the id of the symbol named {@code name}.
+   * @param name the name to look up.
+   * @return the id of the symbol, or -1 if it is not in the table.
+   */
+  public int find(String name)
+  {
+    int mask = slots.length - 1;
+    for (int i = mix(name.hashCode()) & mask; slots[i] != 0; i = (i + 1) & mask)
+    {
+      int symbol = slots[i] - 1;
+      if (names[symbol].equals(name))
+        return symbol;
+    }
+    return -1;
+  }
+
+  /**
+   * Gets the shared token for the symbol named {@code name}, adding it to
+   * the table if needed.
+   * @param name the name of the identifier.
+   * @return the {@code ID} token of the symbol.
+   */
+  public Token intern(String name)
+  {
+    return intern(name.toCharArray(), 0, name.length());
+  }
+
+  /**
+   * Gets the shared token for the identifier held in {@code buf}, adding it
+   * to the table if needed. A string is only made for names not already in
+   * the table.
+   * @param buf the characters holding the identifier.
+   * @param start the index of the first character of the identifier.
+   * @param length the number of characters in the identifier.
+   * @return the {@code ID} token of the symbol.
+   */
+  Token intern(char[] buf, int start, int length)
+  {
+    int hash = 0;
+    for (int i = start; i < start + length; i++)
+      hash = 31 * hash + buf[i];
+
+    int mask = slots.length - 1;
+    int i = mix(hash) & mask;
+    for (; slots[i] != 0; i = (i + 1) & mask)
+    {
+      int symbol = slots[i] - 1;
+      if (matches(names[symbol], buf, start, length))
+        return tokens[symbol];
+    }
+
+    if (size == names.length)
+    {
+      String[] biggerNames = new String[size * 2];
+      Token[] biggerTokens = new Token[size * 2];
+      System.arraycopy(names, 0, biggerNames, 0, size);
+      System.arraycopy(tokens, 0, biggerTokens, 0, size);
+      names = biggerNames;
+      tokens = biggerTokens;
+    }
+
+    String name = new String(buf, start, length);
+    Token tok = new Token(TokenType.ID, name, size, true);
+    names[size] = name;
+    tokens[size] = tok;
+    slots[i] = ++size;
+
+    if (size * 2 > slots.length)
+      rehash();
+    return tok;
+  }
+
+  /**
+   * Doubles the size of the hash table.
+   */
+  private void rehash()
+  {
+    int[] bigger = new int[slots.length * 2];
+    int mask = bigger.length - 1;
+    for (int symbol = 0; symbol < size; symbol++)
+    {
+      int i = mix(names[symbol].hashCode()) & mask;
+      while (bigger[i] != 0)
+        i = (i + 1) & mask;
+      bigger[i] = symbol + 1;
+    }
+    slots = bigger;
+  }
+
+  /**
+   * Spreads the bits of a string hash code over the table index.
+   * @param hash the hash code of a name.
+   * @return the mixed hash code.
+   */
+  private static int mix(int hash)
+  {
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Determines if {@code name} holds the characters in {@code buf}.
+   * @param name the name of a symbol.
+   * @param buf the characters to compare against.
+   * @param start the index of the first character to compare.
+   * @param length the number of characters to compare.
+   * @return true if the characters are the same; otherwise, false.
+   */
+  private static boolean matches(String name, char[] buf, int start, int length)
+  {
+    if (name.length() != length)
+      return false;
+    for (int i = 0; i < length; i++)
+      if (name.charAt(i) != buf[start + i])
+        return false;
+    return true;
+  }
+}
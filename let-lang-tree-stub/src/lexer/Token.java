@@ -7,6 +7,21 @@ package lexer;
  {
 		private String val;       // The value of the token.
 		private TokenType type;   // The type of token represented.
+		private int symbol;       // The symbol table entry of an identifier.
+		private boolean shared;   // True if the token is shared and immutable.
+
+		// The shared tokens of the types whose text never varies.
+		private static final Token[] FIXED = new Token[TokenType.values().length];
+
+		static
+		{
+			TokenType[] fixed = {TokenType.ADD, TokenType.SUB, TokenType.MULT,
+				TokenType.DIV, TokenType.LPAREN, TokenType.RPAREN, TokenType.ASGN,
+				TokenType.LET, TokenType.IN, TokenType.SEMI, TokenType.NEWLINE,
+				TokenType.EOF};
+			for (TokenType type : fixed)
+				FIXED[type.ordinal()] = new Token(type, "", -1, true);
+		}
 
 		/**
 		 * This is the default constructor.
@@ -15,7 +30,7 @@ package lexer;
 		{
 			val = "";
 			type = TokenType.UNKNOWN;
-
+			symbol = -1;
 		}
 
 		/**
@@ -26,9 +41,41 @@ package lexer;
 		 * @param val the value stored in the token.
 		 */
 		public Token(TokenType type, String val)
+		{
+			this(type, val, -1, false);
+		}
+
+		/**
+		 * Constructs a token that may be shared between many uses.
+		 *
+		 * @param type the type of the token.
+		 * @param val the value stored in the token.
+		 * @param symbol the symbol table entry of the token, or -1.
+		 * @param shared true if the token may not be changed.
+		 */
+		Token(TokenType type, String val, int symbol, boolean shared)
 		{
 			this.type = type;
 			this.val = val;
+			this.symbol = symbol;
+			this.shared = shared;
+		}
+
+		/**
+		 * Gets the shared token for a type whose text never varies, such as
+		 * an operator or a keyword.
+		 *
+		 * @param type the type of the token.
+		 * @return the shared token of type {@code type}.
+		 * @throws IllegalArgumentException if tokens of {@code type} carry a
+		 * value.
+		 */
+		public static Token of(TokenType type)
+		{
+			Token tok = FIXED[type.ordinal()];
+			if (tok == null)
+				throw new IllegalArgumentException(type + " tokens carry a value");
+			return tok;
 		}
 
 		/**
@@ -51,26 +98,61 @@ package lexer;
 			return type;
 		}
 
+		/**
+		 * Get the symbol table entry of an identifier token.
+		 *
+		 * @return the integer id of the identifier in the symbol table of the
+		 * lexer that produced it, or -1 if the token has none.
+		 */
+		public int getSymbol()
+		{
+			return symbol;
+		}
+
+		/**
+		 * Determines if the token is shared and so can not be changed.
+		 *
+		 * @return true if the token is shared; otherwise, false.
+		 */
+		public boolean isShared()
+		{
+			return shared;
+		}
+
 		/**
 		 * Set the value associated with the token.
 		 *
 		 * @param val the value of the token.
+		 * @throws UnsupportedOperationException if the token is shared.
 		 */
 		public void setValue(String val)
 		{
+			checkNotShared();
 			this.val = val;
+			this.symbol = -1;
 		}
 
 		/**
 		 * Sets the type of token.
 		 *
 		 * @param type the type of token.
+		 * @throws UnsupportedOperationException if the token is shared.
 		 */
 		public void setType(TokenType type)
 		{
+			checkNotShared();
 			this.type = type;
 		}
 
+		/**
+		 * Makes sure the token may be changed.
+		 */
+		private void checkNotShared()
+		{
+			if (shared)
+				throw new UnsupportedOperationException("Shared tokens can not be changed");
+		}
+
 		/**
 		 * Determines if two tokens are equal.
 		 * @return true if they are equal and false otherwise.
@@ -121,6 +203,10 @@ package lexer;
 					return "LET";
 				case IN:
 					return "IN";
+				case SEMI:
+					return "SEMI";
+				case NEWLINE:
+					return "NEWLINE";
 				case ID:
 					return "ID(" + val + ")";
 				case REAL:
@@ -0,0 +1,554 @@
+package lexer;
+
+/**
+ * A whole input lexed into parallel arrays of primitives. Token {@code i}
+ * is described by its type, its offset and length in the input, the line
+ * and column it starts at, and the line number the lexer reported for it. Identifiers refer to their symbol
+ * in the symbol table of the lexer, and the text of numbers and unknown
+ * characters is kept in one pool of characters.
+ *
+ * The arrays are a gap buffer: the tokens after the last edit are kept at
+ * the end of the arrays, with their offsets and lines counted from a base
+ * that an edit moves, so an edit only moves the tokens between it and the
+ * edit before. A column is only kept for the first token of a line; the
+ * columns of the tokens after it follow from their offsets.
+ *
+ * The last token of a stream is always {@code EOF}. Tokens are only turned
+ * back into {@link Token} objects when asked for.
+ */
+public class TokenStream
+{
+  private static final TokenType[] TYPES = TokenType.values();
+
+  private int[] types;        // The ordinal of the type of each token.
+  private int[] offsets;      // The input offset of each token.
+  private int[] lengths;      // The number of input characters in each token.
+  private int[] lines;        // The line number reported for each token.
+  private int[] startLines;   // The line each token starts on.
+  private int[] columns;      // The column of each token starting a line.
+  private int[] values;       // The symbol or pool offset of each token.
+  private char[] pool;        // The text of number and unknown tokens.
+  private int poolSize;       // The number of characters used in the pool.
+  private int poolLive;       // The pool characters still used by tokens.
+  private int size;           // The number of tokens in the stream.
+  private int gapStart;       // The index of the first free element.
+  private int gapEnd;         // The element of the first token after the gap.
+  private int tailOffset;     // Added to the offsets after the gap.
+  private int tailLine;       // Added to the lines after the gap.
+  private SymbolTable symbols; // The symbol table of the identifiers.
+
+  /**
+   * Constructs an empty token stream.
+   * @param symbols the symbol table identifiers in the stream refer to.
+   */
+  private TokenStream(SymbolTable symbols)
+  {
+    types = new int[64];
+    offsets = new int[64];
+    lengths = new int[64];
+    lines = new int[64];
+    startLines = new int[64];
+    columns = new int[64];
+    values = new int[64];
+    pool = new char[256];
+    gapEnd = 64;
+    this.symbols = symbols;
+  }
+
+  /**
+   * Reads every token from {@code lex} up to and including {@code EOF}.
+   * @param lex the lexer to read tokens from.
+   * @return the tokens of the input of {@code lex}.
+   */
+  public static TokenStream lex(Lexer lex)
+  {
+    TokenStream stream = new TokenStream(lex.getSymbolTable());
+    Token tok;
+    do
+    {
+      tok = lex.nextToken();
+      stream.add(tok, lex.getTokenOffset(), lex.getTokenLength(),
+          lex.getLineNumber(), lex.getTokenLine(), lex.getTokenColumn());
+    } while (tok.getType() != TokenType.EOF);
+    return stream;
+  }
+
+  /**
+   * Updates the stream for an edit of its input, lexing again only the
+   * tokens the edit can change. Lexing starts at the token before the
+   * edited text and stops as soon as it reaches a token after the edit
+   * that the old stream also has at the same place in the text; the rest
+   * of the old tokens are kept, and reach their new offsets and lines by
+   * the gap moving to the edit. New identifiers are added to the symbol
+   * table of the stream.
+   * @param text the whole input after the edit.
+   * @param offset the offset of the edit.
+   * @param deleted the number of characters the edit removed.
+   * @param inserted the number of characters the edit inserted.
+   * @return the tokens that were replaced.
+   */
+  public Splice edit(CharSequence text, int offset, int deleted, int inserted)
+  {
+    int delta = inserted - deleted;
+
+    // The token before the first one reaching the edit may join with the
+    // edited text or see a line break added right after it.
+    int lo = 0;
+    int hi = size - 1;
+    while (lo < hi)
+    {
+      int mid = (lo + hi) >>> 1;
+      if (offset(mid) + lengths[element(mid)] >= offset)
+        hi = mid;
+      else
+        lo = mid + 1;
+    }
+    int first = Math.max(lo - 1, 0);
+
+    // Only a token starting a line knows its column. Any other token
+    // starts lexing with a column the new tokens of its line do not keep.
+    Lexer lex;
+    if (first == 0)
+      lex = new Lexer(text, 0, 1, 0, symbols);
+    else if (startLine(first - 1) != startLine(first))
+      lex = new Lexer(text, offset(first), startLine(first),
+          offset(first) - (columns[element(first)] - 1), symbols);
+    else
+      lex = new Lexer(text, offset(first), startLine(first), offset(first),
+          symbols);
+    TokenStream added = new TokenStream(symbols);
+    int sync = first;  // The old token the new ones meet up with.
+    while (true)
+    {
+      Token tok = lex.nextToken();
+      long tokOffset = lex.getTokenOffset();
+      if (tok.getType() != TokenType.EOF && tokOffset >= offset + inserted)
+      {
+        long oldOffset = tokOffset - delta;
+        while (sync < size - 1 && offset(sync) < oldOffset)
+          sync++;
+        if (sync < size - 1 && offset(sync) == oldOffset
+            && types[element(sync)] == tok.getType().ordinal()
+            && lengths[element(sync)] == lex.getTokenLength())
+          break;
+      }
+      added.add(tok, tokOffset, lex.getTokenLength(), lex.getLineNumber(),
+          lex.getTokenLine(), lex.getTokenColumn());
+      if (tok.getType() == TokenType.EOF)
+      {
+        sync = size;
+        break;
+      }
+    }
+
+    // The tokens lexed again before the edit that come out as they were
+    // are kept, so the edit replaces as few tokens as it can.
+    int kept = 0;
+    while (first < sync && kept < added.size
+        && added.offsets[kept] + added.lengths[kept] <= offset
+        && added.offsets[kept] == offset(first)
+        && added.types[kept] == types[element(first)]
+        && added.lengths[kept] == lengths[element(first)]
+        && added.lines[kept] == line(first))
+    {
+      first++;
+      kept++;
+    }
+
+    // The replaced tokens join the gap and the tokens after it move by
+    // moving the base of their offsets and lines.
+    moveGap(first);
+    for (int i = gapEnd; i < gapEnd + sync - first; i++)
+      if (types[i] != TokenType.ID.ordinal() && values[i] >= 0)
+        poolLive -= lengths[i];
+    gapEnd += sync - first;
+    size -= sync - first;
+    if (first < size)
+    {
+      tailOffset += delta;
+      tailLine += (int) lex.getTokenLine() - startLine(first);
+      columns[gapEnd] = lex.getTokenColumn();
+    }
+
+    int count = added.size - kept;
+    if (gapEnd - gapStart < count)
+      resize(Math.max(size + count, types.length * 2));
+    for (int j = kept; j < added.size; j++)
+    {
+      int i = gapStart++;
+      types[i] = added.types[j];
+      offsets[i] = added.offsets[j];
+      lengths[i] = added.lengths[j];
+      lines[i] = added.lines[j];
+      startLines[i] = added.startLines[j];
+      columns[i] = added.columns[j];
+      if (added.types[j] == TokenType.ID.ordinal() || added.values[j] < 0)
+        values[i] = added.values[j];
+      else
+        values[i] = store(added.value(j));
+    }
+    size += count;
+
+    if (poolSize > 4096 && poolSize > 4 * poolLive)
+      compactPool();
+    return new Splice(first, sync - first, count);
+  }
+
+  /**
+   * Gets the number of tokens in the stream, including the final
+   * {@code EOF}.
+   * @return the number of tokens in the stream.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Gets the type of token {@code i}.
+   * @param i the index of the token.
+   * @return the type of the token.
+   */
+  public TokenType type(int i)
+  {
+    return TYPES[types[element(i)]];
+  }
+
+  /**
+   * Gets the offset in the input of the first character of token {@code i}.
+   * @param i the index of the token.
+   * @return the offset of the token.
+   */
+  public int offset(int i)
+  {
+    return i < gapStart ? offsets[i] : offsets[element(i)] + tailOffset;
+  }
+
+  /**
+   * Gets the number of input characters in token {@code i}.
+   * @param i the index of the token.
+   * @return the length of the token.
+   */
+  public int length(int i)
+  {
+    return lengths[element(i)];
+  }
+
+  /**
+   * Gets the line number the lexer reported after reading token {@code i}.
+   * @param i the index of the token.
+   * @return the line number of the token.
+   */
+  public int line(int i)
+  {
+    return i < gapStart ? lines[i] : lines[element(i)] + tailLine;
+  }
+
+  /**
+   * Gets the line token {@code i} starts on.
+   * @param i the index of the token.
+   * @return the line of the token, counting from 1.
+   */
+  public int startLine(int i)
+  {
+    return i < gapStart ? startLines[i] : startLines[element(i)] + tailLine;
+  }
+
+  /**
+   * Gets the column token {@code i} starts at. It is worked out from the
+   * first token of its line, so it takes longer the more tokens come
+   * before it on the line.
+   * @param i the index of the token.
+   * @return the column of the token, counting from 1.
+   */
+  public int column(int i)
+  {
+    int start = i;
+    while (start > 0 && startLine(start - 1) == startLine(i))
+      start--;
+    return columns[element(start)] + offset(i) - offset(start);
+  }
+
+  /**
+   * Gets the symbol of identifier token {@code i}.
+   * @param i the index of the token.
+   * @return the symbol id of the token, or -1 if it is not an identifier.
+   */
+  public int symbol(int i)
+  {
+    int e = element(i);
+    return types[e] == TokenType.ID.ordinal() ? values[e] : -1;
+  }
+
+  /**
+   * Gets the value of token {@code i}.
+   * @param i the index of the token.
+   * @return the value the lexer gave the token.
+   */
+  public String value(int i)
+  {
+    int e = element(i);
+    if (types[e] == TokenType.ID.ordinal())
+      return symbols.nameOf(values[e]);
+    if (values[e] < 0)
+      return "";
+    return new String(pool, values[e], lengths[e]);
+  }
+
+  /**
+   * Gets token {@code i} as a token object. Operators, keywords and
+   * identifiers are shared tokens, so only numbers and unknown characters
+   * need a new object.
+   * @param i the index of the token.
+   * @return the token.
+   */
+  public Token token(int i)
+  {
+    TokenType type = type(i);
+    switch (type)
+    {
+      case ID:
+        return symbols.tokenOf(values[element(i)]);
+      case INT:
+      case REAL:
+      case UNKNOWN:
+        return new Token(type, value(i));
+      default:
+        return Token.of(type);
+    }
+  }
+
+  /**
+   * Gets the symbol table identifiers in the stream refer to.
+   * @return the symbol table of the stream.
+   */
+  public SymbolTable getSymbolTable()
+  {
+    return symbols;
+  }
+
+  /************
+   * Private Methods
+   ***********/
+
+  /**
+   * Gets the element of the arrays that holds a token.
+   * @param i the index of the token.
+   * @return the element of token {@code i}.
+   */
+  private int element(int i)
+  {
+    return i < gapStart ? i : i + gapEnd - gapStart;
+  }
+
+  /**
+   * Appends a token to the stream.
+   * @param tok the token.
+   * @param offset the input offset of the token.
+   * @param length the length of the token.
+   * @param line the line number reported for the token.
+   * @param startLine the line the token starts on.
+   * @param column the column the token starts at.
+   */
+  private void add(Token tok, long offset, int length, long line,
+      long startLine, int column)
+  {
+    moveGap(size);
+    if (gapStart == gapEnd)
+      resize(size * 2);
+
+    TokenType type = tok.getType();
+    types[size] = type.ordinal();
+    offsets[size] = (int) Math.min(offset, Integer.MAX_VALUE);
+    lengths[size] = length;
+    lines[size] = (int) Math.min(line, Integer.MAX_VALUE);
+    startLines[size] = (int) Math.min(startLine, Integer.MAX_VALUE);
+    columns[size] = column;
+
+    if (type == TokenType.ID)
+      values[size] = tok.getSymbol();
+    else if (tok.getValue().isEmpty())
+      values[size] = -1;
+    else
+      values[size] = store(tok.getValue());
+    size++;
+    gapStart++;
+  }
+
+  /**
+   * Moves the gap to just before a token. The tokens it passes over have
+   * the base of the offsets and lines after the gap taken off or put back.
+   * @param i the index of the token the gap is to come before.
+   */
+  private void moveGap(int i)
+  {
+    if (i < gapStart)
+    {
+      int count = gapStart - i;
+      int to = gapEnd - count;
+      move(i, to, count);
+      for (int e = to; e < gapEnd; e++)
+      {
+        offsets[e] -= tailOffset;
+        lines[e] -= tailLine;
+        startLines[e] -= tailLine;
+      }
+      gapStart = i;
+      gapEnd = to;
+    }
+    else if (i > gapStart)
+    {
+      int count = i - gapStart;
+      move(gapEnd, gapStart, count);
+      for (int e = gapStart; e < i; e++)
+      {
+        offsets[e] += tailOffset;
+        lines[e] += tailLine;
+        startLines[e] += tailLine;
+      }
+      gapStart = i;
+      gapEnd += count;
+    }
+  }
+
+  /**
+   * Copies the elements of some tokens to other elements.
+   * @param from the first element to copy.
+   * @param to the element to copy it to.
+   * @param count the number of elements to copy.
+   */
+  private void move(int from, int to, int count)
+  {
+    System.arraycopy(types, from, types, to, count);
+    System.arraycopy(offsets, from, offsets, to, count);
+    System.arraycopy(lengths, from, lengths, to, count);
+    System.arraycopy(lines, from, lines, to, count);
+    System.arraycopy(startLines, from, startLines, to, count);
+    System.arraycopy(columns, from, columns, to, count);
+    System.arraycopy(values, from, values, to, count);
+  }
+
+  /**
+   * Copies text into the pool.
+   * @param text the text to store.
+   * @return the offset of the text in the pool.
+   */
+  private int store(String text)
+  {
+    poolLive += text.length();
+    if (poolSize + text.length() > pool.length)
+    {
+      char[] bigger = new char[Math.max(pool.length * 2, poolSize + text.length())];
+      System.arraycopy(pool, 0, bigger, 0, poolSize);
+      pool = bigger;
+    }
+    text.getChars(0, text.length(), pool, poolSize);
+    poolSize += text.length();
+    return poolSize - text.length();
+  }
+
+  /**
+   * Drops the text of tokens edited away from the pool.
+   */
+  private void compactPool()
+  {
+    char[] live = new char[Math.max(256, poolLive * 2)];
+    int n = 0;
+    for (int i = 0; i < size; i++)
+    {
+      int e = element(i);
+      if (types[e] != TokenType.ID.ordinal() && values[e] >= 0)
+      {
+        System.arraycopy(pool, values[e], live, n, lengths[e]);
+        values[e] = n;
+        n += lengths[e];
+      }
+    }
+    pool = live;
+    poolSize = n;
+  }
+
+  /**
+   * Moves the tokens into larger arrays, the ones after the gap to the end.
+   * @param capacity the length of the new arrays.
+   */
+  private void resize(int capacity)
+  {
+    int tail = types.length - gapEnd;
+    types = grow(types, capacity, tail);
+    offsets = grow(offsets, capacity, tail);
+    lengths = grow(lengths, capacity, tail);
+    lines = grow(lines, capacity, tail);
+    startLines = grow(startLines, capacity, tail);
+    columns = grow(columns, capacity, tail);
+    values = grow(values, capacity, tail);
+    gapEnd = capacity - tail;
+  }
+
+  /**
+   * Copies an array into a larger one, keeping the gap in the middle.
+   * @param array the array to copy.
+   * @param capacity the length of the new array.
+   * @param tail the number of elements after the gap.
+   * @return the new array.
+   */
+  private int[] grow(int[] array, int capacity, int tail)
+  {
+    int[] bigger = new int[capacity];
+    System.arraycopy(array, 0, bigger, 0, gapStart);
+    System.arraycopy(array, array.length - tail, bigger, capacity - tail, tail);
+    return bigger;
+  }
+
+  /**
+   * The tokens an edit replaced: {@link #getRemoved()} tokens starting at
+   * index {@link #getStart()} were replaced by {@link #getInserted()} new
+   * ones, and the tokens after them moved along.
+   */
+  public static final class Splice
+  {
+    private final int start;
+    private final int removed;
+    private final int inserted;
+
+    /**
+     * Constructs a splice.
+     * @param start the index of the first token replaced.
+     * @param removed the number of old tokens replaced.
+     * @param inserted the number of new tokens in their place.
+     */
+    Splice(int start, int removed, int inserted)
+    {
+      this.start = start;
+      this.removed = removed;
+      this.inserted = inserted;
+    }
+
+    /**
+     * Gets the index of the first token replaced.
+     * @return the start of the splice.
+     */
+    public int getStart()
+    {
+      return start;
+    }
+
+    /**
+     * Gets the number of old tokens replaced.
+     * @return the number of tokens removed.
+     */
+    public int getRemoved()
+    {
+      return removed;
+    }
+
+    /**
+     * Gets the number of new tokens in place of the old ones.
+     * @return the number of tokens inserted.
+     */
+    public int getInserted()
+    {
+      return inserted;
+    }
+  }
+}
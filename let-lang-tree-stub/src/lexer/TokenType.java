@@ -55,6 +55,16 @@ public enum TokenType {
   // 'in' keyword
   IN,
 
+  /**
+   * A semicolon separating expressions of a stream.
+   */
+  SEMI,
+
+  /**
+   * A line break separating expressions of a stream.
+   */
+  NEWLINE,
+
   /**
    * An unknown token.
    */
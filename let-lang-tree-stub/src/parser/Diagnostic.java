@@ -0,0 +1,99 @@
+package parser;
+
+import lexer.TokenType;
+
+/**
+ * A syntax error found by the parser, with where it was found and what
+ * was expected there.
+ */
+public final class Diagnostic
+{
+  private final ErrorKind kind;
+  private final long line;
+  private final int column;
+  private final TokenType expected;
+  private final TokenType found;
+  private final String message;
+
+  /**
+   * Constructs a diagnostic.
+   * @param kind the kind of error.
+   * @param line the line the offending token starts on.
+   * @param column the column the offending token starts at, counting
+   * from 1.
+   * @param expected the type of token expected, or null if any operand
+   * would do.
+   * @param found the type of the offending token.
+   * @param message the message reported for the error.
+   */
+  public Diagnostic(ErrorKind kind, long line, int column, TokenType expected,
+      TokenType found, String message)
+  {
+    this.kind = kind;
+    this.line = line;
+    this.column = column;
+    this.expected = expected;
+    this.found = found;
+    this.message = message;
+  }
+
+  /**
+   * Gets the kind of error.
+   * @return the kind of error.
+   */
+  public ErrorKind getKind()
+  {
+    return kind;
+  }
+
+  /**
+   * Gets the line the offending token starts on.
+   * @return the line, counting from 1.
+   */
+  public long getLine()
+  {
+    return line;
+  }
+
+  /**
+   * Gets the column the offending token starts at.
+   * @return the column, counting from 1.
+   */
+  public int getColumn()
+  {
+    return column;
+  }
+
+  /**
+   * Gets the type of token that was expected.
+   * @return the expected type, or null if any operand would have done.
+   */
+  public TokenType getExpected()
+  {
+    return expected;
+  }
+
+  /**
+   * Gets the type of the offending token.
+   * @return the type found.
+   */
+  public TokenType getFound()
+  {
+    return found;
+  }
+
+  /**
+   * Gets the message reported for the error.
+   * @return the message.
+   */
+  public String getMessage()
+  {
+    return message;
+  }
+
+  @Override
+  public String toString()
+  {
+    return line + ":" + column + ": " + message;
+  }
+}
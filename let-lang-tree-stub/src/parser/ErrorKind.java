@@ -0,0 +1,32 @@
+package parser;
+
+/**
+ * The kinds of syntax error the parser reports.
+ */
+public enum ErrorKind
+{
+  /**
+   * A token that can not appear where it was found.
+   */
+  UNEXPECTED_TOKEN,
+
+  /**
+   * A let without a variable after {@code let}.
+   */
+  MISSING_IDENTIFIER,
+
+  /**
+   * A let without {@code :=} after its variable.
+   */
+  MISSING_ASSIGNMENT,
+
+  /**
+   * A let without {@code in} after its bound expression.
+   */
+  MISSING_IN,
+
+  /**
+   * A parenthesized expression without its closing parenthesis.
+   */
+  MISSING_RPAREN
+}
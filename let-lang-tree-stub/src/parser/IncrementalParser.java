@@ -0,0 +1,151 @@
+package parser;
+
+import ast.SyntaxTree;
+import ast.nodes.SyntaxNode;
+import environment.Environment;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import lexer.Lexer;
+import lexer.TokenStream;
+
+/**
+ * Keeps a source and its syntax tree up to date as the source is edited,
+ * as an editor does on every keystroke. An edit only lexes again the
+ * tokens it can change, and the parse after it takes every parenthesized
+ * expression and let whose tokens and scope are unchanged from the tree
+ * before instead of parsing it again.
+ *
+ * An edit of a source without syntax errors that falls inside
+ * parentheses, or inside the bound expression or body of a let, only
+ * parses that part again, and puts its new node in place of the old one
+ * in the tree, as long as the part still parses without errors and needs
+ * the same slots. The source and the tokens are kept in gap buffers, so
+ * the cost of such an edit does not grow with the length of the source
+ * when edits are made near each other. Any other edit parses the whole
+ * token stream again, reusing what it can.
+ *
+ * Since nodes are changed in place, the trees of a source share nodes
+ * with the trees after them, and only the tree of the last edit should
+ * be used.
+ *
+ * Syntax errors are not printed; they are kept as diagnostics.
+ */
+public class IncrementalParser
+{
+  private final SourceBuffer text;    // The source as edited so far.
+  private final TokenStream tokens;   // The tokens of the source.
+  private final SubtreeCache cache;   // The subtrees of earlier parses.
+  private final Parser parser;        // The parser of the token stream.
+  private SyntaxTree tree;            // The tree of the source.
+
+  /**
+   * Parses a source.
+   * @param source the source to parse.
+   */
+  public IncrementalParser(String source)
+  {
+    text = new SourceBuffer(source);
+    tokens = TokenStream.lex(new Lexer(source));
+    cache = new SubtreeCache(tokens.size());
+    parser = new Parser(tokens);
+    parser.setErrorOutput(new PrintStream(OutputStream.nullOutputStream()));
+    reparse();
+  }
+
+  /**
+   * Replaces part of the source and brings the tree up to date.
+   * @param offset the offset of the first character replaced.
+   * @param deleted the number of characters replaced.
+   * @param inserted the text to put in their place.
+   * @return the tree of the edited source.
+   * @throws IndexOutOfBoundsException if the replaced characters are not
+   * all in the source.
+   */
+  public SyntaxTree edit(int offset, int deleted, String inserted)
+  {
+    if (offset < 0 || deleted < 0 || offset + deleted > text.length())
+      throw new IndexOutOfBoundsException("Edit of " + deleted
+          + " characters at " + offset + " is outside the source of length "
+          + text.length());
+
+    text.replace(offset, deleted, inserted);
+    TokenStream.Splice splice = tokens.edit(text, offset, deleted,
+        inserted.length());
+    cache.splice(splice);
+    if (parser.hasError() || !reparseRegion(splice))
+      reparse();
+    return tree;
+  }
+
+  /**
+   * Gets the source as edited so far.
+   * @return the source.
+   */
+  public String getText()
+  {
+    return text.toString();
+  }
+
+  /**
+   * Gets the tree of the source.
+   * @return the syntax tree.
+   */
+  public SyntaxTree getTree()
+  {
+    return tree;
+  }
+
+  /**
+   * Gets the syntax errors of the source.
+   * @return the diagnostics of the last parse.
+   */
+  public List<Diagnostic> getDiagnostics()
+  {
+    return parser.getDiagnostics();
+  }
+
+  /**
+   * Determines if the source has syntax errors.
+   * @return true if the source has syntax errors; otherwise, false.
+   */
+  public boolean hasError()
+  {
+    return parser.hasError();
+  }
+
+  /**
+   * Parses again the smallest part of the tree around an edit that can be
+   * parsed on its own, and puts it in place in the tree.
+   * @param splice the tokens the edit replaced.
+   * @return true if the tree is up to date; false if the part could not
+   * be parsed on its own.
+   */
+  private boolean reparseRegion(TokenStream.Splice splice)
+  {
+    SubtreeCache.Region region = cache.enclosing(splice.getStart(),
+        splice.getStart() + splice.getInserted());
+    if (region == null)
+      return false;
+    SyntaxNode node = parser.parseRegion(cache, region);
+    if (node == null)
+      return false;
+
+    SyntaxNode root = cache.attach(region, node);
+    tree = new SyntaxTree(root != null ? root : tree.getRootNode(),
+        tree.getSlotCount());
+    tree.setEnvironment(new Environment(tokens.getSymbolTable()));
+    return true;
+  }
+
+  /**
+   * Parses the token stream again.
+   * @return the new tree.
+   */
+  private SyntaxTree reparse()
+  {
+    parser.rewind(cache);
+    tree = parser.parse();
+    return tree;
+  }
+}
@@ -0,0 +1,224 @@
+package parser;
+
+import ast.SyntaxTree;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe cache of parse results keyed by source text.
+ *
+ * Sources are hashed and then compared in full on a hit, so two sources
+ * only share a result if they are equal. Results with syntax errors are
+ * cached too, so a bad input is not lexed again. The cache is split into
+ * stripes by hash, each an LRU list behind its own lock, and evicts the
+ * least recently used results of a stripe once it holds too many results
+ * or too many characters of source. The limits are split evenly between
+ * the stripes. A single result heavier than its stripe's share is kept
+ * until another result replaces it.
+ *
+ * Cached trees are shared between callers, so each caller is handed a
+ * read-only view of the tree from {@link SyntaxTree#readOnly()}, with an
+ * environment of its own.
+ */
+public class ParseCache
+{
+  private static final int STRIPES = 16;        // The most stripes to split into.
+  private static final int STRIPE_ENTRIES = 64;  // The fewest results per stripe.
+
+  private final Stripe[] stripes;
+  private final SharedParser parser = new SharedParser();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Constructs a cache.
+   * @param maxEntries the largest number of results to keep.
+   * @param maxWeight the largest number of source characters to keep.
+   * @throws IllegalArgumentException if either limit is not positive.
+   */
+  public ParseCache(int maxEntries, long maxWeight)
+  {
+    if (maxEntries <= 0 || maxWeight <= 0)
+      throw new IllegalArgumentException("Cache limits must be positive");
+
+    int count = Integer.highestOneBit(
+        Math.max(1, Math.min(STRIPES, maxEntries / STRIPE_ENTRIES)));
+    stripes = new Stripe[count];
+    for (int i = 0; i < count; i++)
+      stripes[i] = new Stripe(maxEntries / count, Math.max(1, maxWeight / count));
+  }
+
+  /**
+   * Gets the result of parsing {@code source}, parsing it only if it is
+   * not already in the cache.
+   * @param source the text to parse.
+   * @return the result of parsing {@code source}, whose tree is a
+   * read-only view.
+   */
+  public ParseResult parse(String source)
+  {
+    Stripe stripe = stripeOf(source);
+    ParseResult result = stripe.get(source);
+    if (result != null)
+      hits.incrementAndGet();
+    else
+    {
+      misses.incrementAndGet();
+      result = stripe.put(parser.parse(source));
+    }
+    return new ParseResult(source, result.getTree().readOnly(),
+        result.getDiagnostics());
+  }
+
+  /**
+   * Gets the number of lookups answered from the cache.
+   * @return the number of hits.
+   */
+  public long hitCount()
+  {
+    return hits.get();
+  }
+
+  /**
+   * Gets the number of lookups that had to parse.
+   * @return the number of misses.
+   */
+  public long missCount()
+  {
+    return misses.get();
+  }
+
+  /**
+   * Gets the number of results dropped to stay within the limits.
+   * @return the number of evictions.
+   */
+  public long evictionCount()
+  {
+    return evictions.get();
+  }
+
+  /**
+   * Gets the number of results in the cache.
+   * @return the number of cached results.
+   */
+  public int size()
+  {
+    int size = 0;
+    for (Stripe stripe : stripes)
+      size += stripe.size();
+    return size;
+  }
+
+  /**
+   * Gets the number of source characters in the cache.
+   * @return the weight of the cached results.
+   */
+  public long weight()
+  {
+    long weight = 0;
+    for (Stripe stripe : stripes)
+      weight += stripe.weight();
+    return weight;
+  }
+
+  /**
+   * Removes every result from the cache.
+   */
+  public void clear()
+  {
+    for (Stripe stripe : stripes)
+      stripe.clear();
+  }
+
+  /**
+   * Provides a string with the size and counters of the cache.
+   * @return a string representation of the cache.
+   */
+  @Override
+  public String toString()
+  {
+    return "ParseCache(size=" + size() + ", weight=" + weight() + ", hits="
+      + hitCount() + ", misses=" + missCount() + ", evictions="
+      + evictionCount() + ")";
+  }
+
+  /**
+   * Picks the stripe for a source.
+   * @param source the source text.
+   * @return the stripe that holds {@code source}.
+   */
+  private Stripe stripeOf(String source)
+  {
+    int hash = source.hashCode();
+    hash ^= hash >>> 16;
+    return stripes[hash & (stripes.length - 1)];
+  }
+
+  /**
+   * One part of the cache: an access ordered map behind a lock.
+   */
+  private class Stripe
+  {
+    private final LinkedHashMap<String, ParseResult> results =
+      new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxEntries;
+    private final long maxWeight;
+    private long weight;
+
+    Stripe(int maxEntries, long maxWeight)
+    {
+      this.maxEntries = maxEntries;
+      this.maxWeight = maxWeight;
+    }
+
+    synchronized ParseResult get(String source)
+    {
+      return results.get(source);
+    }
+
+    /**
+     * Adds a result unless another thread has added one for the same
+     * source first, then evicts down to the limits.
+     * @param result the result to add.
+     * @return the result now cached for the source.
+     */
+    synchronized ParseResult put(ParseResult result)
+    {
+      ParseResult present = results.putIfAbsent(result.getSource(), result);
+      if (present != null)
+        return present;
+
+      weight += result.getSource().length();
+      Iterator<Map.Entry<String, ParseResult>> eldest = results.entrySet().iterator();
+      while (results.size() > 1 && (results.size() > maxEntries || weight > maxWeight))
+      {
+        Map.Entry<String, ParseResult> entry = eldest.next();
+        if (entry.getValue() == result)
+          continue;
+        weight -= entry.getKey().length();
+        eldest.remove();
+        evictions.incrementAndGet();
+      }
+      return result;
+    }
+
+    synchronized int size()
+    {
+      return results.size();
+    }
+
+    synchronized long weight()
+    {
+      return weight;
+    }
+
+    synchronized void clear()
+    {
+      results.clear();
+      weight = 0;
+    }
+  }
+}
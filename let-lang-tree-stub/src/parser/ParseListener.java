@@ -0,0 +1,37 @@
+package parser;
+
+import ast.nodes.SyntaxNode;
+import lexer.Token;
+
+/**
+ * Receives the events of a parse. Every method does nothing unless
+ * overridden, so a listener only implements the events it wants. A parser
+ * without a listener does no work for them at all.
+ */
+public interface ParseListener
+{
+  /**
+   * Called for each token the parser reads, after unknown characters are
+   * skipped.
+   * @param tok the token.
+   */
+  default void tokenRead(Token tok)
+  {
+  }
+
+  /**
+   * Called for each node the parser builds, children before parents.
+   * @param node the node.
+   */
+  default void nodeCreated(SyntaxNode node)
+  {
+  }
+
+  /**
+   * Called for each syntax error reported.
+   * @param diagnostic the error.
+   */
+  default void syntaxError(Diagnostic diagnostic)
+  {
+  }
+}
@@ -0,0 +1,142 @@
+package parser;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters of the work done by parsers. A parser counts into plain fields
+ * while it runs and adds them to its metrics once at the end of each
+ * parse, so the counters cost next to nothing and can stay on in
+ * production. Parsers share the {@link #global()} metrics unless given
+ * their own.
+ *
+ * The counters can be read through JMX once {@link #register(String)} has
+ * been called.
+ */
+public class ParseMetrics implements ParseMetricsMXBean
+{
+  private static final ErrorKind[] KINDS = ErrorKind.values();
+  private static final ParseMetrics GLOBAL = new ParseMetrics();
+
+  private final LongAdder parses = new LongAdder();
+  private final LongAdder tokens = new LongAdder();
+  private final LongAdder nodes = new LongAdder();
+  private final LongAdder parseNanos = new LongAdder();
+  private final LongAdder[] errors = new LongAdder[KINDS.length];
+
+  /**
+   * Constructs a set of counters, all zero.
+   */
+  public ParseMetrics()
+  {
+    for (int i = 0; i < errors.length; i++)
+      errors[i] = new LongAdder();
+  }
+
+  /**
+   * Gets the metrics parsers count into by default.
+   * @return the shared metrics.
+   */
+  public static ParseMetrics global()
+  {
+    return GLOBAL;
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server.
+   * @param name the name to register under, which becomes the {@code name}
+   * key of the object name {@code let-lang:type=ParseMetrics,name=...}.
+   * @return the object name registered.
+   * @throws JMException if the metrics can not be registered.
+   */
+  public ObjectName register(String name) throws JMException
+  {
+    ObjectName objectName = new ObjectName("let-lang:type=ParseMetrics,name="
+        + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    return objectName;
+  }
+
+  @Override
+  public long getParses()
+  {
+    return parses.sum();
+  }
+
+  @Override
+  public long getTokens()
+  {
+    return tokens.sum();
+  }
+
+  @Override
+  public long getNodes()
+  {
+    return nodes.sum();
+  }
+
+  @Override
+  public long getParseNanos()
+  {
+    return parseNanos.sum();
+  }
+
+  @Override
+  public long getErrors()
+  {
+    long sum = 0;
+    for (LongAdder count : errors)
+      sum += count.sum();
+    return sum;
+  }
+
+  @Override
+  public Map<String, Long> getErrorsByKind()
+  {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for (ErrorKind kind : KINDS)
+      counts.put(kind.name(), errors[kind.ordinal()].sum());
+    return counts;
+  }
+
+  @Override
+  public void reset()
+  {
+    parses.reset();
+    tokens.reset();
+    nodes.reset();
+    parseNanos.reset();
+    for (LongAdder count : errors)
+      count.reset();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "ParseMetrics(parses=" + getParses() + ", tokens=" + getTokens()
+      + ", nodes=" + getNodes() + ", parseNanos=" + getParseNanos()
+      + ", errors=" + getErrorsByKind() + ")";
+  }
+
+  /**
+   * Adds the counts of one parse.
+   * @param tokenCount the number of tokens read.
+   * @param nodeCount the number of nodes built.
+   * @param nanos the time the parse took.
+   * @param errorCounts the number of errors of each kind, by ordinal.
+   */
+  void record(long tokenCount, long nodeCount, long nanos, int[] errorCounts)
+  {
+    parses.increment();
+    tokens.add(tokenCount);
+    nodes.add(nodeCount);
+    parseNanos.add(nanos);
+    for (int i = 0; i < errorCounts.length; i++)
+      if (errorCounts[i] != 0)
+        errors[i].add(errorCounts[i]);
+  }
+}
@@ -0,0 +1,50 @@
+package parser;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link ParseMetrics}.
+ */
+public interface ParseMetricsMXBean
+{
+  /**
+   * Gets the number of parses finished.
+   * @return the number of parses.
+   */
+  long getParses();
+
+  /**
+   * Gets the number of tokens read by the lexers of finished parses.
+   * @return the number of tokens.
+   */
+  long getTokens();
+
+  /**
+   * Gets the number of syntax tree nodes built by finished parses.
+   * @return the number of nodes.
+   */
+  long getNodes();
+
+  /**
+   * Gets the time spent in finished parses.
+   * @return the total parse time in nanoseconds.
+   */
+  long getParseNanos();
+
+  /**
+   * Gets the number of syntax errors reported.
+   * @return the number of errors.
+   */
+  long getErrors();
+
+  /**
+   * Gets the number of syntax errors reported of each kind.
+   * @return the count of each {@link ErrorKind}, by name.
+   */
+  Map<String, Long> getErrorsByKind();
+
+  /**
+   * Sets every counter back to zero.
+   */
+  void reset();
+}
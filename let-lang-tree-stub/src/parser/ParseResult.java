@@ -0,0 +1,66 @@
+package parser;
+
+import ast.SyntaxTree;
+import java.util.List;
+
+/**
+ * The outcome of parsing a source: its syntax tree and the syntax errors
+ * the parse found.
+ */
+public final class ParseResult
+{
+  private final String source;
+  private final SyntaxTree tree;
+  private final List<Diagnostic> diagnostics;
+
+  /**
+   * Constructs a parse result.
+   * @param source the text that was parsed.
+   * @param tree the tree the parser built.
+   * @param diagnostics the syntax errors the parser found.
+   */
+  public ParseResult(String source, SyntaxTree tree, List<Diagnostic> diagnostics)
+  {
+    this.source = source;
+    this.tree = tree;
+    this.diagnostics = List.copyOf(diagnostics);
+  }
+
+  /**
+   * Gets the text that was parsed.
+   * @return the source of the parse.
+   */
+  public String getSource()
+  {
+    return source;
+  }
+
+  /**
+   * Gets the tree the parser built. A tree with errors is not fit to
+   * evaluate.
+   * @return the syntax tree of the source.
+   */
+  public SyntaxTree getTree()
+  {
+    return tree;
+  }
+
+  /**
+   * Determines if the source has syntax errors.
+   * @return true if the parse found errors; otherwise, false.
+   */
+  public boolean hasError()
+  {
+    return !diagnostics.isEmpty();
+  }
+
+  /**
+   * Gets the syntax errors of the source.
+   * @return the diagnostics of the parse, which is empty if there were no
+   * errors.
+   */
+  public List<Diagnostic> getDiagnostics()
+  {
+    return diagnostics;
+  }
+}
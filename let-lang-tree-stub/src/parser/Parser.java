@@ -1,12 +1,21 @@
 package parser;
 
 import lexer.Lexer;
+import lexer.SymbolTable;
+import lexer.TokenStream;
 import lexer.TokenType;
 import lexer.Token;
+import ast.FlatTree;
 import ast.SyntaxTree;
 import ast.nodes.*;
+import environment.Environment;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Implements a generic super class for parsing files.
@@ -15,9 +24,16 @@ public class Parser
 {
   private Lexer lex;            // The lexer for the parser.
   private boolean errorFound;   // True if ther was a parser error.
-  private boolean doTracing;    // True if we should run parser tracing.
-  private boolean readNext;     // if true, then the next token is read. 
+  private ParseListener listener; // Receives parse events, or null.
+  private ParseMetrics metrics; // The counters the parser adds to.
   private Token nextTok;        // The current token being analyzed.
+  private TokenStream tokens;   // The pre-lexed tokens, or null to use lex.
+  private int cursor;           // The index of the next token in tokens.
+  private int limit = -1;       // The token that ends a region, or -1.
+  private PrintStream errors;   // Where syntax errors are reported.
+  private List<Diagnostic> diagnostics = Collections.emptyList(); // Errors found.
+  private SubtreeCache reuse;   // Subtrees of earlier parses, or null.
+  private FlatTree arena;       // The arena of a flat parse, or null.
 
   /**
    * Constructs a new parser for the file {@code source} by
@@ -29,8 +45,8 @@ public class Parser
   {
     lex = new Lexer(src);
     errorFound = false;
-    doTracing = false;
-    readNext = true;
+    metrics = ParseMetrics.global();
+    errors = System.err;
   }
 
   /**
@@ -41,16 +57,116 @@ public class Parser
   {
     lex = new Lexer(str);
     errorFound = false;
-    doTracing = false;
-    readNext = true;
+    metrics = ParseMetrics.global();
+    errors = System.err;
   }
 
   /**
-   * Turns tracing on an off.
+   * Construct a parser that parses the tokens produced by {@code lex}.
+   * @param lex the lexer to read tokens from.
+   */
+  public Parser(Lexer lex)
+  {
+    this.lex = lex;
+    errorFound = false;
+    metrics = ParseMetrics.global();
+    errors = System.err;
+  }
+
+  /**
+   * Construct a parser that walks the pre-lexed tokens in {@code tokens}.
+   * @param tokens the tokens to parse.
+   */
+  public Parser(TokenStream tokens)
+  {
+    this.tokens = tokens;
+    errorFound = false;
+    metrics = ParseMetrics.global();
+    errors = System.err;
+  }
+
+  /**
+   * Prepares the parser to parse {@code src} from the beginning. The
+   * lexer and the stacks of the parser are reused, so a parser can be kept
+   * and reset for each parse instead of building a new one.
+   * @param src the code to parse.
+   */
+  public void reset(CharSequence src)
+  {
+    if (lex == null)
+      lex = new Lexer("");
+    lex.reset(src);
+    tokens = null;
+    cursor = 0;
+    nextTok = null;
+    errorFound = false;
+    diagnostics = Collections.emptyList();
+  }
+
+  /**
+   * Gets the syntax errors found by the last parse, in the order found.
+   * Errors that only follow from an earlier one are left out.
+   * @return the diagnostics of the last parse.
+   */
+  public List<Diagnostic> getDiagnostics()
+  {
+    return Collections.unmodifiableList(diagnostics);
+  }
+
+  /**
+   * Starts the parse of the token stream over, reusing the subtrees in
+   * {@code reuse} where the stream has not changed.
+   * @param reuse the subtrees of earlier parses of the stream, or null.
+   */
+  void rewind(SubtreeCache reuse)
+  {
+    this.reuse = reuse;
+    cursor = 0;
+    nextTok = null;
+    errorFound = false;
+    diagnostics = Collections.emptyList();
+  }
+
+  /**
+   * Sets where syntax errors are reported. Errors go to
+   * {@code System.err} unless changed.
+   * @param errors the stream to report syntax errors to.
+   */
+  public void setErrorOutput(PrintStream errors)
+  {
+    this.errors = errors;
+  }
+
+  /**
+   * Turns tracing on an off. Tracing prints each token read to
+   * {@code System.out} through a {@link TracingListener}, which replaces
+   * any other listener.
    */
   public void toggleTracing()
   {
-    doTracing = !doTracing;
+    if (listener instanceof TracingListener)
+      listener = null;
+    else
+      listener = new TracingListener(System.out);
+  }
+
+  /**
+   * Sets the listener that receives the events of each parse.
+   * @param listener the listener, or null for none.
+   */
+  public void setParseListener(ParseListener listener)
+  {
+    this.listener = listener;
+  }
+
+  /**
+   * Sets the counters the parser adds the work of each parse to. Parsers
+   * start out counting into {@link ParseMetrics#global()}.
+   * @param metrics the counters to add to.
+   */
+  public void setMetrics(ParseMetrics metrics)
+  {
+    this.metrics = metrics;
   }
 
   /**
@@ -69,132 +185,1003 @@ public class Parser
    */
   public SyntaxTree parse()
   {
-    return new SyntaxTree(nextNode());
+    parseStart = System.nanoTime();
+    diagnostics = Collections.emptyList();
+    nextToken();
+    return finish(parseExpression());
+  }
+
+  /**
+   * Parses the input like {@link #parse()}, but builds the tree in a
+   * {@link FlatTree} arena instead of out of node objects, which takes a
+   * fraction of the memory. The root of the tree is a {@link FlatNode}
+   * view of the arena, so the tree can be evaluated, printed and compiled
+   * like any other.
+   * @return the abstract syntax tree representing the parsed program.
+   */
+  public SyntaxTree parseFlat()
+  {
+    arena = new FlatTree(symbols());
+    try
+    {
+      return parse();
+    }
+    finally
+    {
+      arena = null;
+    }
+  }
+
+  /**
+   * Parses the next expression of a stream of expressions. Expressions are
+   * separated by semicolons or line breaks; a line break only ends an
+   * expression that is complete and not inside parentheses or before the
+   * {@code in} of a let, so long expressions may span lines. The input is
+   * only read up to the end of the expression, and each expression gets a
+   * symbol table of its own, so a stream of any length can be parsed in
+   * bounded memory. A syntax error is recovered from at the end of its
+   * line at the latest, and {@link #hasError()} is true until the next
+   * call.
+   * @return the tree of the next expression, or null at the end of the
+   * input.
+   */
+  public SyntaxTree parseNext()
+  {
+    if (tokens == null)
+    {
+      lex.setSeparators(true);
+      lex.newSymbolTable();
+    }
+    errorFound = false;
+    diagnostics = Collections.emptyList();
+    parseStart = System.nanoTime();
+
+    do
+      nextToken();
+    while (nextTok.getType() == TokenType.SEMI);
+    if (nextTok.getType() == TokenType.EOF)
+    {
+      releaseStacks();
+      tokenCount = 0;
+      return null;
+    }
+
+    return finish(parseExpression());
+  }
+
+  /**
+   * Parses a part of the token stream again on its own: the inside of
+   * parentheses, or the bound expression or body of a let, whose tokens
+   * an edit has changed. The part is parsed in the scope it had, reusing
+   * the subtrees in {@code reuse}, and the node holding it is noted in the
+   * cache. No tree is built; the caller puts the node in place of the old
+   * one.
+   * @param reuse the subtrees of earlier parses of the stream.
+   * @param region the part to parse.
+   * @return the node of the part, or null if it has syntax errors or
+   * needs other slots than before, and the whole stream must be parsed
+   * again.
+   */
+  SyntaxNode parseRegion(SubtreeCache reuse, SubtreeCache.Region region)
+  {
+    this.reuse = reuse;
+    parseStart = System.nanoTime();
+    errorFound = false;
+    diagnostics = Collections.emptyList();
+    cursor = region.getFrom();
+    limit = region.getTo();
+    outside = region.getScope();
+    nextToken();
+    // Bindings are all -1 between parses, each let body having put back
+    // the binding it hid, so only the scope of the region is set up.
+    scope = outside;
+    int depth = outside.getDepth();
+    SyntaxNode root = parseExpression(depth, region.isBody() ? depth : 0);
+    endParse();
+    limit = -1;
+    outside = null;
+    if (errorFound || slotCount != region.getSlotCount())
+      return null;
+    adopt(rootParen, region.getParent(), region.getSide());
+    return root;
   }
 
 
   /************
    * Private Methods.
    *
-   * It is important to remember that all of our non-terminal processing methods
-   * maintain the invariant that each method leaves the next unprocessed token
-   * in {@code nextTok}. This means each method can assume the value of
-   * {@code nextTok} has not yet been processed when the method begins.
+   * The parse engine is a precedence climbing parser that keeps its work on
+   * explicit stacks instead of the Java call stack, so deeply nested input
+   * can not overflow it. Operands waiting to be combined are kept on
+   * {@code operands} and operators waiting for their right operand on
+   * {@code operators}. Each parenthesized expression and each part of a
+   * let expression opens a frame on the frame stack that remembers where
+   * its operators start and what must close it.
+   *
+   * Variables are resolved while parsing. Each let is given the slot of
+   * its nesting depth among the let bodies around it, and {@code bindings}
+   * maps the symbol of each variable in scope to the slot of its innermost
+   * binding. An identifier that is not in scope is left for the
+   * environment to look up by name. A region parsed again on its own
+   * finds the variables around it in its scope in the subtree cache.
+   *
+   * Where subtrees are reused, each operand also remembers the
+   * parenthesized subtree it is, if any, so the cache can note the node
+   * that takes it as a child.
+   *
+   * The engine always leaves the next unprocessed token in {@code nextTok}.
    ***********/
 
-  private void unread() {
-    readNext = false;
+  // The kinds of frame on the frame stack.
+  private static final int TOP = 0;       // The whole input.
+  private static final int PAREN = 1;     // A parenthesized expression.
+  private static final int LET_BIND = 2;  // The bound expression of a let.
+  private static final int LET_BODY = 3;  // The body of a let.
+
+  private static final int MAX_KEPT_STACK = 1024;  // Largest stack kept after a parse.
+
+  private SyntaxNode[] operands = new SyntaxNode[16]; // The operand stack.
+  private int[] operandParens = new int[16];           // The parentheses of each operand, or -1.
+  private int rootParen;                               // The parentheses of the root, or -1.
+  private int[] nodeStack = new int[16];               // The operand stack of a flat parse.
+  private int operandCount;                            // Operands on the stack.
+  private Token[] operators = new Token[16];           // The operator stack.
+  private int operatorCount;                           // Operators on the stack.
+  private int[] frameKinds = new int[16];              // The kind of each frame.
+  private int[] frameBases = new int[16];              // Operators below each frame.
+  private Token[] frameVariables = new Token[16];      // The variable of let frames.
+  private int[] frameSlots = new int[16];              // The slot of let frames.
+  private int[] frameShadowed = new int[16];           // The binding a let body hides.
+  private int[] frameAsgns = new int[16];              // The assignment of let frames.
+  private int[] frameIns = new int[16];                // The in of let body frames.
+  private int[] frameBindSlots = new int[16];          // Slots needed by the bound expression.
+  private int[] frameStarts = new int[16];             // The first token of each frame.
+  private int[] frameErrors = new int[16];             // Errors before each frame.
+  private int[] frameSlotCounts = new int[16];         // Slots needed before each frame.
+  private int frameCount;                              // Frames on the stack.
+  private int parenCount;                              // Paren frames on the stack.
+  private int bindCount;                               // Let bind frames on the stack.
+  private boolean recovering;                          // True if skipping after an error.
+  private long syncLine;                               // The line of the last error.
+  private int errorEvents;                             // Errors found, reported or not.
+  private SubtreeCache.Scope scope;                    // The scope, when reusing subtrees.
+  private SubtreeCache.Scope outside;                  // The scope around a region, or null.
+  private int[] bindings = new int[16];                // The slot of each symbol, or -1.
+  private int letDepth;                                // Let bodies being parsed.
+  private int slotCount;                               // Slots needed by the tree.
+  private long parseStart;                             // When the parse started.
+  private int tokenCount;                              // Tokens read by the parse.
+  private int nodeCount;                               // Nodes built by the parse.
+  private int[] errorCounts = new int[ErrorKind.values().length]; // Errors by kind.
+
+  /**
+   * Builds the tree of a parsed expression.
+   * @param root the root of the expression.
+   * @return the tree.
+   */
+  private SyntaxTree finish(SyntaxNode root)
+  {
+    endParse();
+    if (reuse != null)
+      adopt(rootParen, null, SubtreeCache.ROOT);
+    SyntaxTree tree = new SyntaxTree(root, slotCount);
+    tree.setEnvironment(new Environment(symbols()));
+    return tree;
   }
 
-  private SyntaxNode nextNode() {
-    SyntaxNode leftnode, rightnode;
-    nextToken();
-    while (nextTok.getType() != TokenType.EOF && nextTok.getType() != TokenType.IN && nextTok.getType() != TokenType.RPAREN) {
-      if (nextTok.getType() == TokenType.LET) {
-        nextToken(); // variable token
-        Token variable = nextTok;
-        nextToken(); // assignment operator token
-        if (nextTok.getType() != TokenType.ASGN) {
-          logError("Let expression missing assignment!");
-          logError("Parse error, unexpected token " + nextTok.toString());
-          return new TokenNode();
+  /**
+   * Adds the work of a parse to the metrics and lets go of what the parse
+   * held.
+   */
+  private void endParse()
+  {
+    metrics.record(tokenCount, nodeCount, System.nanoTime() - parseStart,
+        errorCounts);
+    tokenCount = 0;
+    nodeCount = 0;
+    Arrays.fill(errorCounts, 0);
+    releaseStacks();
+  }
+
+  /**
+   * Parses an expression starting at {@code nextTok} outside every let.
+   * @return the node for the expression.
+   */
+  private SyntaxNode parseExpression()
+  {
+    scope = reuse == null ? null : reuse.top();
+    Arrays.fill(bindings, -1);
+    return parseExpression(0, 0);
+  }
+
+  /**
+   * Parses an expression starting at {@code nextTok} followed by the end of
+   * the input or an expression separator.
+   *
+   * A syntax error does not end the parse. The part of the expression that
+   * could not be read is replaced by an empty token node, and the input is
+   * skipped up to the next {@code in}, right parenthesis, separator or
+   * line, where the parse picks up again. A token that closes an outer
+   * frame closes the frames inside it as well. Errors found before the
+   * parse has read a token normally again are taken to follow from the
+   * first and are not reported.
+   * @param depth the let bodies around the expression.
+   * @param slots the slots needed before the expression.
+   * @return the node for the expression, which holds empty token nodes
+   * where there were syntax errors.
+   */
+  private SyntaxNode parseExpression(int depth, int slots)
+  {
+    operandCount = 0;
+    operatorCount = 0;
+    frameCount = 0;
+    parenCount = 0;
+    bindCount = 0;
+    letDepth = depth;
+    slotCount = slots;
+    recovering = false;
+    pushFrame(TOP, null, -1);
+    boolean exprStart = true;  // True if an operand would start an expr.
+
+    while (true)
+    {
+      // Read an operand, opening a frame for each let or parenthesis
+      // in front of it.
+      switch (nextTok.getType())
+      {
+        case LET:
+          if (exprStart && reuse != null && reuseSubtree())
+            break;
+          if (!exprStart)
+          {
+            logError(ErrorKind.UNEXPECTED_TOKEN, null, "Unexpected token " + nextTok.toString());
+            skipToSync(true);
+            pushError();
+            break;
+          }
+          int letStart = cursor - 1;
+          nextToken(); // variable token
+          Token variable = nextTok;
+          if (variable.getType() != TokenType.ID)
+          {
+            if (logError(ErrorKind.MISSING_IDENTIFIER, TokenType.ID, "Let expression expected identifier, saw " + variable + "."))
+              unexpected();
+            if (reuse != null)
+              reuse.drop(letStart);
+            skipToSync(false);
+            pushError();
+            break;
+          }
+          nextToken(); // assignment operator token
+          if (nextTok.getType() != TokenType.ASGN)
+          {
+            if (logError(ErrorKind.MISSING_ASSIGNMENT, TokenType.ASGN, "Let expression missing assignment!"))
+              unexpected();
+            if (reuse != null)
+              reuse.drop(letStart);
+            skipToSync(false);
+            pushError();
+            break;
+          }
+          pushFrame(LET_BIND, variable, letDepth);
+          frameStarts[frameCount - 1] = letStart;
+          frameAsgns[frameCount - 1] = cursor - 1;
+          frameErrors[frameCount - 1] = errorEvents;
+          openSlots();
+          nextToken();
+          continue;
+
+        case LPAREN:
+          if (reuse != null && reuseSubtree())
+            break;
+          pushFrame(PAREN, null, -1);
+          frameStarts[frameCount - 1] = cursor - 1;
+          frameErrors[frameCount - 1] = errorEvents;
+          openSlots();
+          exprStart = true;
+          nextToken();
+          continue;
+
+        case ID:
+          pushLeaf(nextTok, binding(nextTok.getSymbol()));
+          nextOperator();
+          break;
+
+        case INT:
+        case REAL:
+          pushLeaf(nextTok, -1);
+          nextOperator();
+          break;
+
+        default:
+          logError(ErrorKind.UNEXPECTED_TOKEN, null, "Unexpected token " + nextTok.toString());
+          pushError();
+          break;
+      }
+
+      // Read the operator after the operand, closing every frame the
+      // operand ends.
+      while (true)
+      {
+        TokenType type = nextTok.getType();
+        int precedence = precedence(type);
+        if (precedence > 0)
+        {
+          reduce(precedence);
+          pushOperator(nextTok);
+          exprStart = false;
+          nextToken();
+          break;
         }
-        leftnode = nextNode(); // left expression node
-        nextToken(); // 'in' keyword token
-        if (nextTok.getType() != TokenType.IN) {
-          logError("Let expression expected in, saw " + nextTok.toString() + ".");
-          logError("Parse error, unexpected token " + nextTok.toString());
-          return new TokenNode();
+
+        reduce(1);
+        int kind = frameKinds[frameCount - 1];
+        if (kind == TOP)
+        {
+          if (type == TokenType.EOF || type == TokenType.SEMI
+              || type == TokenType.NEWLINE)
+          {
+            frameCount--;
+            return popRoot();
+          }
+          logError(ErrorKind.UNEXPECTED_TOKEN, TokenType.EOF, "Unexpected token " + nextTok.toString());
+          skipToSync(true);
         }
-        rightnode = nextNode(); // right expression node
-        return new LetNode(variable, leftnode, rightnode);
-      } else if (nextTok.getType() == TokenType.REAL || nextTok.getType() == TokenType.INT || nextTok.getType() == TokenType.ID || nextTok.getType() == TokenType.LPAREN) {
-        if (nextTok.getType() == TokenType.LPAREN)
-          leftnode = nextNode();
-        else
-          leftnode = new TokenNode(nextTok);
-        while (nextTok.getType() != TokenType.EOF && nextTok.getType() != TokenType.IN) {
-          nextToken();
-          if (nextTok.getType() == TokenType.EOF || nextTok.getType() == TokenType.IN || nextTok.getType() == TokenType.RPAREN) {
-            // if (nextTok.getType() != TokenType.RPAREN)
-              unread();
-            return leftnode;
+        else if (kind == PAREN)
+        {
+          if (type == TokenType.RPAREN)
+          {
+            frameCount--;
+            parenCount--;
+            if (reuse != null)
+              recordParen();
+            closeSlots();
+            nextOperator();
+            continue;
           }
-          Token op = nextTok;
-          nextToken();
-          // ((op.getType() == TokenType.ADD || op.getType() == TokenType.SUB) && 
-          // (lex.nextToken().getType() == TokenType.MULT || lex.nextToken().getType() == TokenType.DIV)))
-          
-          /* if (op.getType() == TokenType.ADD) {
-            rightnode = nextNode();
-          } else if (op.getType() == TokenType.SUB) {
-            rightnode = nextNode();
-            if (rightnode.getOpType() == TokenType.ADD)
-              rightnode.setOpType(TokenType.SUB);
-            else if (rightnode.getOpType() == TokenType.SUB)
-              rightnode.setOpType(TokenType.ADD);
-          } else */ if (nextTok.getType() == TokenType.LPAREN) {
-            rightnode = nextNode();
+          if (logError(ErrorKind.MISSING_RPAREN, TokenType.RPAREN, "Parenthesized expression expected RPAREN, saw " + nextTok + "."))
+            unexpected();
+          if (closesOuterFrame(type))
+          {
+            frameCount--;
+            parenCount--;
+            closeSlots();
+          }
+          else
+            skipToSync(true);
+        }
+        else if (kind == LET_BIND)
+        {
+          if (type == TokenType.IN)
+          {
+            frameCount--;
+            bindCount--;
+            Token variable = frameVariables[frameCount];
+            int slot = frameSlots[frameCount];
+            // The body frame takes the place of the bind frame, so it keeps
+            // its start, error count and slots needed before it.
+            pushFrame(LET_BODY, variable, slot);
+            frameShadowed[frameCount - 1] = ownBinding(variable.getSymbol());
+            frameIns[frameCount - 1] = cursor - 1;
+            frameBindSlots[frameCount - 1] = slotCount;
+            bind(variable.getSymbol(), slot);
+            if (reuse != null)
+              scope = reuse.enter(scope, variable.getSymbol());
+            letDepth++;
+            slotCount = 0;
+            slotCount = Math.max(slotCount, letDepth);
+            exprStart = true;
             nextToken();
-          } else
-            rightnode = new TokenNode(nextTok);
-          // if (op.toString() == "EOF" || op.getType() == TokenType.IN)
-          //   return leftnode;
-          leftnode = new BinOpNode(leftnode, op, rightnode);
-          // if ((lex.nextToken().getType() == TokenType.ADD || lex.nextToken().getType() == TokenType.SUB) && 
-          // (op.getType() == TokenType.MULT || op.getType() == TokenType.DIV))
-          //   return leftnode;
+            break;
+          }
+          if (logError(ErrorKind.MISSING_IN, TokenType.IN, "Let expression expected in, saw " + nextTok.toString() + "."))
+            unexpected();
+          if (closesOuterFrame(type))
+          {
+            frameCount--;
+            bindCount--;
+            frameVariables[frameCount] = null;
+            closeSlots();
+          }
+          else
+            skipToSync(true);
+        }
+        else // LET_BODY
+        {
+          frameCount--;
+          Token variable = frameVariables[frameCount];
+          pushLet(variable, frameSlots[frameCount]);
+          bind(variable.getSymbol(), frameShadowed[frameCount]);
+          if (reuse != null)
+            scope = scope.getOuter();
+          letDepth--;
+          frameVariables[frameCount] = null;
+          int bodySlots = slotCount;
+          slotCount = Math.max(slotCount, frameBindSlots[frameCount]);
+          if (reuse != null)
+            recordLet(bodySlots);
+          closeSlots();
         }
-        // if (nextTok.getType() == TokenType.RPAREN)
-        //   unread();
-        return leftnode;
-      } else {
-        logError("Unexpected token " + nextTok.toString());
-        return new TokenNode();
       }
     }
-    logError("Unexpected token " + nextTok.toString());
-    return new TokenNode();
   }
 
   /**
-   * Logs an error to the console.
+   * Determines if a token that does not fit the innermost frame closes a
+   * frame further out, so the innermost frame should be closed rather
+   * than the token skipped.
+   * @param type the type of the token.
+   * @return true if the token closes an outer frame; otherwise, false.
+   */
+  private boolean closesOuterFrame(TokenType type)
+  {
+    switch (type)
+    {
+      case EOF:
+      case SEMI:
+      case NEWLINE:
+        return true;
+      case RPAREN:
+        return parenCount > 0;
+      case IN:
+        return bindCount > 0;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Skips input after a syntax error up to a token the parse can go on
+   * from: an {@code in}, a right parenthesis, a separator, the end of the
+   * input, or the first token on a line after the error.
+   * @param consume true to skip {@code nextTok} even if it is such a token.
+   */
+  private void skipToSync(boolean consume)
+  {
+    if (consume && nextTok.getType() != TokenType.EOF)
+      skipToken();
+    while (true)
+    {
+      switch (nextTok.getType())
+      {
+        case IN:
+        case RPAREN:
+        case SEMI:
+        case NEWLINE:
+        case EOF:
+          return;
+        default:
+          if (tokenLine() > syncLine)
+            return;
+          skipToken();
+      }
+    }
+  }
+
+  /**
+   * Logs that {@code nextTok} was not expected.
+   */
+  private void unexpected()
+  {
+    errors.println("Error (" + lineNumber() + "): Parse error, unexpected token " + nextTok.toString());
+  }
+
+  /**
+   * Gets the binding strength of a binary operator.
+   * @param type the type of the token.
+   * @return the precedence of the operator, or 0 if {@code type} is not
+   * a binary operator.
+   */
+  private static int precedence(TokenType type)
+  {
+    switch (type)
+    {
+      case ADD:
+      case SUB:
+        return 1;
+      case MULT:
+      case DIV:
+        return 2;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Combines the operators of the current frame that bind at least as
+   * tightly as {@code precedence} with their operands. Operators of equal
+   * precedence are combined left to right.
+   * @param precedence the precedence of the operator about to be pushed.
+   */
+  private void reduce(int precedence)
+  {
+    int base = frameBases[frameCount - 1];
+    while (operatorCount > base
+        && precedence(operators[operatorCount - 1].getType()) >= precedence)
+    {
+      Token op = operators[--operatorCount];
+      operators[operatorCount] = null;
+      pushBinOp(op);
+    }
+  }
+
+  /**
+   * Pushes the empty node that stands in for input that could not be
+   * parsed.
+   */
+  private void pushError()
+  {
+    if (arena != null)
+      pushNode(arena.addError());
+    else
+      pushOperand(new TokenNode());
+  }
+
+  /**
+   * Pushes a literal or identifier leaf for {@code tok}, the token just
+   * read.
+   * @param tok the token of the leaf.
+   * @param slot the slot of a bound identifier, or -1.
+   */
+  private void pushLeaf(Token tok, int slot)
+  {
+    if (arena != null)
+      pushNode(arena.addLeaf(tok, slot));
+    else
+      pushOperand(new TokenNode(tok, slot));
+  }
+
+  /**
+   * Replaces the top two operands by their combination with an operator.
+   * @param op the operator.
+   */
+  private void pushBinOp(Token op)
+  {
+    if (arena != null)
+    {
+      int right = nodeStack[--operandCount];
+      int left = nodeStack[--operandCount];
+      pushNode(arena.addBinOp(op.getType(), left, right));
+      return;
+    }
+    SyntaxNode right = operands[--operandCount];
+    int rightParen = operandParens[operandCount];
+    SyntaxNode left = operands[--operandCount];
+    int leftParen = operandParens[operandCount];
+    BinOpNode node = new BinOpNode(left, op, right);
+    adopt(leftParen, node, SubtreeCache.LEFT);
+    adopt(rightParen, node, SubtreeCache.RIGHT);
+    pushOperand(node);
+  }
+
+  /**
+   * Replaces the top two operands, the bound expression and body of the
+   * let of the frame just closed, by the let.
+   * @param variable the variable of the let.
+   * @param slot the slot of the variable.
+   */
+  private void pushLet(Token variable, int slot)
+  {
+    if (arena != null)
+    {
+      int body = nodeStack[--operandCount];
+      int bound = nodeStack[--operandCount];
+      pushNode(arena.addLet(variable, slot, bound, body));
+      return;
+    }
+    SyntaxNode body = operands[--operandCount];
+    int bodyParen = operandParens[operandCount];
+    SyntaxNode bound = operands[--operandCount];
+    int boundParen = operandParens[operandCount];
+    LetNode node = new LetNode(variable, slot, bound, body);
+    adopt(boundParen, node, SubtreeCache.LEFT);
+    adopt(bodyParen, node, SubtreeCache.RIGHT);
+    pushOperand(node);
+  }
+
+  /**
+   * Pops the root of the expression off the operand stack.
+   * @return the root, which is a view of the arena in a flat parse.
+   */
+  private SyntaxNode popRoot()
+  {
+    if (arena != null)
+    {
+      arena.complete();
+      return arena.node(nodeStack[--operandCount]);
+    }
+    SyntaxNode root = operands[--operandCount];
+    rootParen = operandParens[operandCount];
+    return root;
+  }
+
+  /**
+   * Pushes a node of the arena onto the operand stack.
+   * @param node the index of the node to push.
+   */
+  private void pushNode(int node)
+  {
+    if (operandCount == nodeStack.length)
+      nodeStack = Arrays.copyOf(nodeStack, operandCount * 2);
+    nodeStack[operandCount++] = node;
+    nodeCount++;
+    if (listener != null)
+      listener.nodeCreated(arena.node(node));
+  }
+
+  /**
+   * Pushes a node onto the operand stack.
+   * @param node the node to push.
+   */
+  private void pushOperand(SyntaxNode node)
+  {
+    if (operandCount == operands.length)
+      growOperands();
+    operandParens[operandCount] = -1;
+    operands[operandCount++] = node;
+    nodeCount++;
+    if (listener != null)
+      listener.nodeCreated(node);
+  }
+
+  /**
+   * Pushes a token onto the operator stack.
+   * @param op the operator to push.
+   */
+  private void pushOperator(Token op)
+  {
+    if (operatorCount == operators.length)
+      operators = Arrays.copyOf(operators, operatorCount * 2);
+    operators[operatorCount++] = op;
+  }
+
+  /**
+   * Opens a new frame.
+   * @param kind the kind of frame.
+   * @param variable the variable of a let frame, or null.
+   * @param slot the slot of a let frame, or -1.
+   */
+  private void pushFrame(int kind, Token variable, int slot)
+  {
+    if (frameCount == frameKinds.length)
+    {
+      frameKinds = Arrays.copyOf(frameKinds, frameCount * 2);
+      frameBases = Arrays.copyOf(frameBases, frameCount * 2);
+      frameVariables = Arrays.copyOf(frameVariables, frameCount * 2);
+      frameSlots = Arrays.copyOf(frameSlots, frameCount * 2);
+      frameShadowed = Arrays.copyOf(frameShadowed, frameCount * 2);
+      frameAsgns = Arrays.copyOf(frameAsgns, frameCount * 2);
+      frameIns = Arrays.copyOf(frameIns, frameCount * 2);
+      frameBindSlots = Arrays.copyOf(frameBindSlots, frameCount * 2);
+      frameStarts = Arrays.copyOf(frameStarts, frameCount * 2);
+      frameErrors = Arrays.copyOf(frameErrors, frameCount * 2);
+      frameSlotCounts = Arrays.copyOf(frameSlotCounts, frameCount * 2);
+    }
+    frameKinds[frameCount] = kind;
+    frameBases[frameCount] = operatorCount;
+    frameVariables[frameCount] = variable;
+    frameSlots[frameCount] = slot;
+    frameCount++;
+    if (kind == PAREN)
+      parenCount++;
+    else if (kind == LET_BIND)
+      bindCount++;
+  }
+
+  /**
+   * Starts counting the slots needed by the frame just opened, so that a
+   * subtree kept for reuse notes the slots of its own lets alone.
+   */
+  private void openSlots()
+  {
+    frameSlotCounts[frameCount - 1] = slotCount;
+    slotCount = 0;
+  }
+
+  /**
+   * Adds the slots needed by the frame just closed to those needed before
+   * it.
+   */
+  private void closeSlots()
+  {
+    slotCount = Math.max(slotCount, frameSlotCounts[frameCount]);
+  }
+
+  /**
+   * Drops the references the stacks hold once a parse is done, so a parser
+   * that is kept for reuse does not keep old trees alive. Stacks that grew
+   * large for deeply nested input are given back.
+   */
+  private void releaseStacks()
+  {
+    if (operands.length > MAX_KEPT_STACK)
+    {
+      operands = new SyntaxNode[16];
+      operandParens = new int[16];
+    }
+    else
+      Arrays.fill(operands, null);
+    if (nodeStack.length > MAX_KEPT_STACK)
+      nodeStack = new int[16];
+    if (operators.length > MAX_KEPT_STACK)
+      operators = new Token[16];
+    else
+      Arrays.fill(operators, null);
+    if (frameKinds.length > MAX_KEPT_STACK)
+    {
+      frameKinds = new int[16];
+      frameBases = new int[16];
+      frameVariables = new Token[16];
+      frameSlots = new int[16];
+      frameShadowed = new int[16];
+      frameAsgns = new int[16];
+      frameIns = new int[16];
+      frameBindSlots = new int[16];
+      frameStarts = new int[16];
+      frameErrors = new int[16];
+      frameSlotCounts = new int[16];
+    }
+    else
+      Arrays.fill(frameVariables, null);
+    if (bindings.length > MAX_KEPT_STACK)
+    {
+      bindings = new int[16];
+      Arrays.fill(bindings, -1);
+    }
+    scope = null;
+    nextTok = null;
+  }
+
+  /**
+   * Gets the slot of the innermost binding of a symbol.
+   * @param symbol the symbol id of an identifier.
+   * @return the slot the identifier is bound to, or -1 if it is free.
+   */
+  private int binding(int symbol)
+  {
+    int slot = ownBinding(symbol);
+    if (slot >= 0 || outside == null)
+      return slot;
+    return outside.slotOf(symbol);
+  }
+
+  /**
+   * Gets the slot of the innermost binding of a symbol by a let of this
+   * parse, leaving out the scope around a region.
+   * @param symbol the symbol id of an identifier.
+   * @return the slot the identifier is bound to, or -1 if none is.
+   */
+  private int ownBinding(int symbol)
+  {
+    return symbol >= 0 && symbol < bindings.length ? bindings[symbol] : -1;
+  }
+
+  /**
+   * Sets the slot of the innermost binding of a symbol.
+   * @param symbol the symbol id of an identifier.
+   * @param slot the slot the identifier is bound to, or -1 if it is free.
+   */
+  private void bind(int symbol, int slot)
+  {
+    if (symbol < 0)
+      return;
+    if (symbol >= bindings.length)
+    {
+      int old = bindings.length;
+      bindings = Arrays.copyOf(bindings, Math.max(old * 2, symbol + 1));
+      Arrays.fill(bindings, old, bindings.length, -1);
+    }
+    bindings[symbol] = slot;
+  }
+
+  /**
+   * Takes the subtree starting at {@code nextTok} from the subtree cache,
+   * if it was parsed without errors in the same scope, and skips its
+   * tokens.
+   * @return true if a subtree was reused; otherwise, false.
+   */
+  private boolean reuseSubtree()
+  {
+    int start = cursor - 1;
+    SyntaxNode node = reuse.lookup(start, scope);
+    if (node == null)
+      return false;
+
+    if (operandCount == operands.length)
+      growOperands();
+    operandParens[operandCount] = nextTok.getType() == TokenType.LPAREN ? start : -1;
+    operands[operandCount++] = node;
+    slotCount = Math.max(slotCount, reuse.slotCount(start));
+    cursor = start + reuse.length(start);
+    nextOperator();
+    return true;
+  }
+
+  /**
+   * Adds the parenthesized subtree just closed to the subtree cache if it
+   * was parsed without errors. Parentheses just inside it share its node.
+   */
+  private void recordParen()
+  {
+    int start = frameStarts[frameCount];
+    if (frameErrors[frameCount] != errorEvents)
+      return;
+    reuse.recordParen(start, cursor - 1, operands[operandCount - 1], scope,
+        slotCount);
+    adopt(operandParens[operandCount - 1], null, SubtreeCache.SAME);
+    operandParens[operandCount - 1] = start;
+  }
+
+  /**
+   * Adds the let just closed to the subtree cache if it was parsed without
+   * errors.
+   * @param bodySlots the slots needed by the body.
+   */
+  private void recordLet(int bodySlots)
+  {
+    if (frameErrors[frameCount] == errorEvents)
+      reuse.recordLet(frameStarts[frameCount], frameAsgns[frameCount],
+          frameIns[frameCount], cursor - 1, operands[operandCount - 1], scope,
+          frameBindSlots[frameCount], bodySlots);
+  }
+
+  /**
+   * Notes in the subtree cache the node that takes a parenthesized subtree
+   * as a child.
+   * @param paren the left parenthesis of the subtree, or -1 for an operand
+   * that is not one.
+   * @param parent the node holding the subtree, or null.
+   * @param side where in the node it is held.
+   */
+  private void adopt(int paren, SyntaxNode parent, int side)
+  {
+    if (paren >= 0)
+      reuse.adopt(paren, parent, side);
+  }
+
+  /**
+   * Doubles the room on the operand stack.
+   */
+  private void growOperands()
+  {
+    operands = Arrays.copyOf(operands, operandCount * 2);
+    operandParens = Arrays.copyOf(operandParens, operandCount * 2);
+  }
+
+  /**
+   * Logs an error to the console and adds it to the diagnostics, unless
+   * it follows from an error the parse has not recovered from yet.
+   * @param kind the kind of error.
+   * @param expected the type of token that was expected, or null if any
+   * operand would do.
    * @param msg the error message to dispaly.
+   * @return true if the error was reported; false if it was suppressed.
    */
-   private void logError(String msg)
+   private boolean logError(ErrorKind kind, TokenType expected, String msg)
    {
-     System.err.println("Error (" + lex.getLineNumber() + "): " + msg);
      errorFound = true;
+     errorEvents++;
+     syncLine = tokenLine();
+     if (recovering)
+       return false;
+     recovering = true;
+
+     Diagnostic diagnostic = new Diagnostic(kind, syncLine, tokenColumn(),
+         expected, nextTok.getType(), msg);
+     if (diagnostics.isEmpty())
+       diagnostics = new ArrayList<>();
+     diagnostics.add(diagnostic);
+     errors.println("Error (" + lineNumber() + "): " + msg);
+     errorCounts[kind.ordinal()]++;
+     if (listener != null)
+       listener.syntaxError(diagnostic);
+     return true;
    }
 
-   /**
-    * This prints a message to the screen on if {@code doTracing} is
-    * true.
-    * @param msg the message to display to the screen.
-    */
-    private void trace(String msg)
+    /**
+     * Gets the next token from the lexer, passing it to the listener.
+     */
+    private void nextToken()
     {
-      if (doTracing)
-        System.out.println(msg);
+      recovering = false;
+      nextTok = readToken();
+      while (nextTok.getType() == TokenType.UNKNOWN
+          || nextTok.getType() == TokenType.NEWLINE)
+        nextTok = readToken();
+
+      if (listener != null)
+        listener.tokenRead(nextTok);
     }
 
     /**
-     * Gets the next token from the lexer potentially logging that
-     * token to the screen.
+     * Gets the token after a complete operand. A line break there ends the
+     * expression unless a parenthesis or let around the operand is still
+     * open.
      */
-    private void nextToken()
+    private void nextOperator()
+    {
+      recovering = false;
+      nextTok = readToken();
+      while (nextTok.getType() == TokenType.UNKNOWN
+          || (nextTok.getType() == TokenType.NEWLINE
+              && parenCount + bindCount > 0))
+        nextTok = readToken();
+
+      if (listener != null)
+        listener.tokenRead(nextTok);
+    }
+
+    /**
+     * Skips {@code nextTok} while recovering from a syntax error.
+     */
+    private void skipToken()
+    {
+      if (reuse != null)
+        reuse.drop(cursor - 1);
+      nextTok = readToken();
+      if (listener != null)
+        listener.tokenRead(nextTok);
+    }
+
+    /**
+     * Reads the next token from the token stream if there is one, or else
+     * from the lexer. A region of the stream ends in an end of input before
+     * the token that closes it.
+     * @return the next token.
+     */
+    private Token readToken()
     {
-      if (!readNext) {
-        readNext = true;
-        return;
+      tokenCount++;
+      if (tokens == null)
+        return lex.nextToken();
+      if (limit >= 0)
+      {
+        // A region ends as the input does.
+        if (cursor < limit)
+          return tokens.token(cursor++);
+        cursor = limit + 1;
+        return Token.of(TokenType.EOF);
       }
-      nextTok = lex.nextToken();
-      while (nextTok.getType() == TokenType.UNKNOWN)
-        nextTok = lex.nextToken();
+      if (cursor < tokens.size() - 1)
+        return tokens.token(cursor++);
+      cursor = tokens.size();
+      return tokens.token(tokens.size() - 1);
+    }
 
-      if (doTracing)
-        System.out.println("nextToken: " + nextTok);
+    /**
+     * Gets the line number of the token last read.
+     * @return the current line number.
+     */
+    private long lineNumber()
+    {
+      return tokens == null ? lex.getLineNumber() : tokens.line(Math.max(cursor - 1, 0));
+    }
 
+    /**
+     * Gets the line the token last read starts on.
+     * @return the line of {@code nextTok}.
+     */
+    private long tokenLine()
+    {
+      return tokens == null ? lex.getTokenLine() : tokens.startLine(Math.max(cursor - 1, 0));
+    }
+
+    /**
+     * Gets the column the token last read starts at.
+     * @return the column of {@code nextTok}, counting from 1.
+     */
+    private int tokenColumn()
+    {
+      return tokens == null ? lex.getTokenColumn() : tokens.column(Math.max(cursor - 1, 0));
+    }
+
+    /**
+     * Gets the symbol table of the identifiers being parsed.
+     * @return the symbol table of the input.
+     */
+    private SymbolTable symbols()
+    {
+      return tokens == null ? lex.getSymbolTable() : tokens.getSymbolTable();
     }
 
 }
@@ -0,0 +1,29 @@
+package parser;
+
+import ast.SyntaxTree;
+
+/**
+ * A parser that may be shared between threads. It keeps no state of its
+ * own between calls; each thread parses with its own {@link Parser}, which
+ * is reset for every parse rather than built anew, so parsing on many
+ * threads at once neither contends nor allocates a lexer and parser per
+ * call.
+ */
+public class SharedParser
+{
+  private final ThreadLocal<Parser> contexts =
+    ThreadLocal.withInitial(() -> new Parser(""));
+
+  /**
+   * Parses {@code source}.
+   * @param source the code to parse.
+   * @return the result of the parse.
+   */
+  public ParseResult parse(CharSequence source)
+  {
+    Parser parser = contexts.get();
+    parser.reset(source);
+    SyntaxTree tree = parser.parse();
+    return new ParseResult(source.toString(), tree, parser.getDiagnostics());
+  }
+}
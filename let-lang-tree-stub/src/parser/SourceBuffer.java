@@ -0,0 +1,111 @@
+package parser;
+
+/**
+ * The text of a source being edited, kept as a gap buffer: the characters
+ * after the last edit are kept at the end of the array, so an edit only
+ * moves the characters between it and the edit before.
+ */
+class SourceBuffer implements CharSequence
+{
+  private char[] chars;   // The text, with the gap in the middle.
+  private int gapStart;   // The index of the first free element.
+  private int gapEnd;     // The element of the first character after the gap.
+
+  /**
+   * Constructs a buffer holding a text.
+   * @param text the text.
+   */
+  SourceBuffer(String text)
+  {
+    chars = new char[Math.max(16, text.length() * 2)];
+    text.getChars(0, text.length(), chars, 0);
+    gapStart = text.length();
+    gapEnd = chars.length;
+  }
+
+  /**
+   * Replaces part of the text.
+   * @param offset the offset of the first character replaced.
+   * @param deleted the number of characters replaced.
+   * @param inserted the text to put in their place.
+   */
+  void replace(int offset, int deleted, String inserted)
+  {
+    if (offset < gapStart)
+    {
+      int count = gapStart - offset;
+      System.arraycopy(chars, offset, chars, gapEnd - count, count);
+      gapEnd -= count;
+    }
+    else if (offset > gapStart)
+    {
+      int count = offset - gapStart;
+      System.arraycopy(chars, gapEnd, chars, gapStart, count);
+      gapEnd += count;
+    }
+    gapStart = offset;
+    gapEnd += deleted;
+
+    if (gapEnd - gapStart < inserted.length())
+    {
+      int tail = chars.length - gapEnd;
+      char[] bigger = new char[Math.max(chars.length * 2,
+          gapStart + inserted.length() + tail)];
+      System.arraycopy(chars, 0, bigger, 0, gapStart);
+      System.arraycopy(chars, gapEnd, bigger, bigger.length - tail, tail);
+      chars = bigger;
+      gapEnd = bigger.length - tail;
+    }
+    inserted.getChars(0, inserted.length(), chars, gapStart);
+    gapStart += inserted.length();
+  }
+
+  /**
+   * Gets the length of the text.
+   * @return the number of characters.
+   */
+  @Override
+  public int length()
+  {
+    return chars.length - (gapEnd - gapStart);
+  }
+
+  /**
+   * Gets a character of the text.
+   * @param index the offset of the character.
+   * @return the character.
+   */
+  @Override
+  public char charAt(int index)
+  {
+    return chars[index < gapStart ? index : index + gapEnd - gapStart];
+  }
+
+  /**
+   * Gets part of the text.
+   * @param start the offset of the first character.
+   * @param end the offset after the last character.
+   * @return a copy of the characters.
+   */
+  @Override
+  public CharSequence subSequence(int start, int end)
+  {
+    StringBuilder text = new StringBuilder(end - start);
+    for (int i = start; i < end; i++)
+      text.append(charAt(i));
+    return text.toString();
+  }
+
+  /**
+   * Gets the text.
+   * @return a copy of the text.
+   */
+  @Override
+  public String toString()
+  {
+    StringBuilder text = new StringBuilder(length());
+    text.append(chars, 0, gapStart);
+    text.append(chars, gapEnd, chars.length - gapEnd);
+    return text.toString();
+  }
+}
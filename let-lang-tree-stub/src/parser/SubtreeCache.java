@@ -0,0 +1,711 @@
+package parser;
+
+import ast.nodes.BinOpNode;
+import ast.nodes.LetNode;
+import ast.nodes.SyntaxNode;
+import java.util.Arrays;
+import java.util.HashMap;
+import lexer.TokenStream;
+
+/**
+ * The parenthesized and let subtrees of earlier parses of a token stream,
+ * indexed by their first token. A subtree may be used again as long as
+ * none of its tokens has changed and it is parsed in the same scope: the
+ * same variables bound by the same nesting of let bodies, which fix the
+ * slots its identifiers and lets were given. A let also depends on the
+ * token after it, which ends its body.
+ *
+ * Scopes are made by the cache and kept across parses, one for each
+ * nesting of variables, so two scopes are the same exactly when they are
+ * the same object and a subtree is never taken into a scope it was not
+ * parsed in.
+ *
+ * The subtrees are kept in a gap buffer like the tokens of the stream, and
+ * a subtree finds the token it ends at through a mark that moves with the
+ * token, so an edit only moves the subtrees between it and the edit
+ * before. The subtrees around an edit keep their marks, which is what lets
+ * {@link #enclosing(int, int)} find the smallest part of the tree that an
+ * edit can be parsed again in, and {@link #attach(Region, SyntaxNode)} put
+ * the new part in place in the tree. Parenthesized subtrees know the node
+ * holding them for that; a let holds its own parts.
+ */
+class SubtreeCache
+{
+  // Where the node of a parenthesized subtree is held.
+  static final int ROOT = 0;   // It is the root of the tree.
+  static final int LEFT = 1;   // It is the left child of its parent.
+  static final int RIGHT = 2;  // It is the right child of its parent.
+  static final int SAME = 3;   // It is the node of the parentheses around it.
+
+  private SyntaxNode[] nodes;  // The subtree at each token.
+  private Mark[] ends;         // The last token each subtree depends on.
+  private Mark[] asgns;        // The assignment of each let.
+  private Mark[] ins;          // The in of each let.
+  private boolean[] lets;      // True if the subtree is a let.
+  private Scope[] scopes;      // The scope of each subtree.
+  private int[] slotCounts;    // The slots each subtree needs.
+  private int[] bindSlots;     // The slots the bound expression of a let needs.
+  private int[] bodySlots;     // The slots the body of a let needs.
+  private SyntaxNode[] parents; // The node holding each parenthesized subtree.
+  private int[] sides;         // Where the node of each one is held.
+  private Mark[] marks;        // The mark of each token, or null.
+  private int size;            // The number of tokens in the stream.
+  private int gapStart;        // The index of the first free element.
+  private int gapEnd;          // The element of the first token after the gap.
+  private int edited = -1;     // The first token the last edit replaced.
+  private Scope top = new Scope(null, -1);  // The scope outside every let.
+  private int scopeCount;      // The scopes made from top.
+
+  /**
+   * The place of a token that moves along with the edits before it. A
+   * token edited away leaves its mark behind as no place at all.
+   */
+  private static final class Mark
+  {
+    private int element;   // The element of the token, or -1.
+
+    /**
+     * Constructs a mark.
+     * @param element the element of the token.
+     */
+    private Mark(int element)
+    {
+      this.element = element;
+    }
+  }
+
+  /**
+   * The variables in scope at a token, the variable of each let body
+   * around it. A scope is reached from the one around its let body by the
+   * symbol of the variable of the let.
+   */
+  static final class Scope
+  {
+    private final Scope outer;   // The scope around the let body, or null.
+    private final int symbol;    // The symbol of the variable, or -1.
+    private final int depth;     // The let bodies around the scope.
+    private final HashMap<Integer, Scope> inner = new HashMap<>(4);  // The scopes of the let bodies inside, by symbol.
+
+    /**
+     * Constructs a scope.
+     * @param outer the scope around the let body, or null.
+     * @param symbol the symbol id of the variable of the let, or -1.
+     */
+    private Scope(Scope outer, int symbol)
+    {
+      this.outer = outer;
+      this.symbol = symbol;
+      depth = outer == null ? 0 : outer.depth + 1;
+    }
+
+    /**
+     * Gets the scope around the let body of this one.
+     * @return the outer scope.
+     */
+    Scope getOuter()
+    {
+      return outer;
+    }
+
+    /**
+     * Gets the number of let bodies around the scope, which is the slot
+     * the next let inside it is given.
+     * @return the depth of the scope.
+     */
+    int getDepth()
+    {
+      return depth;
+    }
+
+    /**
+     * Finds the slot of the innermost variable of the scope with a symbol.
+     * @param symbol the symbol id of an identifier.
+     * @return the slot of the variable, or -1 if the identifier is free.
+     */
+    int slotOf(int symbol)
+    {
+      for (Scope scope = this; scope.outer != null; scope = scope.outer)
+        if (scope.symbol == symbol)
+          return scope.depth - 1;
+      return -1;
+    }
+  }
+
+  /**
+   * The part of a subtree an edit falls in: the inside of parentheses, or
+   * the bound expression or body of a let. It is parsed again on its own,
+   * from its first token up to the token that ends it.
+   */
+  static final class Region
+  {
+    private final int start;         // The first token of the subtree.
+    private final int from;          // The first token of the part.
+    private final int to;            // The token that ends the part.
+    private final Scope scope;       // The scope of the part.
+    private final boolean body;      // True for the body of a let.
+    private final int slotCount;     // The slots the part needs.
+    private final SyntaxNode parent; // The let holding the part, or null.
+    private final int side;          // Where the node of the part is held.
+
+    /**
+     * Constructs a region.
+     * @param start the first token of the subtree.
+     * @param from the first token of the part.
+     * @param to the token that ends the part.
+     * @param scope the scope of the part.
+     * @param body true for the body of a let.
+     * @param slotCount the slots the part needs.
+     * @param parent the let holding the part, or null for parentheses.
+     * @param side where the node of the part is held.
+     */
+    private Region(int start, int from, int to, Scope scope, boolean body,
+        int slotCount, SyntaxNode parent, int side)
+    {
+      this.start = start;
+      this.from = from;
+      this.to = to;
+      this.scope = scope;
+      this.body = body;
+      this.slotCount = slotCount;
+      this.parent = parent;
+      this.side = side;
+    }
+
+    /**
+     * Gets the first token of the part.
+     * @return the index of the token.
+     */
+    int getFrom()
+    {
+      return from;
+    }
+
+    /**
+     * Gets the token after the part, which ends it.
+     * @return the index of the token.
+     */
+    int getTo()
+    {
+      return to;
+    }
+
+    /**
+     * Gets the scope of the part.
+     * @return the scope.
+     */
+    Scope getScope()
+    {
+      return scope;
+    }
+
+    /**
+     * Determines if the part is the body of a let, whose variable is in
+     * scope.
+     * @return true for the body of a let; otherwise, false.
+     */
+    boolean isBody()
+    {
+      return body;
+    }
+
+    /**
+     * Gets the slots the part needed, which a new parse of it must need as
+     * well for the subtrees around it to stay as they are.
+     * @return the slots the part needs.
+     */
+    int getSlotCount()
+    {
+      return slotCount;
+    }
+
+    /**
+     * Gets the node holding the node of the part.
+     * @return the let of the part, or null for parentheses.
+     */
+    SyntaxNode getParent()
+    {
+      return parent;
+    }
+
+    /**
+     * Gets where the node of the part is held.
+     * @return {@link #LEFT} or {@link #RIGHT} in the let, or {@link #SAME}
+     * for the inside of parentheses.
+     */
+    int getSide()
+    {
+      return side;
+    }
+  }
+
+  /**
+   * Constructs an empty cache for a token stream.
+   * @param size the number of tokens in the stream.
+   */
+  SubtreeCache(int size)
+  {
+    int capacity = Math.max(64, size * 2);
+    nodes = new SyntaxNode[capacity];
+    ends = new Mark[capacity];
+    asgns = new Mark[capacity];
+    ins = new Mark[capacity];
+    lets = new boolean[capacity];
+    scopes = new Scope[capacity];
+    slotCounts = new int[capacity];
+    bindSlots = new int[capacity];
+    bodySlots = new int[capacity];
+    parents = new SyntaxNode[capacity];
+    sides = new int[capacity];
+    marks = new Mark[capacity];
+    this.size = size;
+    gapStart = size;
+    gapEnd = capacity;
+  }
+
+  /**
+   * Gets the scope outside every let, where a parse starts. Scopes are
+   * made again from time to time so those of old parses can be let go;
+   * subtrees of older scopes are then no longer used.
+   * @return the outermost scope.
+   */
+  Scope top()
+  {
+    if (scopeCount > Math.max(1024, 2 * nodes.length))
+    {
+      top = new Scope(null, -1);
+      scopeCount = 0;
+    }
+    return top;
+  }
+
+  /**
+   * Gets the scope of a let body.
+   * @param outer the scope around the let.
+   * @param symbol the symbol id of the variable of the let.
+   * @return the scope inside the let body.
+   */
+  Scope enter(Scope outer, int symbol)
+  {
+    Scope scope = outer.inner.get(symbol);
+    if (scope == null)
+    {
+      scope = new Scope(outer, symbol);
+      outer.inner.put(symbol, scope);
+      scopeCount++;
+    }
+    return scope;
+  }
+
+  /**
+   * Finds the subtree starting at a token. A subtree around the last edit
+   * is dropped, since its tokens have changed.
+   * @param start the index of the first token.
+   * @param scope the scope at the token.
+   * @return the subtree, or null if there is none for this scope.
+   */
+  SyntaxNode lookup(int start, Scope scope)
+  {
+    int e = element(start);
+    if (nodes[e] == null)
+      return null;
+    int end = index(ends[e]);
+    if (end < 0 || (start < edited && end >= edited))
+    {
+      clear(e);
+      return null;
+    }
+    return scopes[e] == scope ? nodes[e] : null;
+  }
+
+  /**
+   * Gets the number of tokens in the subtree starting at a token.
+   * @param start the index of the first token.
+   * @return the length of the subtree.
+   */
+  int length(int start)
+  {
+    int e = element(start);
+    return index(ends[e]) - start + (lets[e] ? 0 : 1);
+  }
+
+  /**
+   * Gets the number of slots the tree the subtree was parsed in needed.
+   * @param start the index of the first token.
+   * @return a number of slots enough for the subtree.
+   */
+  int slotCount(int start)
+  {
+    return slotCounts[element(start)];
+  }
+
+  /**
+   * Adds a parenthesized subtree. Where its node is held is set once the
+   * node is taken as an operand.
+   * @param start the index of the left parenthesis.
+   * @param end the index of the right parenthesis.
+   * @param node the subtree.
+   * @param scope the scope at the first token.
+   * @param slotCount a number of slots enough for the subtree.
+   */
+  void recordParen(int start, int end, SyntaxNode node, Scope scope,
+      int slotCount)
+  {
+    int e = element(start);
+    nodes[e] = node;
+    ends[e] = mark(end);
+    asgns[e] = null;
+    ins[e] = null;
+    lets[e] = false;
+    scopes[e] = scope;
+    slotCounts[e] = slotCount;
+    parents[e] = null;
+    sides[e] = ROOT;
+  }
+
+  /**
+   * Adds a let subtree.
+   * @param start the index of the let.
+   * @param asgn the index of the assignment of the let.
+   * @param in the index of the in of the let.
+   * @param end the index of the token after the body.
+   * @param node the subtree.
+   * @param scope the scope at the first token.
+   * @param bindSlots the slots the bound expression needs.
+   * @param bodySlots the slots the body needs.
+   */
+  void recordLet(int start, int asgn, int in, int end, SyntaxNode node,
+      Scope scope, int bindSlots, int bodySlots)
+  {
+    int e = element(start);
+    nodes[e] = node;
+    ends[e] = mark(end);
+    asgns[e] = mark(asgn);
+    ins[e] = mark(in);
+    lets[e] = true;
+    scopes[e] = scope;
+    slotCounts[e] = Math.max(bindSlots, bodySlots);
+    this.bindSlots[e] = bindSlots;
+    this.bodySlots[e] = bodySlots;
+    parents[e] = null;
+  }
+
+  /**
+   * Notes where the node of a parenthesized subtree is held.
+   * @param start the index of the left parenthesis.
+   * @param parent the node holding it, or null.
+   * @param side {@link #LEFT} or {@link #RIGHT} in {@code parent},
+   * {@link #ROOT}, or {@link #SAME} if it is the node of parentheses
+   * around it.
+   */
+  void adopt(int start, SyntaxNode parent, int side)
+  {
+    int e = element(start);
+    parents[e] = parent;
+    sides[e] = side;
+  }
+
+  /**
+   * Drops the subtree starting at a token, whose parts may be parsed into
+   * other subtrees.
+   * @param start the index of the first token.
+   */
+  void drop(int start)
+  {
+    clear(element(start));
+  }
+
+  /**
+   * Moves the subtrees along with an edit of the token stream and drops
+   * the ones whose tokens were replaced. The subtrees around the edit are
+   * kept for {@link #enclosing(int, int)}, but are not found by
+   * {@link #lookup(int, Scope)} until another edit.
+   * @param splice the tokens the edit replaced.
+   */
+  void splice(TokenStream.Splice splice)
+  {
+    int start = splice.getStart();
+    int removed = splice.getRemoved();
+    int inserted = splice.getInserted();
+
+    moveGap(start);
+    for (int e = gapEnd; e < gapEnd + removed; e++)
+    {
+      if (marks[e] != null)
+        marks[e].element = -1;
+      marks[e] = null;
+      clear(e);
+    }
+    gapEnd += removed;
+    size -= removed;
+
+    if (gapEnd - gapStart < inserted)
+      resize(Math.max(size + inserted, nodes.length * 2));
+    for (int e = gapStart; e < gapStart + inserted; e++)
+    {
+      marks[e] = null;
+      clear(e);
+    }
+    gapStart += inserted;
+    size += inserted;
+    edited = start;
+  }
+
+  /**
+   * Finds the smallest part of a subtree around an edit that the edit
+   * leaves the delimiters of: the inside of parentheses, or the bound
+   * expression or body of a let whose header the edit does not touch.
+   * @param first the first token the edit replaced.
+   * @param last the first token after the ones it put in their place.
+   * @return the part, or null if the edit is in no subtree.
+   */
+  Region enclosing(int first, int last)
+  {
+    for (int start = first - 1; start >= 0; start--)
+    {
+      int e = element(start);
+      if (nodes[e] == null)
+        continue;
+      int end = index(ends[e]);
+      if (end < last)
+        continue;
+      if (!lets[e])
+        return new Region(start, start + 1, end, scopes[e], false,
+            slotCounts[e], null, SAME);
+
+      int asgn = index(asgns[e]);
+      int in = index(ins[e]);
+      if (asgn >= 0 && asgn < first && in >= last)
+        return new Region(start, asgn + 1, in, scopes[e], false,
+            bindSlots[e], nodes[e], LEFT);
+      if (in >= 0 && in < first)
+      {
+        LetNode let = (LetNode) nodes[e];
+        return new Region(start, in + 1, end,
+            enter(scopes[e], let.getVariable().getSymbol()), true,
+            bodySlots[e], let, RIGHT);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Puts the new node of a part of a subtree in place of the old one, in
+   * the node holding it.
+   * @param region the part.
+   * @param node the new node of the part.
+   * @return the node if it is the new root of the tree, or null.
+   */
+  SyntaxNode attach(Region region, SyntaxNode node)
+  {
+    SyntaxNode parent = region.parent;
+    int side = region.side;
+    // Parentheses that share the node come one after the other, but for
+    // tokens that are not read.
+    for (int start = region.start; side == SAME; start--)
+    {
+      int e = element(start);
+      if (nodes[e] == null)
+        continue;
+      nodes[e] = node;
+      parent = parents[e];
+      side = sides[e];
+    }
+
+    if (side == ROOT)
+      return node;
+    if (parent instanceof LetNode)
+    {
+      if (side == LEFT)
+        ((LetNode) parent).setLeft(node);
+      else
+        ((LetNode) parent).setRight(node);
+    }
+    else if (side == LEFT)
+      ((BinOpNode) parent).setLeft(node);
+    else
+      ((BinOpNode) parent).setRight(node);
+    return null;
+  }
+
+  /************
+   * Private Methods
+   ***********/
+
+  /**
+   * Gets the element of the arrays that holds a token.
+   * @param i the index of the token.
+   * @return the element of token {@code i}.
+   */
+  private int element(int i)
+  {
+    return i < gapStart ? i : i + gapEnd - gapStart;
+  }
+
+  /**
+   * Gets the index of the token of a mark.
+   * @param mark the mark.
+   * @return the index of its token, or -1 if the token was edited away.
+   */
+  private int index(Mark mark)
+  {
+    if (mark.element < gapStart)
+      return mark.element;
+    return mark.element - (gapEnd - gapStart);
+  }
+
+  /**
+   * Gets the mark of a token, making it if there is none.
+   * @param i the index of the token.
+   * @return the mark.
+   */
+  private Mark mark(int i)
+  {
+    int e = element(i);
+    if (marks[e] == null)
+      marks[e] = new Mark(e);
+    return marks[e];
+  }
+
+  /**
+   * Drops the subtree of an element.
+   * @param e the element.
+   */
+  private void clear(int e)
+  {
+    nodes[e] = null;
+    ends[e] = null;
+    asgns[e] = null;
+    ins[e] = null;
+    scopes[e] = null;
+    parents[e] = null;
+  }
+
+  /**
+   * Moves the gap to just before a token, moving the marks of the tokens
+   * it passes over with them.
+   * @param i the index of the token the gap is to come before.
+   */
+  private void moveGap(int i)
+  {
+    if (i < gapStart)
+    {
+      int count = gapStart - i;
+      move(i, gapEnd - count, count);
+      gapStart = i;
+      gapEnd -= count;
+      remark(gapEnd, gapEnd + count);
+    }
+    else if (i > gapStart)
+    {
+      int count = i - gapStart;
+      move(gapEnd, gapStart, count);
+      remark(gapStart, i);
+      gapStart = i;
+      gapEnd += count;
+    }
+  }
+
+  /**
+   * Copies the subtrees and marks of some elements to other elements.
+   * @param from the first element to copy.
+   * @param to the element to copy it to.
+   * @param count the number of elements to copy.
+   */
+  private void move(int from, int to, int count)
+  {
+    System.arraycopy(nodes, from, nodes, to, count);
+    System.arraycopy(ends, from, ends, to, count);
+    System.arraycopy(asgns, from, asgns, to, count);
+    System.arraycopy(ins, from, ins, to, count);
+    System.arraycopy(lets, from, lets, to, count);
+    System.arraycopy(scopes, from, scopes, to, count);
+    System.arraycopy(slotCounts, from, slotCounts, to, count);
+    System.arraycopy(bindSlots, from, bindSlots, to, count);
+    System.arraycopy(bodySlots, from, bodySlots, to, count);
+    System.arraycopy(parents, from, parents, to, count);
+    System.arraycopy(sides, from, sides, to, count);
+    System.arraycopy(marks, from, marks, to, count);
+  }
+
+  /**
+   * Points the marks of some elements at them.
+   * @param from the first element.
+   * @param to the element after the last.
+   */
+  private void remark(int from, int to)
+  {
+    for (int e = from; e < to; e++)
+      if (marks[e] != null)
+        marks[e].element = e;
+  }
+
+  /**
+   * Moves the subtrees into larger arrays, the ones after the gap to the
+   * end.
+   * @param capacity the length of the new arrays.
+   */
+  private void resize(int capacity)
+  {
+    int tail = nodes.length - gapEnd;
+    int to = capacity - tail;
+    nodes = grow(nodes, capacity, tail);
+    ends = grow(ends, capacity, tail);
+    asgns = grow(asgns, capacity, tail);
+    ins = grow(ins, capacity, tail);
+    lets = grow(lets, capacity, tail);
+    scopes = grow(scopes, capacity, tail);
+    slotCounts = grow(slotCounts, capacity, tail);
+    bindSlots = grow(bindSlots, capacity, tail);
+    bodySlots = grow(bodySlots, capacity, tail);
+    parents = grow(parents, capacity, tail);
+    sides = grow(sides, capacity, tail);
+    marks = grow(marks, capacity, tail);
+    gapEnd = to;
+    remark(gapEnd, capacity);
+  }
+
+  /**
+   * Copies an array into a larger one, keeping the gap in the middle.
+   * @param array the array to copy.
+   * @param capacity the length of the new array.
+   * @param tail the number of elements after the gap.
+   * @return the new array.
+   */
+  private <T> T[] grow(T[] array, int capacity, int tail)
+  {
+    T[] bigger = Arrays.copyOf(array, capacity);
+    System.arraycopy(array, array.length - tail, bigger, capacity - tail, tail);
+    Arrays.fill(bigger, gapStart, capacity - tail, null);
+    return bigger;
+  }
+
+  /**
+   * Copies an array into a larger one, keeping the gap in the middle.
+   * @param array the array to copy.
+   * @param capacity the length of the new array.
+   * @param tail the number of elements after the gap.
+   * @return the new array.
+   */
+  private int[] grow(int[] array, int capacity, int tail)
+  {
+    int[] bigger = new int[capacity];
+    System.arraycopy(array, 0, bigger, 0, gapStart);
+    System.arraycopy(array, array.length - tail, bigger, capacity - tail, tail);
+    return bigger;
+  }
+
+  /**
+   * Copies an array into a larger one, keeping the gap in the middle.
+   * @param array the array to copy.
+   * @param capacity the length of the new array.
+   * @param tail the number of elements after the gap.
+   * @return the new array.
+   */
+  private boolean[] grow(boolean[] array, int capacity, int tail)
+  {
+    boolean[] bigger = new boolean[capacity];
+    System.arraycopy(array, 0, bigger, 0, gapStart);
+    System.arraycopy(array, array.length - tail, bigger, capacity - tail, tail);
+    return bigger;
+  }
+}
@@ -0,0 +1,27 @@
+package parser;
+
+import java.io.PrintStream;
+import lexer.Token;
+
+/**
+ * Traces a parse by printing each token as the parser reads it.
+ */
+public class TracingListener implements ParseListener
+{
+  private final PrintStream out;  // Where the trace is printed.
+
+  /**
+   * Constructs a listener that prints to {@code out}.
+   * @param out where to print the trace.
+   */
+  public TracingListener(PrintStream out)
+  {
+    this.out = out;
+  }
+
+  @Override
+  public void tokenRead(Token tok)
+  {
+    out.println("nextToken: " + tok);
+  }
+}
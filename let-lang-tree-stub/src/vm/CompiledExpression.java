@@ -0,0 +1,18 @@
+package vm;
+
+/**
+ * An expression that has been compiled for repeated evaluation. The
+ * inputs are the values of the free variables of the expression, in the
+ * order given by {@link Program#getInputNames()}.
+ */
+public interface CompiledExpression
+{
+  /**
+   * Evaluates the expression, converting an integer result to a real
+   * number.
+   * @param inputs the values of the inputs of the expression.
+   * @return the value of the expression.
+   * @throws ast.EvaluationException if an integer is divided by zero.
+   */
+  double eval(double[] inputs);
+}
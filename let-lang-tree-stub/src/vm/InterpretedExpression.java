@@ -0,0 +1,25 @@
+package vm;
+
+/**
+ * A compiled expression run by the {@link VirtualMachine}. Each thread
+ * gets its own machine, so the expression may be shared between threads.
+ */
+final class InterpretedExpression implements CompiledExpression
+{
+  private final ThreadLocal<VirtualMachine> machines;
+
+  /**
+   * Constructs an expression that interprets {@code program}.
+   * @param program the program to run.
+   */
+  InterpretedExpression(Program program)
+  {
+    machines = ThreadLocal.withInitial(() -> new VirtualMachine(program));
+  }
+
+  @Override
+  public double eval(double[] inputs)
+  {
+    return machines.get().evaluate(inputs);
+  }
+}
@@ -0,0 +1,486 @@
+package vm;
+
+import ast.EvaluationException;
+import ast.SyntaxTree;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+
+/**
+ * Compiles programs to JVM classes so HotSpot can optimize a whole
+ * expression. Each program becomes a hidden class implementing
+ * {@link CompiledExpression}, whose {@code eval} method holds the
+ * program's instructions translated one for one into JVM bytecode. Let
+ * slots become local variables.
+ *
+ * Programs too large for a single JVM method are run by the
+ * {@link VirtualMachine} instead, behind the same interface, so callers
+ * never need to know which they got.
+ */
+public class JitCompiler
+{
+  // The name the generated classes are given. The JVM adds a suffix that
+  // makes the name of each hidden class unique.
+  private static final String CLASS_NAME = "vm/JitExpression";
+
+  // The JVM instructions used by the generated code.
+  private static final int ALOAD_0 = 0x2a, ALOAD_1 = 0x2b;
+  private static final int BIPUSH = 0x10, SIPUSH = 0x11, LDC2_W = 0x14;
+  private static final int LLOAD = 0x16, DLOAD = 0x18, LSTORE = 0x37, DSTORE = 0x39;
+  private static final int DALOAD = 0x31;
+  private static final int LADD = 0x61, DADD = 0x63, LSUB = 0x65, DSUB = 0x67;
+  private static final int LMUL = 0x69, DMUL = 0x6b, DDIV = 0x6f;
+  private static final int L2D = 0x8a, DRETURN = 0xaf, RETURN = 0xb1;
+  private static final int INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, WIDE = 0xc4;
+
+  private static final int MAX_CODE = 65535;  // Largest JVM method body.
+
+  private final Program program;
+  private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+  private final HashMap<Object, Integer> constants = new HashMap<>();
+  private int poolCount = 1;           // The next constant pool index.
+  private int depth, maxDepth;         // Operand stack depth, in JVM words.
+  private int tempLocal;               // A spare local for swapping operands.
+
+  private JitCompiler(Program program)
+  {
+    this.program = program;
+  }
+
+  /**
+   * Compiles a syntax tree to a JVM class, or to a program for the virtual
+   * machine if it is too large.
+   * @param tree the tree to compile.
+   * @return the compiled expression.
+   * @throws IllegalArgumentException if the tree contains a node that can
+   * not be evaluated.
+   */
+  public static CompiledExpression compile(SyntaxTree tree)
+  {
+    return compile(ProgramCompiler.compile(tree));
+  }
+
+  /**
+   * Compiles a program to a JVM class, or wraps it for the virtual machine
+   * if it is too large.
+   * @param program the program to compile.
+   * @return the compiled expression.
+   */
+  public static CompiledExpression compile(Program program)
+  {
+    byte[] bytes;
+    try
+    {
+      bytes = new JitCompiler(program).generate();
+    }
+    catch (IOException ex)
+    {
+      throw new UncheckedIOException(ex);  // Memory streams do not fail.
+    }
+    if (bytes == null)
+      return interpret(program);
+
+    try
+    {
+      MethodHandles.Lookup lookup = MethodHandles.lookup()
+        .defineHiddenClass(bytes, true);
+      return (CompiledExpression) lookup.findConstructor(lookup.lookupClass(),
+          MethodType.methodType(void.class)).invoke();
+    }
+    catch (LinkageError | IllegalAccessException ex)
+    {
+      // A class the JVM refuses to load or open is interpreted instead.
+    }
+    catch (RuntimeException | Error ex)
+    {
+      throw ex;
+    }
+    catch (Throwable ex)
+    {
+      // So is one whose constructor can not be found or called.
+    }
+    return interpret(program);
+  }
+
+  /**
+   * Wraps a program for the virtual machine without compiling it, for
+   * comparison with compiled expressions.
+   * @param program the program to run.
+   * @return an expression that interprets {@code program}.
+   */
+  public static CompiledExpression interpret(Program program)
+  {
+    return new InterpretedExpression(program);
+  }
+
+  /**
+   * Divides two integers on behalf of generated code, failing the way the
+   * virtual machine does.
+   * @param left the dividend.
+   * @param right the divisor.
+   * @return the quotient.
+   * @throws EvaluationException if {@code right} is zero.
+   */
+  static long divide(long left, long right)
+  {
+    if (right == 0)
+      throw new EvaluationException("Division by zero");
+    return left / right;
+  }
+
+  /************
+   * Private Methods
+   ***********/
+
+  /**
+   * Generates the class file.
+   * @return the bytes of the class file, or null if the program is too
+   * large for a JVM method.
+   * @throws IOException never, as everything is written to memory.
+   */
+  private byte[] generate() throws IOException
+  {
+    int firstDouble = 2 + 2 * program.longSlots;   // Locals 0 and 1 are this and inputs.
+    tempLocal = firstDouble + 2 * program.doubleSlots;
+    int maxLocals = tempLocal + 2;
+    if (maxLocals > 65535)
+      return null;
+
+    int[] insns = program.code;
+    int pc = 0;
+    while (pc < insns.length)
+    {
+      int op = insns[pc++];
+      switch (op)
+      {
+        case Program.LCONST:
+          code(LDC2_W);
+          code2(longConstant(program.longConstants[insns[pc++]]));
+          push(2);
+          break;
+        case Program.DCONST:
+          code(LDC2_W);
+          code2(doubleConstant(program.doubleConstants[insns[pc++]]));
+          push(2);
+          break;
+        case Program.LLOAD:
+          local(LLOAD, 2 + 2 * insns[pc++]);
+          push(2);
+          break;
+        case Program.DLOAD:
+          local(DLOAD, firstDouble + 2 * insns[pc++]);
+          push(2);
+          break;
+        case Program.LSTORE:
+          local(LSTORE, 2 + 2 * insns[pc++]);
+          push(-2);
+          break;
+        case Program.DSTORE:
+          local(DSTORE, firstDouble + 2 * insns[pc++]);
+          push(-2);
+          break;
+        case Program.INPUT:
+          int input = insns[pc++];
+          if (input > Short.MAX_VALUE)
+            return null;
+          code(ALOAD_1);
+          push(1);
+          if (input <= Byte.MAX_VALUE)
+          {
+            code(BIPUSH);
+            code(input);
+          }
+          else
+          {
+            code(SIPUSH);
+            code2(input);
+          }
+          push(1);
+          code(DALOAD);
+          push(0);
+          break;
+
+        default:
+          arithmetic(op);
+      }
+
+      if (code.size() > MAX_CODE - 16 || poolCount > 65000)
+        return null;
+    }
+
+    if (!program.real)
+      code(L2D);
+    code(DRETURN);
+
+    return classFile(maxLocals);
+  }
+
+  /**
+   * Emits the bytecode for an arithmetic instruction of the program. The
+   * JVM has a single operand stack, so when an integer left operand meets
+   * a real right operand the right operand is set aside while the left is
+   * converted.
+   * @param op the arithmetic instruction.
+   */
+  private void arithmetic(int op)
+  {
+    int kind = (op - Program.ADD_LL) / 4;   // LL, DD, LD or DL.
+    int which = (op - Program.ADD_LL) % 4;  // ADD, SUB, MUL or DIV.
+
+    if (kind == 0)
+    {
+      if (which == 3)
+      {
+        code(INVOKESTATIC);
+        code2(methodRef("vm/JitCompiler", "divide", "(JJ)J"));
+      }
+      else
+        code(new int[] {LADD, LSUB, LMUL}[which]);
+      push(-2);
+      return;
+    }
+
+    if (kind == 2)  // Integer left, real right.
+    {
+      local(DSTORE, tempLocal);
+      code(L2D);
+      local(DLOAD, tempLocal);
+    }
+    else if (kind == 3)  // Real left, integer right.
+      code(L2D);
+
+    code(new int[] {DADD, DSUB, DMUL, DDIV}[which]);
+    push(-2);
+  }
+
+  /**
+   * Emits an instruction that takes a local variable index.
+   * @param op the instruction.
+   * @param index the index of the local variable.
+   */
+  private void local(int op, int index)
+  {
+    if (index <= 255)
+    {
+      code(op);
+      code(index);
+    }
+    else
+    {
+      code(WIDE);
+      code(op);
+      code2(index);
+    }
+  }
+
+  /**
+   * Records a change to the operand stack depth.
+   * @param words the number of words pushed, or popped if negative.
+   */
+  private void push(int words)
+  {
+    depth += words;
+    maxDepth = Math.max(maxDepth, depth);
+  }
+
+  /**
+   * Writes the class file around the generated code.
+   * @param maxLocals the number of local variable words of {@code eval}.
+   * @return the bytes of the class file.
+   * @throws IOException never, as everything is written to memory.
+   */
+  private byte[] classFile(int maxLocals) throws IOException
+  {
+    int thisClass = classRef(CLASS_NAME);
+    int superClass = classRef("java/lang/Object");
+    int iface = classRef("vm/CompiledExpression");
+    int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+    int codeName = utf8("Code");
+    int initName = utf8("<init>");
+    int initType = utf8("()V");
+    int evalName = utf8("eval");
+    int evalType = utf8("([D)D");
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0xCAFEBABE);
+    out.writeShort(0);               // minor version
+    out.writeShort(61);              // major version: Java 17
+    out.writeShort(poolCount);
+    pool.writeTo(out);
+    out.writeShort(0x0031);          // public final super
+    out.writeShort(thisClass);
+    out.writeShort(superClass);
+    out.writeShort(1);
+    out.writeShort(iface);
+    out.writeShort(0);               // fields
+    out.writeShort(2);               // methods
+
+    // public <init>() { super(); }
+    byte[] init = {(byte) ALOAD_0, (byte) INVOKESPECIAL,
+      (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN};
+    method(out, initName, initType, codeName, 1, 1, init);
+
+    // public double eval(double[] inputs)
+    method(out, evalName, evalType, codeName, Math.max(maxDepth, 2), maxLocals,
+        code.toByteArray());
+
+    out.writeShort(0);               // class attributes
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Writes a public method with a code attribute.
+   * @param out where to write the method.
+   * @param name the constant pool index of the method name.
+   * @param type the constant pool index of the method descriptor.
+   * @param codeName the constant pool index of the name {@code Code}.
+   * @param maxStack the largest operand stack depth, in words.
+   * @param maxLocals the number of local variable words.
+   * @param body the bytecode of the method.
+   * @throws IOException never, as everything is written to memory.
+   */
+  private static void method(DataOutputStream out, int name, int type, int codeName,
+      int maxStack, int maxLocals, byte[] body) throws IOException
+  {
+    out.writeShort(0x0001);          // public
+    out.writeShort(name);
+    out.writeShort(type);
+    out.writeShort(1);
+    out.writeShort(codeName);
+    out.writeInt(12 + body.length);
+    out.writeShort(maxStack);
+    out.writeShort(maxLocals);
+    out.writeInt(body.length);
+    out.write(body);
+    out.writeShort(0);               // exception table
+    out.writeShort(0);               // code attributes
+  }
+
+  /**
+   * Emits a byte of code.
+   * @param b the byte.
+   */
+  private void code(int b)
+  {
+    code.write(b);
+  }
+
+  /**
+   * Emits a two byte operand.
+   * @param s the operand.
+   */
+  private void code2(int s)
+  {
+    code.write(s >> 8);
+    code.write(s);
+  }
+
+  /************
+   * Constant pool entries. Each is added once and its index reused; the
+   * methods return the index of the entry.
+   ***********/
+
+  private int utf8(String s)
+  {
+    Integer index = constants.get("U" + s);
+    if (index == null)
+    {
+      index = entry(1, 1);
+      byte[] b = s.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+      pool.write(b.length >> 8);
+      pool.write(b.length);
+      pool.write(b, 0, b.length);
+      constants.put("U" + s, index);
+    }
+    return index;
+  }
+
+  private int classRef(String name)
+  {
+    Integer index = constants.get("C" + name);
+    if (index == null)
+    {
+      int nameIndex = utf8(name);
+      index = entry(7, 1);
+      write2(nameIndex);
+      constants.put("C" + name, index);
+    }
+    return index;
+  }
+
+  private int methodRef(String owner, String name, String type)
+  {
+    String key = "M" + owner + "." + name + type;
+    Integer index = constants.get(key);
+    if (index == null)
+    {
+      int ownerIndex = classRef(owner);
+      int nameIndex = utf8(name);
+      int typeIndex = utf8(type);
+      int nameAndType = entry(12, 1);
+      write2(nameIndex);
+      write2(typeIndex);
+      index = entry(10, 1);
+      write2(ownerIndex);
+      write2(nameAndType);
+      constants.put(key, index);
+    }
+    return index;
+  }
+
+  private int longConstant(long value)
+  {
+    Integer index = constants.get(value);
+    if (index == null)
+    {
+      index = entry(5, 2);
+      write8(value);
+      constants.put(value, index);
+    }
+    return index;
+  }
+
+  private int doubleConstant(double value)
+  {
+    Integer index = constants.get(value);
+    if (index == null)
+    {
+      index = entry(6, 2);
+      write8(Double.doubleToRawLongBits(value));
+      constants.put(value, index);
+    }
+    return index;
+  }
+
+  /**
+   * Starts a constant pool entry.
+   * @param tag the tag of the entry.
+   * @param slots the number of pool indexes the entry uses.
+   * @return the index of the entry.
+   */
+  private int entry(int tag, int slots)
+  {
+    pool.write(tag);
+    int index = poolCount;
+    poolCount += slots;
+    return index;
+  }
+
+  private void write2(int s)
+  {
+    pool.write(s >> 8);
+    pool.write(s);
+  }
+
+  private void write8(long v)
+  {
+    for (int shift = 56; shift >= 0; shift -= 8)
+      pool.write((int) (v >> shift));
+  }
+}
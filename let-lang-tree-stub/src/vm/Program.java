@@ -0,0 +1,123 @@
+package vm;
+
+import java.util.Arrays;
+
+/**
+ * A syntax tree compiled to a flat array of instructions for the
+ * {@link VirtualMachine}.
+ *
+ * Integers and real numbers live on separate stacks and in separate slot
+ * arrays, so every instruction knows the types of its operands. Variables
+ * bound by let expressions are resolved to slots when the program is
+ * compiled. Variables the tree does not bind are inputs, read from the
+ * {@code double[]} passed to the machine, and are always real numbers.
+ */
+public final class Program
+{
+  // Instructions. Operands follow their instruction in the code array.
+  static final int LCONST = 0;   // index: push longConstants[index]
+  static final int DCONST = 1;   // index: push doubleConstants[index]
+  static final int LLOAD = 2;    // slot: push longSlots[slot]
+  static final int DLOAD = 3;    // slot: push doubleSlots[slot]
+  static final int LSTORE = 4;   // slot: pop into longSlots[slot]
+  static final int DSTORE = 5;   // slot: pop into doubleSlots[slot]
+  static final int INPUT = 6;    // index: push inputs[index]
+
+  // Arithmetic. The suffix gives the stacks of the left and right
+  // operands: L for the integer stack and D for the real stack. Anything
+  // involving a real operand pushes its result on the real stack.
+  static final int ADD_LL = 7;
+  static final int SUB_LL = 8;
+  static final int MUL_LL = 9;
+  static final int DIV_LL = 10;
+  static final int ADD_DD = 11;
+  static final int SUB_DD = 12;
+  static final int MUL_DD = 13;
+  static final int DIV_DD = 14;
+  static final int ADD_LD = 15;
+  static final int SUB_LD = 16;
+  static final int MUL_LD = 17;
+  static final int DIV_LD = 18;
+  static final int ADD_DL = 19;
+  static final int SUB_DL = 20;
+  static final int MUL_DL = 21;
+  static final int DIV_DL = 22;
+
+  final int[] code;
+  final long[] longConstants;
+  final double[] doubleConstants;
+  final int longSlots;
+  final int doubleSlots;
+  final int maxLongStack;
+  final int maxDoubleStack;
+  final boolean real;
+  private final String[] inputs;
+
+  Program(int[] code, long[] longConstants, double[] doubleConstants,
+      int longSlots, int doubleSlots, int maxLongStack, int maxDoubleStack,
+      boolean real, String[] inputs)
+  {
+    this.code = code;
+    this.longConstants = longConstants;
+    this.doubleConstants = doubleConstants;
+    this.longSlots = longSlots;
+    this.doubleSlots = doubleSlots;
+    this.maxLongStack = maxLongStack;
+    this.maxDoubleStack = maxDoubleStack;
+    this.real = real;
+    this.inputs = inputs;
+  }
+
+  /**
+   * Determines if the program computes a real number.
+   * @return true if the result is real; false if it is an integer.
+   */
+  public boolean isReal()
+  {
+    return real;
+  }
+
+  /**
+   * Gets the names of the inputs of the program, in the order their values
+   * are expected in the input array.
+   * @return the names of the free variables of the compiled tree.
+   */
+  public String[] getInputNames()
+  {
+    return inputs.clone();
+  }
+
+  /**
+   * Finds the position of an input in the input array.
+   * @param name the name of the variable.
+   * @return the index of the input, or -1 if the program has no input
+   * named {@code name}.
+   */
+  public int inputIndex(String name)
+  {
+    for (int i = 0; i < inputs.length; i++)
+      if (inputs[i].equals(name))
+        return i;
+    return -1;
+  }
+
+  /**
+   * Gets the number of ints in the code of the program.
+   * @return the length of the code.
+   */
+  public int size()
+  {
+    return code.length;
+  }
+
+  /**
+   * Provides a string listing the inputs and size of the program.
+   * @return a string representation of the program.
+   */
+  @Override
+  public String toString()
+  {
+    return "Program(" + Arrays.toString(inputs) + ", " + code.length + " ints, "
+      + (real ? "REAL" : "INT") + ")";
+  }
+}
@@ -0,0 +1,260 @@
+package vm;
+
+import ast.SyntaxTree;
+import ast.nodes.SyntaxNode;
+import ast.nodes.TreeWalker;
+import lexer.Token;
+import lexer.TokenType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Compiles syntax trees to {@link Program}s.
+ */
+public class ProgramCompiler
+{
+  private int[] code = new int[64];           // The code being emitted.
+  private int size;                           // The ints of code emitted.
+  private ArrayList<Long> longConstants = new ArrayList<>();
+  private ArrayList<Double> doubleConstants = new ArrayList<>();
+  private HashMap<String, Integer> inputs = new HashMap<>();
+  private ArrayList<String> inputNames = new ArrayList<>();
+
+  private String[] scopeNames = new String[16];   // Bound variables, innermost last.
+  private boolean[] scopeReal = new boolean[16];  // True if a variable is real.
+  private int scopeSize;                          // Variables in scope.
+  private int longSlots;                          // Integer slots needed.
+  private int doubleSlots;                        // Real slots needed.
+
+  private int longDepth, doubleDepth;             // Current stack depths.
+  private int maxLongDepth, maxDoubleDepth;       // Largest stack depths.
+
+  private ProgramCompiler()
+  {
+  }
+
+  /**
+   * Compiles a syntax tree.
+   * @param tree the tree to compile.
+   * @return the compiled program.
+   * @throws IllegalArgumentException if the tree contains a node that can
+   * not be evaluated, such as the empty node left by a syntax error.
+   */
+  public static Program compile(SyntaxTree tree)
+  {
+    return compile(tree.getRootNode());
+  }
+
+  /**
+   * Compiles the tree rooted at {@code root}.
+   * @param root the root of the tree to compile.
+   * @return the compiled program.
+   * @throws IllegalArgumentException if the tree contains a node that can
+   * not be evaluated, such as the empty node left by a syntax error.
+   */
+  public static Program compile(SyntaxNode root)
+  {
+    ProgramCompiler c = new ProgramCompiler();
+    boolean real = TreeWalker.walk(root, c.new Emitter());
+
+    long[] longs = new long[c.longConstants.size()];
+    for (int i = 0; i < longs.length; i++)
+      longs[i] = c.longConstants.get(i);
+    double[] doubles = new double[c.doubleConstants.size()];
+    for (int i = 0; i < doubles.length; i++)
+      doubles[i] = c.doubleConstants.get(i);
+
+    return new Program(Arrays.copyOf(c.code, c.size), longs, doubles,
+        c.longSlots, c.doubleSlots, c.maxLongDepth, c.maxDoubleDepth, real,
+        c.inputNames.toArray(new String[0]));
+  }
+
+  /************
+   * Private Methods
+   ***********/
+
+  /**
+   * Emits the store of the value of a bound expression into the slot of
+   * its variable and brings the variable into scope.
+   * @param variable the variable the let binds.
+   * @param real true if the bound expression leaves a real number.
+   */
+  private void bind(Token variable, boolean real)
+  {
+    int slot = scopeSize;
+    if (real)
+    {
+      emit(Program.DSTORE, slot, 0, -1);
+      doubleSlots = Math.max(doubleSlots, slot + 1);
+    }
+    else
+    {
+      emit(Program.LSTORE, slot, -1, 0);
+      longSlots = Math.max(longSlots, slot + 1);
+    }
+    pushScope(variable.getValue(), real);
+  }
+
+  /**
+   * Emits the code for a literal or identifier.
+   * @param tok the token of the leaf.
+   * @return true if the leaf leaves a real number on the real stack; false
+   * if it leaves an integer on the integer stack.
+   */
+  private boolean compileToken(Token tok)
+  {
+    switch (tok.getType())
+    {
+      case INT:
+        long value;
+        try {
+          value = Long.parseLong(tok.getValue());
+        } catch (NumberFormatException ex) {
+          throw new IllegalArgumentException("Integer out of range: " + tok.getValue());
+        }
+        emit(Program.LCONST, longConstants.size(), 1, 0);
+        longConstants.add(value);
+        return false;
+
+      case REAL:
+        emit(Program.DCONST, doubleConstants.size(), 0, 1);
+        doubleConstants.add(Double.parseDouble(tok.getValue()));
+        return true;
+
+      case ID:
+        String name = tok.getValue();
+        for (int slot = scopeSize - 1; slot >= 0; slot--)
+          if (scopeNames[slot].equals(name))
+          {
+            if (scopeReal[slot])
+              emit(Program.DLOAD, slot, 0, 1);
+            else
+              emit(Program.LLOAD, slot, 1, 0);
+            return scopeReal[slot];
+          }
+
+        Integer input = inputs.get(name);
+        if (input == null)
+        {
+          input = inputNames.size();
+          inputs.put(name, input);
+          inputNames.add(name);
+        }
+        emit(Program.INPUT, input, 0, 1);
+        return true;
+
+      default:
+        throw new IllegalArgumentException("Can not compile " + tok);
+    }
+  }
+
+  /**
+   * Emits an arithmetic instruction for operands of the given types.
+   * @param op the type of the operator token.
+   * @param leftReal true if the left operand is real.
+   * @param rightReal true if the right operand is real.
+   * @return true if the result is real.
+   */
+  private boolean emitOperation(TokenType op, boolean leftReal, boolean rightReal)
+  {
+    int base;
+    if (!leftReal && !rightReal)
+      base = Program.ADD_LL;
+    else if (leftReal && rightReal)
+      base = Program.ADD_DD;
+    else if (!leftReal)
+      base = Program.ADD_LD;
+    else
+      base = Program.ADD_DL;
+
+    int offset;
+    switch (op)
+    {
+      case ADD:  offset = 0; break;
+      case SUB:  offset = 1; break;
+      case MULT: offset = 2; break;
+      case DIV:  offset = 3; break;
+      default:
+        throw new IllegalArgumentException("Can not compile operation " + op);
+    }
+
+    int longs = (leftReal ? 0 : 1) + (rightReal ? 0 : 1);
+    int doubles = 2 - longs;
+    boolean real = leftReal || rightReal;
+    emit(base + offset, -1, (real ? 0 : 1) - longs, (real ? 1 : 0) - doubles);
+    return real;
+  }
+
+  /**
+   * Appends an instruction and tracks the stack depths.
+   * @param op the instruction.
+   * @param operand the operand of the instruction, or -1 if it has none.
+   * @param longChange the change to the depth of the integer stack.
+   * @param doubleChange the change to the depth of the real stack.
+   */
+  private void emit(int op, int operand, int longChange, int doubleChange)
+  {
+    if (size + 2 > code.length)
+      code = Arrays.copyOf(code, code.length * 2);
+    code[size++] = op;
+    if (operand >= 0)
+      code[size++] = operand;
+
+    longDepth += longChange;
+    doubleDepth += doubleChange;
+    maxLongDepth = Math.max(maxLongDepth, longDepth);
+    maxDoubleDepth = Math.max(maxDoubleDepth, doubleDepth);
+  }
+
+  /**
+   * Brings a variable into scope.
+   * @param name the name of the variable.
+   * @param real true if the variable holds a real number.
+   */
+  private void pushScope(String name, boolean real)
+  {
+    if (scopeSize == scopeNames.length)
+    {
+      scopeNames = Arrays.copyOf(scopeNames, scopeSize * 2);
+      scopeReal = Arrays.copyOf(scopeReal, scopeSize * 2);
+    }
+    scopeNames[scopeSize] = name;
+    scopeReal[scopeSize] = real;
+    scopeSize++;
+  }
+
+  /**
+   * Emits the code of each node as the walk leaves it, so the code of the
+   * operands comes before that of their operation. The value of a node is
+   * true if its code leaves a real number on the real stack and false if
+   * it leaves an integer on the integer stack.
+   */
+  private final class Emitter implements TreeWalker.Pass<Boolean>
+  {
+    @Override
+    public Boolean leaf(SyntaxNode node, Token tok, int slot)
+    {
+      return compileToken(tok);
+    }
+
+    @Override
+    public Boolean operation(Token op, Boolean leftReal, Boolean rightReal)
+    {
+      return emitOperation(op.getType(), leftReal, rightReal);
+    }
+
+    @Override
+    public void bind(Token variable, int slot, Boolean real)
+    {
+      ProgramCompiler.this.bind(variable, real);
+    }
+
+    @Override
+    public Boolean let(Token variable, int slot, Boolean real, Boolean bodyReal)
+    {
+      scopeSize--;
+      return bodyReal;
+    }
+  }
+}
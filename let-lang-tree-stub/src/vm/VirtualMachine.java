@@ -0,0 +1,139 @@
+package vm;
+
+import ast.EvaluationException;
+
+/**
+ * Runs a {@link Program}. A machine owns the stacks and slots the program
+ * needs, so once it is built running the program allocates nothing. A
+ * machine is not thread safe; give each thread its own.
+ */
+public final class VirtualMachine
+{
+  private final Program program;
+  private final long[] longStack;
+  private final double[] doubleStack;
+  private final long[] longSlots;
+  private final double[] doubleSlots;
+
+  /**
+   * Constructs a machine for {@code program}.
+   * @param program the program to run.
+   */
+  public VirtualMachine(Program program)
+  {
+    this.program = program;
+    longStack = new long[program.maxLongStack];
+    doubleStack = new double[program.maxDoubleStack];
+    longSlots = new long[program.longSlots];
+    doubleSlots = new double[program.doubleSlots];
+  }
+
+  /**
+   * Gets the program the machine runs.
+   * @return the program of the machine.
+   */
+  public Program getProgram()
+  {
+    return program;
+  }
+
+  /**
+   * Runs the program, converting an integer result to a real number.
+   * @param inputs the values of the inputs of the program.
+   * @return the result of the program.
+   * @throws EvaluationException if an integer is divided by zero.
+   */
+  public double evaluate(double[] inputs)
+  {
+    execute(inputs);
+    return program.real ? doubleStack[0] : longStack[0];
+  }
+
+  /**
+   * Runs a program that computes an integer.
+   * @param inputs the values of the inputs of the program.
+   * @return the result of the program.
+   * @throws IllegalStateException if the program computes a real number.
+   * @throws EvaluationException if an integer is divided by zero.
+   */
+  public long evaluateLong(double[] inputs)
+  {
+    if (program.real)
+      throw new IllegalStateException("The program computes a real number");
+    execute(inputs);
+    return longStack[0];
+  }
+
+  /**
+   * Runs the program and boxes its result.
+   * @param inputs the values of the inputs of the program.
+   * @return a {@code Long} or {@code Double} holding the result.
+   * @throws EvaluationException if an integer is divided by zero.
+   */
+  public Number evaluateNumber(double[] inputs)
+  {
+    execute(inputs);
+    if (program.real)
+      return doubleStack[0];
+    return longStack[0];
+  }
+
+  /**
+   * Runs the program, leaving its result at the bottom of the stack of
+   * its type.
+   * @param inputs the values of the inputs of the program.
+   */
+  private void execute(double[] inputs)
+  {
+    final int[] code = program.code;
+    final long[] ls = longStack;
+    final double[] ds = doubleStack;
+    int lp = 0;  // The number of values on the integer stack.
+    int dp = 0;  // The number of values on the real stack.
+    int pc = 0;
+
+    while (pc < code.length)
+    {
+      switch (code[pc++])
+      {
+        case Program.LCONST: ls[lp++] = program.longConstants[code[pc++]]; break;
+        case Program.DCONST: ds[dp++] = program.doubleConstants[code[pc++]]; break;
+        case Program.LLOAD:  ls[lp++] = longSlots[code[pc++]]; break;
+        case Program.DLOAD:  ds[dp++] = doubleSlots[code[pc++]]; break;
+        case Program.LSTORE: longSlots[code[pc++]] = ls[--lp]; break;
+        case Program.DSTORE: doubleSlots[code[pc++]] = ds[--dp]; break;
+        case Program.INPUT:  ds[dp++] = inputs[code[pc++]]; break;
+
+        case Program.ADD_LL: lp--; ls[lp - 1] += ls[lp]; break;
+        case Program.SUB_LL: lp--; ls[lp - 1] -= ls[lp]; break;
+        case Program.MUL_LL: lp--; ls[lp - 1] *= ls[lp]; break;
+        case Program.DIV_LL:
+          lp--;
+          if (ls[lp] == 0)
+            throw new EvaluationException("Division by zero");
+          ls[lp - 1] /= ls[lp];
+          break;
+
+        case Program.ADD_DD: dp--; ds[dp - 1] += ds[dp]; break;
+        case Program.SUB_DD: dp--; ds[dp - 1] -= ds[dp]; break;
+        case Program.MUL_DD: dp--; ds[dp - 1] *= ds[dp]; break;
+        case Program.DIV_DD: dp--; ds[dp - 1] /= ds[dp]; break;
+
+        // Integer on the left, real on the right.
+        case Program.ADD_LD: ds[dp - 1] = ls[--lp] + ds[dp - 1]; break;
+        case Program.SUB_LD: ds[dp - 1] = ls[--lp] - ds[dp - 1]; break;
+        case Program.MUL_LD: ds[dp - 1] = ls[--lp] * ds[dp - 1]; break;
+        case Program.DIV_LD: ds[dp - 1] = ls[--lp] / ds[dp - 1]; break;
+
+        // Real on the left, integer on the right.
+        case Program.ADD_DL: ds[dp - 1] = ds[dp - 1] + ls[--lp]; break;
+        case Program.SUB_DL: ds[dp - 1] = ds[dp - 1] - ls[--lp]; break;
+        case Program.MUL_DL: ds[dp - 1] = ds[dp - 1] * ls[--lp]; break;
+        case Program.DIV_DL: ds[dp - 1] = ds[dp - 1] / ls[--lp]; break;
+
+        default:
+          throw new IllegalStateException("Bad instruction " + code[pc - 1]);
+      }
+    }
+  }
+}
@@ -0,0 +1,172 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import lexer.Token;
+import lexer.TokenType;
+import parser.Parser;
+import ast.MemoizedEvaluator;
+import ast.Optimizer;
+import ast.SyntaxTree;
+
+/**
+ * Checks that trees far deeper than a thread's stack allows a recursive
+ * walk to go parse, print, optimize and evaluate: sums leaning left and
+ * sums leaning right through nested parentheses, of literals and of a
+ * free variable the optimizer can not fold away, and a chain of nested
+ * lets, each as deep as it has terms. Each must print as the tree it is
+ * and each way of evaluating it, optimized or not, must give the number
+ * of terms. A failed check exits with status 2.
+ *
+ * The check is not part of the library; {@code ant deep} builds it and
+ * runs it on a small stack.
+ */
+public class DeepCheck {
+	 /**
+		* The entry point.
+		* @param args the command line arguments; the first, if any, is the
+		* number of terms.
+		*/
+	public static void main(String[] args)
+	{
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		String one = "TokenNode(INT(1))";
+		StringBuilder src = new StringBuilder();
+		StringBuilder tree = new StringBuilder();
+
+		// 1 + 1 + ... + 1 and 1 + x + ... + x
+		String[] terms = { "1", "x" };
+		String[] leaves = { one, "TokenNode(ID(x))" };
+		boolean ok = true;
+		for (int t = 0; t < 2; t++)
+		{
+			src.setLength(0);
+			tree.setLength(0);
+			src.append('1');
+			for (int i = 1; i < count; i++)
+			{
+				src.append(" + ").append(terms[t]);
+				tree.append("BinOpNode(");
+			}
+			tree.append(one);
+			for (int i = 1; i < count; i++)
+				tree.append(", ADD, ").append(leaves[t]).append(')');
+			ok &= check("Sum of " + count + " terms of " + terms[t], src.toString(), tree.toString(), count);
+		}
+
+		// 1 + (1 + (... + 1)) and x + (x + (... + 1))
+		for (int t = 0; t < 2; t++)
+		{
+			src.setLength(0);
+			tree.setLength(0);
+			for (int i = 1; i < count; i++)
+			{
+				src.append(terms[t]).append(" + (");
+				tree.append("BinOpNode(").append(leaves[t]).append(", ADD, ");
+			}
+			src.append('1');
+			tree.append(one);
+			for (int i = 1; i < count; i++)
+			{
+				src.append(')');
+				tree.append(')');
+			}
+			ok &= check("Nested sum of " + count + " terms of " + terms[t], src.toString(), tree.toString(), count);
+		}
+
+		// let x := 1 in let x := x + 1 in ... x
+		src.setLength(0);
+		tree.setLength(0);
+		src.append("let x := 1 in ");
+		tree.append("LetNode(ID(x), ").append(one).append(", ");
+		for (int i = 1; i < count; i++)
+		{
+			src.append("let x := x + 1 in ");
+			tree.append("LetNode(ID(x), BinOpNode(TokenNode(ID(x)), ADD, ").append(one).append("), ");
+		}
+		src.append('x');
+		tree.append("TokenNode(ID(x))");
+		for (int i = 0; i < count; i++)
+			tree.append(')');
+		ok &= check(count + " nested lets", src.toString(), tree.toString(), count);
+
+		if (!ok)
+			System.exit(2);
+	}
+
+	/**
+	 * Parses a generated input, prints it and evaluates it every way there
+	 * is, the optimized tree as well.
+	 * @param shape the description of the input.
+	 * @param src the input.
+	 * @param printed the rendering of the tree of the input.
+	 * @param expected the value of the input.
+	 * @return true if every check passed; otherwise, false.
+	 */
+	private static boolean check(String shape, String src, String printed, long expected)
+	{
+		System.out.print(shape + ":");
+		Parser parse = new Parser(src);
+		SyntaxTree ast;
+		try
+		{
+			ast = parse.parse();
+		}
+		catch (StackOverflowError ex)
+		{
+			System.out.println(" parse overflowed the stack");
+			return false;
+		}
+		if (parse.hasError())
+		{
+			System.out.println(" parse failed");
+			return false;
+		}
+
+		// The free variable of the sums of x is 1.
+		ast.getEnvironment().updateEnvironment(new Token(TokenType.ID, "x"), 1L);
+		boolean ok;
+		try
+		{
+			ok = ast.toString().equals(printed);
+			System.out.print(ok ? " print ok" : " print differs");
+		}
+		catch (StackOverflowError ex)
+		{
+			System.out.print(" print overflowed the stack");
+			ok = false;
+		}
+		ok &= value("evaluate", ast::evaluate, expected);
+		ok &= value("parallel", () -> ast.evaluateParallel(ForkJoinPool.commonPool()), expected);
+		ok &= value("memoized", () -> new MemoizedEvaluator(ast).evaluate(), expected);
+		ok &= value("optimized", () -> Optimizer.optimize(ast).evaluate(), expected);
+		System.out.println();
+		return ok;
+	}
+
+	/**
+	 * Checks one way of evaluating a generated input.
+	 * @param name the name of the way of evaluating.
+	 * @param evaluation evaluates the input.
+	 * @param expected the value of the input.
+	 * @return true if the evaluation gave the value; otherwise, false.
+	 */
+	private static boolean value(String name, Supplier<Object> evaluation, long expected)
+	{
+		Object value;
+		try
+		{
+			value = evaluation.get();
+		}
+		catch (RuntimeException | StackOverflowError ex)
+		{
+			System.out.print(" " + name + " failed (" + ex + ")");
+			return false;
+		}
+		if (!Long.valueOf(expected).equals(value))
+		{
+			System.out.print(" " + name + " gave " + value);
+			return false;
+		}
+		System.out.print(" " + name + " ok");
+		return true;
+	}
+}
@@ -0,0 +1,207 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import parser.Diagnostic;
+import parser.IncrementalParser;
+import parser.Parser;
+import ast.EvaluationException;
+import ast.SyntaxTree;
+import ast.TreeFile;
+
+/**
+ * Generates random expressions and edits each with an incremental parser,
+ * a few characters at a time being replaced by bits of syntax or by a
+ * whole expression, or a number or identifier by an expression,
+ * which keeps the source free of errors so that only the part of the tree
+ * around the edit is parsed again; every other source is only edited
+ * that way. It checks after each edit that the tree, its slots,
+ * its value and the syntax errors are those of a fresh parse of the
+ * edited source. A difference exits with status 2.
+ *
+ * The check is not part of the library; {@code ant edits} builds and
+ * runs it.
+ */
+public class EditCheck {
+	private static final int SOURCES = 400;  // The expressions to generate.
+	private static final int EDITS = 60;     // The edits to make to each.
+
+	// The text put in place of the characters an edit deletes.
+	private static final String[] TEXTS = { "", "", " ", "\n", "(", ")", "1", "2.5",
+			"x", "y", " + ", " * ", " - ", " / ", "let ", " in ", " := ", "in", "le",
+			"let x := 1 in ", "let y := x in ", "(x + 1)", "99999999999999999999" };
+
+	// The expressions put in place of a number or identifier.
+	private static final String[] OPERANDS = { "7", "x", "y", "(x + 1)", "((2 * y))",
+			"(let z := 2 in z)", "(let x := 3 in x * y)", "(let y := x in let z := y in z - x)" };
+
+	 /**
+		* The entry point.
+		* @param args the command line arguments; the first, if any, is the
+		* seed of the expressions and edits.
+		*/
+	public static void main(String[] args)
+	{
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		Random random = new Random(seed);
+		int differed = 0;
+		for (int s = 0; s < SOURCES; s++)
+		{
+			String text = randomExpression(random, 6, new ArrayList<>());
+			IncrementalParser incremental = new IncrementalParser(text);
+			for (int e = 0; e < EDITS; e++)
+			{
+				int offset = random.nextInt(text.length() + 1);
+				int deleted = 0;
+				String inserted;
+				int operand = s % 2 == 1 || random.nextBoolean() ? operand(random, text) : -1;
+				if (operand >= 0)
+				{
+					offset = operand;
+					deleted = wordEnd(text, operand) - operand;
+					inserted = OPERANDS[random.nextInt(OPERANDS.length)];
+				}
+				else if (random.nextInt(10) == 0)
+					inserted = " " + randomExpression(random, 2, new ArrayList<>()) + " ";
+				else
+				{
+					deleted = Math.min(random.nextInt(4), text.length() - offset);
+					inserted = TEXTS[random.nextInt(TEXTS.length)];
+				}
+				incremental.edit(offset, deleted, inserted);
+				text = incremental.getText();
+
+				String difference = freshDifference(incremental, text);
+				if (difference != null)
+				{
+					System.out.println("Edit of " + deleted + " characters at " + offset + " of "
+							+ text + " differs from a fresh parse: " + difference);
+					differed++;
+					incremental = new IncrementalParser(text);
+				}
+			}
+		}
+		System.out.println("Made " + SOURCES * EDITS + " edits, " + differed
+				+ " differed from a fresh parse (seed " + seed + ")");
+		if (differed > 0)
+			System.exit(2);
+	}
+
+	/**
+	 * Generates a random expression of numbers, free variables, operations
+	 * and lets, some of whose identifiers read the variables of the lets
+	 * around them.
+	 * @param random the source of the choices.
+	 * @param depth the most operations and lets deep the expression nests.
+	 * @param scope the variables bound around the expression.
+	 * @return the expression.
+	 */
+	private static String randomExpression(Random random, int depth, List<String> scope)
+	{
+		switch (random.nextInt(depth <= 0 ? 3 : 6))
+		{
+			case 0:
+				return Integer.toString(random.nextInt(9));
+			case 1:
+				return random.nextInt(9) + "." + random.nextInt(9);
+			case 2:
+				if (!scope.isEmpty() && random.nextBoolean())
+					return scope.get(random.nextInt(scope.size()));
+				return "a" + random.nextInt(3);
+			case 3:
+				String variable = "xyz".substring(random.nextInt(3)).substring(0, 1);
+				String bound = randomExpression(random, depth - 1, scope);
+				List<String> inner = new ArrayList<>(scope);
+				inner.add(variable);
+				return "(let " + variable + " := " + bound + (random.nextInt(4) == 0 ? "\n" : " ")
+						+ "in " + randomExpression(random, depth - 1, inner) + ")";
+			default:
+				return "(" + randomExpression(random, depth - 1, scope) + (random.nextInt(5) == 0 ? "\n" : " ")
+						+ "+-*/".charAt(random.nextInt(4)) + " " + randomExpression(random, depth - 1, scope) + ")";
+		}
+	}
+
+	/**
+	 * Picks an integer or an identifier other than the variable of a let
+	 * in a source.
+	 * @param random the source of the choice.
+	 * @param text the source.
+	 * @return the offset of the operand, or -1 if the source has none.
+	 */
+	private static int operand(Random random, String text)
+	{
+		List<Integer> operands = new ArrayList<>();
+		for (int i = 0; i < text.length(); i = Math.max(i + 1, wordEnd(text, i)))
+		{
+			int end = wordEnd(text, i);
+			if (end == i || (i > 0 && text.charAt(i - 1) == '.') || (end < text.length() && text.charAt(end) == '.'))
+				continue;
+			String word = text.substring(i, end);
+			if (!word.equals("let") && !word.equals("in") && !text.startsWith("let ", Math.max(i - 4, 0)))
+				operands.add(i);
+		}
+		return operands.isEmpty() ? -1 : operands.get(random.nextInt(operands.size()));
+	}
+
+	/**
+	 * Finds the end of the run of letters and digits starting at an offset
+	 * of a source.
+	 * @param text the source.
+	 * @param i the offset.
+	 * @return the offset after the run, which is {@code i} if there is none.
+	 */
+	private static int wordEnd(String text, int i)
+	{
+		while (i < text.length() && Character.isLetterOrDigit(text.charAt(i)))
+			i++;
+		return i;
+	}
+
+	/**
+	 * Compares the outcome of an incremental parse with a fresh parse.
+	 * @param incremental the incremental parser.
+	 * @param text the source it has parsed.
+	 * @return what differs, or null if nothing does.
+	 */
+	private static String freshDifference(IncrementalParser incremental, String text)
+	{
+		Parser fresh = new Parser(text);
+		fresh.setErrorOutput(new PrintStream(OutputStream.nullOutputStream()));
+		SyntaxTree tree = fresh.parse();
+		SyntaxTree edited = incremental.getTree();
+
+		List<Diagnostic> errors = incremental.getDiagnostics();
+		List<Diagnostic> freshErrors = fresh.getDiagnostics();
+		if (incremental.hasError() != fresh.hasError() || !errors.toString().equals(freshErrors.toString()))
+			return "errors " + errors + " rather than " + freshErrors;
+		for (int i = 0; i < errors.size(); i++)
+			if (errors.get(i).getKind() != freshErrors.get(i).getKind())
+				return "error " + errors.get(i).getKind() + " rather than " + freshErrors.get(i).getKind();
+		if (!edited.toString().equals(tree.toString()))
+			return "tree " + edited + " rather than " + tree;
+		// The rendering leaves out the slots, which the tree file keeps.
+		if (!TreeFile.encode(edited).equals(TreeFile.encode(tree)))
+			return "slots of tree " + edited;
+		if (!outcome(edited).equals(outcome(tree)))
+			return outcome(edited) + " rather than " + outcome(tree);
+		return null;
+	}
+
+	/**
+	 * Evaluates a tree for comparison.
+	 * @param ast the tree to evaluate.
+	 * @return the value, or the message of the evaluation error.
+	 */
+	private static String outcome(SyntaxTree ast)
+	{
+		try
+		{
+			return "Value: " + ast.evaluate();
+		}
+		catch (EvaluationException ex)
+		{
+			return "Evaluation failed: " + ex.getMessage();
+		}
+	}
+}